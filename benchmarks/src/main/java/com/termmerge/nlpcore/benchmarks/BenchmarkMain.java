@@ -0,0 +1,47 @@
+package com.termmerge.nlpcore.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+
+
+/**
+ * Entry point of benchmarks.jar. Takes the usual JMH command line, but
+ *  unless "-rf"/"-rff" say otherwise results are also written as JSON to
+ *  "target/jmh-result.json" so runs can be compared by tooling.
+ */
+public class BenchmarkMain
+{
+
+  public static void main(String[] args)
+          throws CommandLineOptionException, RunnerException, IOException
+  {
+    CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+    if (commandLineOptions.shouldHelp()) {
+      commandLineOptions.showHelp();
+      return;
+    }
+    else if (commandLineOptions.shouldList()) {
+      new Runner(commandLineOptions).list();
+      return;
+    }
+
+    ChainedOptionsBuilder options =
+            new OptionsBuilder().parent(commandLineOptions);
+    if (!commandLineOptions.getResultFormat().hasValue()) {
+      options.resultFormat(ResultFormatType.JSON);
+    }
+    if (!commandLineOptions.getResult().hasValue()) {
+      options.result("target/jmh-result.json");
+    }
+
+    new Runner(options.build()).run();
+  }
+
+}
@@ -0,0 +1,97 @@
+package com.termmerge.nlpcore.benchmarks.datastore;
+
+import java.util.Properties;
+import java.util.stream.IntStream;
+import java.util.concurrent.TimeUnit;
+import com.termmerge.nlpcore.datastore.QueryParameters;
+import com.termmerge.nlpcore.datastore.PostgresDataStore;
+
+import acolyte.jdbc.UpdateResult;
+import acolyte.jdbc.CompositeHandler;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+
+
+/**
+ * Per-row cost of JDBCDataStore.bulkWrite by batch size, against an
+ *  Acolyte in-memory driver. A batch size of 1 stands for writing row by
+ *  row; against a real database every flush is also a round trip
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JDBCDataStoreBulkWriteBenchmark
+{
+
+  private static final int ROWS = 10000;
+
+  // Rows per flush
+  @Param({"1", "1000"})
+  public int batchSize;
+
+  private PostgresDataStore dataStore;
+  private QueryParameters[] rows;
+
+  @Setup
+  public void setup()
+  {
+    acolyte.jdbc.Driver.register(
+            "bulkWrite",
+            new CompositeHandler().withUpdateHandler(
+                    (sql, parameters) -> UpdateResult.One
+            )
+    );
+
+    Properties properties = new Properties();
+    properties.setProperty(
+            "connection_string",
+            "jdbc:acolyte:bulkWrite?handler=bulkWrite"
+    );
+    properties.setProperty("bulk_batch_size", String.valueOf(this.batchSize));
+    this.dataStore = new PostgresDataStore();
+    this.dataStore.connect(properties);
+
+    this.rows = new QueryParameters[ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      this.rows[i] = new QueryParameters.Builder()
+              .addString("task" + i)
+              .addString("key")
+              .addString("value" + i)
+              .build();
+    }
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    this.dataStore.disconnect();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public long bulkWrite()
+  {
+    return this.dataStore
+            .bulkWrite(
+                    "INSERT INTO task_parameter (task_id, key, value) " +
+                            "VALUES (?, ?, ?)",
+                    IntStream.range(0, ROWS).mapToObj(i -> this.rows[i])
+            )
+            .success();
+  }
+
+}
@@ -0,0 +1,127 @@
+package com.termmerge.nlpcore.benchmarks.datastore;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import com.termmerge.nlpcore.datastore.PostgresDataStore;
+
+import acolyte.jdbc.RowLists;
+import acolyte.jdbc.RowList2;
+import acolyte.jdbc.CompositeHandler;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+
+/**
+ * Overhead JDBCDataStore adds around a query - statement preparation,
+ *  result set iteration and mapping - against an Acolyte in-memory
+ *  driver, so no database time is measured. The pooled variants add a
+ *  pool borrow and return per query, and run from several threads
+ *  sharing one datastore. With the statement cache on, repeated queries
+ *  skip statement preparation
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JDBCDataStoreQueryBenchmark
+{
+
+  // Rows returned by every query
+  @Param({"1", "100"})
+  public int rows;
+
+  // Prepared statements kept per connection; 0 prepares every query
+  @Param({"0", "64"})
+  public int statementCacheSize;
+
+  private PostgresDataStore dataStore;
+  private PostgresDataStore pooledDataStore;
+
+  @Setup
+  public void setup()
+  {
+    RowList2.Impl<String, String> rowList = RowLists
+            .rowList2(String.class, String.class)
+            .withLabel(1, "word")
+            .withLabel(2, "convergence");
+    for (int row = 0; row < this.rows; row++) {
+      rowList = rowList.append("word" + row, "convergence" + row);
+    }
+    final RowList2.Impl<String, String> result = rowList;
+    acolyte.jdbc.Driver.register(
+            "benchmark",
+            new CompositeHandler()
+                    .withQueryDetection("^SELECT")
+                    .withQueryHandler(
+                            (sql, parameters) -> result.asResult()
+                    )
+    );
+
+    Properties properties = new Properties();
+    properties.setProperty(
+            "connection_string",
+            "jdbc:acolyte:benchmark?handler=benchmark"
+    );
+    properties.setProperty(
+            "statement_cache_size",
+            String.valueOf(this.statementCacheSize)
+    );
+    this.dataStore = new PostgresDataStore();
+    this.dataStore.connect(properties);
+
+    properties.setProperty("pool_size", "4");
+    this.pooledDataStore = new PostgresDataStore();
+    this.pooledDataStore.connect(properties);
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    this.dataStore.disconnect();
+    this.pooledDataStore.disconnect();
+  }
+
+  @Benchmark
+  public long query()
+  {
+    return this.query(this.dataStore);
+  }
+
+  @Benchmark
+  public long pooledQuery()
+  {
+    return this.query(this.pooledDataStore);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public long pooledQueryFourThreads()
+  {
+    return this.query(this.pooledDataStore);
+  }
+
+  private long query(PostgresDataStore queriedDataStore)
+  {
+    return queriedDataStore
+            .query(
+                    "SELECT word, convergence FROM convergence",
+                    resultTuple -> resultTuple[0]
+            )
+            .success()
+            .count();
+  }
+
+}
@@ -0,0 +1,115 @@
+package com.termmerge.nlpcore.benchmarks.messagebus;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.termmerge.nlpcore.messagebus.MessageBusRecord;
+import com.termmerge.nlpcore.messagebus.InMemoryMessageBus;
+import com.termmerge.nlpcore.messagebus.InMemoryMessageBusConsumer;
+import com.termmerge.nlpcore.messagebus.InMemoryMessageBusProducer;
+
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * End-to-end throughput of the in-memory bus: records are published and
+ *  the benchmark waits until listeners have seen all of them. Running
+ *  with as many consumer threads as partitions shows how listener work
+ *  scales with partition parallelism.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InMemoryMessageBusBenchmark
+{
+
+  private static final int BATCH_SIZE = 1000;
+  private static final AtomicInteger BUS_COUNTER = new AtomicInteger();
+
+  // Partitions of the topic and consumer threads reading them
+  @Param({"1", "2", "4"})
+  public int partitions;
+
+  // Simulated listener work per record, in JMH CPU tokens
+  @Param({"0", "100"})
+  public int listenerWork;
+
+  private String connectionString;
+  private InMemoryMessageBusProducer producer;
+  private InMemoryMessageBusConsumer consumer;
+  private byte[] payload;
+
+  // Records seen by listeners, and records published
+  private final AtomicLong consumed = new AtomicLong();
+  private long published;
+
+  @Setup
+  public void setup()
+  {
+    this.connectionString =
+            "memory://benchmark-" + BUS_COUNTER.incrementAndGet();
+    Properties settings = new Properties();
+    settings.setProperty("connection_string", this.connectionString);
+    settings.setProperty("partitions", Integer.toString(this.partitions));
+    settings.setProperty("group_id", "benchmark");
+    settings.setProperty(
+            "consumer_threads",
+            Integer.toString(this.partitions)
+    );
+
+    this.producer = new InMemoryMessageBusProducer();
+    this.producer.connect(settings);
+    this.consumer = new InMemoryMessageBusConsumer();
+    this.consumer.connect(settings);
+    this.consumer.addRecordListener(batch -> {
+      for (MessageBusRecord record : batch.success()) {
+        Blackhole.consumeCPU(this.listenerWork);
+      }
+      this.consumed.addAndGet(batch.success().size());
+    });
+    this.consumer.listenToMessageBus("benchmarkTopic");
+
+    this.payload = "{\"word\":\"merge\"}".getBytes();
+    this.published = 0;
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    this.consumer.disconnect();
+    this.producer.disconnect();
+    InMemoryMessageBus.destroy(this.connectionString);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void publishAndConsume()
+  {
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      this.producer.publishToMessageBus("benchmarkTopic", null, this.payload);
+    }
+    this.published += BATCH_SIZE;
+
+    while (this.consumed.get() < this.published) {
+      Thread.yield();
+    }
+  }
+
+}
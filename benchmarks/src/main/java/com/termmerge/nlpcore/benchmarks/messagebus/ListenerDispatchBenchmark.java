@@ -0,0 +1,134 @@
+package com.termmerge.nlpcore.benchmarks.messagebus;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.Collections;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import com.termmerge.nlpcore.messagebus.MessageBusRecord;
+import com.termmerge.nlpcore.messagebus.KafkaMessageBusConsumer;
+
+import fj.data.Validation;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Cost per record of handing polled records to N listeners: one call
+ *  per record versus one call per batch, and key-value Properties
+ *  versus raw MessageBusRecords. No broker is involved - records are
+ *  published straight into an unconnected consumer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListenerDispatchBenchmark
+{
+
+  private static final int BATCH_SIZE = 100;
+
+  @Param({"1", "4", "16"})
+  public int listeners;
+
+  // Consumers with per-record, batch and raw record listeners
+  private KafkaMessageBusConsumer recordByRecordConsumer;
+  private KafkaMessageBusConsumer batchConsumer;
+  private KafkaMessageBusConsumer rawRecordConsumer;
+
+  private List<Properties> propertiesBatch;
+  private List<MessageBusRecord> recordBatch;
+
+  @Setup
+  public void setup(Blackhole blackhole)
+  {
+    this.recordByRecordConsumer = new KafkaMessageBusConsumer();
+    this.batchConsumer = new KafkaMessageBusConsumer();
+    this.rawRecordConsumer = new KafkaMessageBusConsumer();
+    for (int i = 0; i < this.listeners; i++) {
+      this.recordByRecordConsumer.addListener(record ->
+              blackhole.consume(record.success().getProperty("value"))
+      );
+      this.batchConsumer.addBatchListener(batch -> {
+        for (Properties record : batch.success()) {
+          blackhole.consume(record.getProperty("value"));
+        }
+      });
+      this.rawRecordConsumer.addRecordListener(batch -> {
+        for (MessageBusRecord record : batch.success()) {
+          blackhole.consume(record.getValueBytes());
+        }
+      });
+    }
+
+    List<Properties> propertiesBatch = new ArrayList<>(BATCH_SIZE);
+    List<MessageBusRecord> recordBatch = new ArrayList<>(BATCH_SIZE);
+    for (int offset = 0; offset < BATCH_SIZE; offset++) {
+      MessageBusRecord record = new MessageBusRecord(
+              "benchmarkTopic",
+              0,
+              offset,
+              ("key" + offset % 8).getBytes(StandardCharsets.UTF_8),
+              ("{\"word\":\"merge" + offset + "\"}")
+                      .getBytes(StandardCharsets.UTF_8)
+      );
+      recordBatch.add(record);
+      propertiesBatch.add(record.toProperties());
+    }
+    this.propertiesBatch = Collections.unmodifiableList(propertiesBatch);
+    this.recordBatch = Collections.unmodifiableList(recordBatch);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void publishToListeners()
+  {
+    for (Properties record : this.propertiesBatch) {
+      this.recordByRecordConsumer.publishToListeners(
+              Validation.success(record)
+      );
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void publishBatchToListeners()
+  {
+    this.batchConsumer.publishBatchToListeners(
+            Validation.success(this.propertiesBatch)
+    );
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void publishRecordsAsProperties()
+  {
+    this.batchConsumer.publishRecordsToListeners(
+            Validation.success(this.recordBatch)
+    );
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public void publishRecordsAsRecords()
+  {
+    this.rawRecordConsumer.publishRecordsToListeners(
+            Validation.success(this.recordBatch)
+    );
+  }
+
+}
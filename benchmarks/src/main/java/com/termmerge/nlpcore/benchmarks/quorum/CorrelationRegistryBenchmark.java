@@ -0,0 +1,84 @@
+package com.termmerge.nlpcore.benchmarks.quorum;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import com.termmerge.nlpcore.quorum.QuorumMessage;
+import com.termmerge.nlpcore.quorum.CorrelationRegistry;
+import com.termmerge.nlpcore.quorum.TimeOrderedTaskManager;
+
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+
+/**
+ * Cost of registering a request with a CorrelationRegistry and matching
+ *  its response, with a standing number of other requests in flight -
+ *  which should not change the cost
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CorrelationRegistryBenchmark
+{
+
+  // Requests left waiting for the whole run
+  @Param({"0", "200000"})
+  public int inFlight;
+
+  private CorrelationRegistry correlationRegistry;
+  private QuorumMessage[] responses;
+  private int next;
+
+  @Setup
+  public void setup()
+  {
+    Properties settings = new Properties();
+    settings.setProperty("max_pending", String.valueOf(this.inFlight + 1));
+    settings.setProperty("default_timeout_ms", "3600000");
+    this.correlationRegistry =
+            CorrelationRegistry.fromProperties(settings).success();
+    this.correlationRegistry.start();
+    for (int i = 0; i < this.inFlight; i++) {
+      this.correlationRegistry.register("in-flight-" + i);
+    }
+
+    // Responses carry the task ids of the measured requests
+    TimeOrderedTaskManager taskManager = new TimeOrderedTaskManager(1);
+    this.responses = new QuorumMessage[1024];
+    for (int i = 0; i < this.responses.length; i++) {
+      this.responses[i] = QuorumMessageFixtures.requestBuilder()
+              .build(taskManager)
+              .success();
+    }
+    this.next = 0;
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    this.correlationRegistry.close(5000);
+  }
+
+  @Benchmark
+  public boolean registerAndComplete()
+  {
+    QuorumMessage response =
+            this.responses[this.next++ & (this.responses.length - 1)];
+    this.correlationRegistry.register(response.getConsumerId());
+    return this.correlationRegistry.complete(response);
+  }
+
+}
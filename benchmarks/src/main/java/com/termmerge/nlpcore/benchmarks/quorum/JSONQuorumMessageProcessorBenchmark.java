@@ -0,0 +1,86 @@
+package com.termmerge.nlpcore.benchmarks.quorum;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import com.termmerge.nlpcore.quorum.QuorumMessage;
+import com.termmerge.nlpcore.quorum.JSONQuorumMessageProcessor;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializer;
+import fj.data.Validation;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+
+/**
+ * Cost of putting a QuorumMessage on and taking it off the wire as JSON,
+ *  next to Gson's reflective mapping (the processor's former
+ *  implementation) as a baseline. Run with "-prof gc" to compare
+ *  allocation per message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JSONQuorumMessageProcessorBenchmark
+{
+
+  private JSONQuorumMessageProcessor processor;
+  private Gson reflectiveGson;
+  private QuorumMessage quorumMessage;
+
+  @Setup
+  public void setup()
+  {
+    this.processor = new JSONQuorumMessageProcessor();
+    this.reflectiveGson = new GsonBuilder()
+            .registerTypeAdapter(
+                    Date.class,
+                    (JsonDeserializer<Date>) (jsonElement, type, context) ->
+                            new Date(jsonElement.getAsLong())
+            )
+            .create();
+    this.quorumMessage = QuorumMessageFixtures.requestBuilder()
+            .build(QuorumMessageFixtures.FIXED_TASK_MANAGER)
+            .success();
+  }
+
+  @Benchmark
+  public Validation<RuntimeException, String> serialize()
+  {
+    return this.processor.serialize(this.quorumMessage);
+  }
+
+  @Benchmark
+  public Validation<RuntimeException, QuorumMessage> deserialize()
+  {
+    return this.processor.deserialize(QuorumMessageFixtures.REQUEST_JSON);
+  }
+
+  @Benchmark
+  public String serializeReflective()
+  {
+    return this.reflectiveGson.toJson(this.quorumMessage);
+  }
+
+  @Benchmark
+  public QuorumMessage deserializeReflective()
+  {
+    return this.reflectiveGson.fromJson(
+            QuorumMessageFixtures.REQUEST_JSON,
+            QuorumMessage.class
+    );
+  }
+
+}
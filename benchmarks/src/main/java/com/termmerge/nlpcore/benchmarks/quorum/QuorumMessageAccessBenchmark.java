@@ -0,0 +1,61 @@
+package com.termmerge.nlpcore.benchmarks.quorum;
+
+import java.util.concurrent.TimeUnit;
+import com.termmerge.nlpcore.quorum.QuorumMessage;
+
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * What routing code pays to read a message's time and a few of its
+ *  params: through the copying getTime/getParams shims versus the
+ *  zero-copy accessors. Run with "-prof gc" for allocation per read.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QuorumMessageAccessBenchmark
+{
+
+  private QuorumMessage quorumMessage;
+
+  @Setup
+  public void setup()
+  {
+    this.quorumMessage = QuorumMessageFixtures.requestBuilder()
+            .build(QuorumMessageFixtures.FIXED_TASK_MANAGER)
+            .success();
+  }
+
+  @Benchmark
+  public void readThroughShims(Blackhole blackhole)
+  {
+    blackhole.consume(this.quorumMessage.getTime().getTime());
+    blackhole.consume(this.quorumMessage.getParams().getProperty("word"));
+    blackhole.consume(this.quorumMessage.getParams().getProperty("radius"));
+    blackhole.consume(this.quorumMessage.getParams().getProperty("source"));
+  }
+
+  @Benchmark
+  public void readZeroCopy(Blackhole blackhole)
+  {
+    blackhole.consume(this.quorumMessage.getTimeMillis());
+    blackhole.consume(this.quorumMessage.getParam("word"));
+    blackhole.consume(this.quorumMessage.getParam("radius"));
+    blackhole.consume(this.quorumMessage.getParam("source"));
+  }
+
+}
@@ -0,0 +1,53 @@
+package com.termmerge.nlpcore.benchmarks.quorum;
+
+import java.util.concurrent.TimeUnit;
+import com.termmerge.nlpcore.quorum.QuorumTask;
+import com.termmerge.nlpcore.quorum.QuorumGroup;
+import com.termmerge.nlpcore.quorum.QuorumMessage;
+
+import fj.data.Validation;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+
+/**
+ * Cost of building (and validating) a QuorumMessage, with task ids
+ *  coming from a TaskManager that never touches a database - from task
+ *  and group wire names, and from their enums
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QuorumMessageBuilderBenchmark
+{
+
+  @Benchmark
+  public Validation<RuntimeException, QuorumMessage> build()
+  {
+    return QuorumMessageFixtures.requestBuilder()
+            .build(QuorumMessageFixtures.FIXED_TASK_MANAGER);
+  }
+
+  @Benchmark
+  public Validation<RuntimeException, QuorumMessage> buildWithEnums()
+  {
+    return new QuorumMessage.Builder()
+            .fromTo(QuorumGroup.NLP_INTERFACE, QuorumGroup.NLP_COMPUTE)
+            .setTask(QuorumTask.CONVERGENCE_RADIUS)
+            .setParam("word", "merge")
+            .setParam("radius", "3")
+            .setParam("source", "wordnet")
+            .build(QuorumMessageFixtures.FIXED_TASK_MANAGER);
+  }
+
+}
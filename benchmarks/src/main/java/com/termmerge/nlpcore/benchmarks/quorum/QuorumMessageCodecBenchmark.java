@@ -0,0 +1,123 @@
+package com.termmerge.nlpcore.benchmarks.quorum;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import com.termmerge.nlpcore.quorum.QuorumMessage;
+import com.termmerge.nlpcore.quorum.QuorumMessageProcessor;
+import com.termmerge.nlpcore.quorum.QuorumMessageProcessors;
+import com.termmerge.nlpcore.quorum.QuorumMessageBufferPool;
+
+import fj.data.Validation;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+
+/**
+ * Throughput and wire size of each deployable codec, on wire bytes -
+ *  plain byte arrays, pooled buffers and ByteBuffer reads.
+ *  The "wireBytes" secondary result is bytes per unit of time; divided
+ *  by the primary ops it gives the encoded size of a message.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QuorumMessageCodecBenchmark
+{
+
+  @Param({
+          QuorumMessageProcessors.CODEC_JSON,
+          QuorumMessageProcessors.CODEC_BINARY
+  })
+  public String codec;
+
+  private QuorumMessageProcessor processor;
+  private QuorumMessage quorumMessage;
+  private byte[] serialized;
+  private ByteBuffer serializedBuffer;
+  private QuorumMessageBufferPool bufferPool;
+
+  /**
+   * Bytes produced or consumed, reported next to the ops
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class WireBytes
+  {
+
+    public long wireBytes;
+
+    @Setup(Level.Iteration)
+    public void reset()
+    {
+      this.wireBytes = 0;
+    }
+
+  }
+
+  @Setup
+  public void setup()
+  {
+    this.processor = QuorumMessageProcessors.forCodec(this.codec).success();
+    this.quorumMessage = QuorumMessageFixtures.requestBuilder()
+            .build(QuorumMessageFixtures.FIXED_TASK_MANAGER)
+            .success();
+    this.serialized =
+            this.processor.serializeToBytes(this.quorumMessage).success();
+    this.serializedBuffer = ByteBuffer.wrap(this.serialized);
+    this.bufferPool = new QuorumMessageBufferPool(4096, 16, false);
+  }
+
+  @Benchmark
+  public byte[] serializeToBytes(WireBytes wireBytes)
+  {
+    byte[] serialized =
+            this.processor.serializeToBytes(this.quorumMessage).success();
+    wireBytes.wireBytes += serialized.length;
+    return serialized;
+  }
+
+  @Benchmark
+  public Validation<RuntimeException, QuorumMessage> deserializeFromBytes(
+          WireBytes wireBytes
+  )
+  {
+    wireBytes.wireBytes += this.serialized.length;
+    return this.processor.deserializeFromBytes(this.serialized);
+  }
+
+  @Benchmark
+  public int serializeToPooledBuffer(WireBytes wireBytes)
+  {
+    ByteBuffer buffer = this.processor
+            .serializeToPooledBuffer(this.quorumMessage, this.bufferPool)
+            .success();
+    int size = buffer.remaining();
+    this.bufferPool.release(buffer);
+    wireBytes.wireBytes += size;
+    return size;
+  }
+
+  @Benchmark
+  public Validation<RuntimeException, QuorumMessage> deserializeFromBuffer(
+          WireBytes wireBytes
+  )
+  {
+    wireBytes.wireBytes += this.serialized.length;
+    return this.processor.deserializeFrom(this.serializedBuffer.duplicate());
+  }
+
+}
@@ -0,0 +1,101 @@
+package com.termmerge.nlpcore.benchmarks.quorum;
+
+import java.util.concurrent.TimeUnit;
+import com.termmerge.nlpcore.quorum.QuorumTask;
+import com.termmerge.nlpcore.quorum.QuorumMessage;
+
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+
+
+/**
+ * Cost per message of routing a mix of every task to its handler:
+ *  switching over QuorumTask versus switching over the task name
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QuorumMessageDispatchBenchmark
+{
+
+  // Messages routed per invocation, one per task
+  private static final int TASKS = 14;
+
+  private QuorumMessage[] quorumMessages;
+
+  @Setup
+  public void setup()
+  {
+    this.quorumMessages = new QuorumMessage[QuorumTask.values().length];
+    for (QuorumTask task : QuorumTask.values()) {
+      this.quorumMessages[task.ordinal()] =
+              QuorumMessageFixtures.requestBuilder()
+                      .setTask(task)
+                      .build(QuorumMessageFixtures.FIXED_TASK_MANAGER)
+                      .success();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TASKS)
+  public int dispatchByTaskType()
+  {
+    int routed = 0;
+    for (QuorumMessage quorumMessage : this.quorumMessages) {
+      switch (quorumMessage.getTaskType()) {
+        case STREAM_ANALYTICS:
+        case BATCH_ANALYTICS:
+          routed += 1;
+          break;
+        case CONVERGENCE_RADIUS:
+          routed += 2;
+          break;
+        case WORDNET:
+        case FRAMENET:
+          routed += 3;
+          break;
+        default:
+          routed += 4;
+      }
+    }
+    return routed;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TASKS)
+  public int dispatchByTaskName()
+  {
+    int routed = 0;
+    for (QuorumMessage quorumMessage : this.quorumMessages) {
+      switch (quorumMessage.getTask()) {
+        case QuorumMessage.STREAM_ANALYTICS:
+        case QuorumMessage.BATCH_ANALYTICS:
+          routed += 1;
+          break;
+        case QuorumMessage.CONVERGENCE_RADIUS:
+          routed += 2;
+          break;
+        case QuorumMessage.WORDNET:
+        case QuorumMessage.FRAMENET:
+          routed += 3;
+          break;
+        default:
+          routed += 4;
+      }
+    }
+    return routed;
+  }
+
+}
@@ -0,0 +1,57 @@
+package com.termmerge.nlpcore.benchmarks.quorum;
+
+import com.termmerge.nlpcore.quorum.TaskManager;
+import com.termmerge.nlpcore.quorum.QuorumMessage;
+
+import fj.data.Validation;
+
+
+/**
+ * Messages and task ids shared by the quorum benchmarks
+ */
+final class QuorumMessageFixtures
+{
+
+  // Wire form of a request, as the interface group sends it
+  static final String REQUEST_JSON = "{" +
+          "\"sender\":\"nlpcore_interface\"," +
+          "\"recipient\":\"nlpcore_compute\"," +
+          "\"task\":\"convergence_radius\"," +
+          "\"consumerId\":\"9f1b7c64-2b1e-4c2e-9c55-0d7d1c1a4f10\"," +
+          "\"time\":1483117437420," +
+          "\"params\":{\"word\":\"merge\",\"radius\":\"3\"," +
+          "\"source\":\"wordnet\"}" +
+          "}";
+
+  // Hands out the same id without touching a database
+  static final TaskManager FIXED_TASK_MANAGER = new TaskManager()
+  {
+    public Validation<RuntimeException, String> generateId()
+    {
+      return Validation.success("9f1b7c64-2b1e-4c2e-9c55-0d7d1c1a4f10");
+    }
+
+    public Validation<RuntimeException, String> destroyId(String taskId)
+    {
+      return Validation.success(taskId);
+    }
+  };
+
+  private QuorumMessageFixtures()
+  {
+  }
+
+  static QuorumMessage.Builder requestBuilder()
+  {
+    return new QuorumMessage.Builder()
+            .fromTo(
+                    QuorumMessage.GROUP_NLP_INTERFACE,
+                    QuorumMessage.GROUP_NLP_COMPUTE
+            )
+            .setTask(QuorumMessage.CONVERGENCE_RADIUS)
+            .setParam("word", "merge")
+            .setParam("radius", "3")
+            .setParam("source", "wordnet");
+  }
+
+}
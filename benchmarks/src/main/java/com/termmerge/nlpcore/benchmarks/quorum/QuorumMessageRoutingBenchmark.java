@@ -0,0 +1,78 @@
+package com.termmerge.nlpcore.benchmarks.quorum;
+
+import java.util.concurrent.TimeUnit;
+import com.termmerge.nlpcore.quorum.QuorumTask;
+import com.termmerge.nlpcore.quorum.QuorumMessage;
+import com.termmerge.nlpcore.quorum.QuorumMessageProcessor;
+import com.termmerge.nlpcore.quorum.QuorumMessageProcessors;
+
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+
+/**
+ * Cost of deciding where a message goes from its wire bytes - by fully
+ *  deserializing it, and by reading its routing fields only - for small
+ *  and parameter-heavy messages
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QuorumMessageRoutingBenchmark
+{
+
+  @Param({
+          QuorumMessageProcessors.CODEC_JSON,
+          QuorumMessageProcessors.CODEC_BINARY
+  })
+  public String codec;
+
+  // Parameters added to the fixture message
+  @Param({"0", "200"})
+  public int extraParams;
+
+  private QuorumMessageProcessor processor;
+  private byte[] serialized;
+
+  @Setup
+  public void setup()
+  {
+    this.processor = QuorumMessageProcessors.forCodec(this.codec).success();
+    QuorumMessage.Builder builder = QuorumMessageFixtures.requestBuilder();
+    for (int i = 0; i < this.extraParams; i++) {
+      builder.setParam("context" + i, "surrounding sentence number " + i);
+    }
+    this.serialized = this.processor.serializeToBytes(
+            builder.build(QuorumMessageFixtures.FIXED_TASK_MANAGER).success()
+    ).success();
+  }
+
+  @Benchmark
+  public QuorumTask routeByDeserializing()
+  {
+    return this.processor.deserializeFromBytes(this.serialized)
+            .success()
+            .getTaskType();
+  }
+
+  @Benchmark
+  public QuorumTask routeLazily()
+  {
+    return this.processor.deserializeLazilyFromBytes(this.serialized)
+            .success()
+            .getTaskType();
+  }
+
+}
@@ -0,0 +1,152 @@
+package com.termmerge.nlpcore.benchmarks.quorum;
+
+import java.util.UUID;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import com.termmerge.nlpcore.quorum.LeasedTaskManager;
+import com.termmerge.nlpcore.quorum.TimeOrderedTaskManager;
+import com.termmerge.nlpcore.datastore.PostgresDataStore;
+
+import fj.data.Validation;
+import acolyte.jdbc.RowLists;
+import acolyte.jdbc.RowList1;
+import acolyte.jdbc.CompositeHandler;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+
+/**
+ * Task id throughput of TimeOrderedTaskManager at 1, 4 and all-core
+ *  thread counts, against UUID.randomUUID (which shares one
+ *  SecureRandom between threads). Per-thread generator state should make
+ *  the time-ordered ids scale with the thread count.
+ *
+ * LeasedTaskManager leases from an Acolyte in-memory driver, so this
+ *  measures handing out leased ids rather than database time
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TaskManagerBenchmark
+{
+
+  private static final int LEASE_SIZE = 100000;
+
+  private final TimeOrderedTaskManager taskManager =
+          new TimeOrderedTaskManager(1);
+
+  private PostgresDataStore dataStore;
+  private LeasedTaskManager leasedTaskManager;
+
+  @Setup
+  public void setup()
+  {
+    RowList1.Impl<String> rowList = RowLists.stringList();
+    for (int row = 0; row < LEASE_SIZE; row++) {
+      rowList = rowList.append(UUID.randomUUID().toString());
+    }
+    final RowList1.Impl<String> lease = rowList;
+    acolyte.jdbc.Driver.register(
+            "taskLeases",
+            new CompositeHandler()
+                    .withQueryDetection("^SELECT")
+                    .withQueryHandler((sql, parameters) ->
+                            sql.contains("reserve_tasks") ?
+                                    lease.asResult() :
+                                    RowLists.stringList().asResult()
+                    )
+    );
+
+    Properties properties = new Properties();
+    properties.setProperty(
+            "connection_string",
+            "jdbc:acolyte:taskLeases?handler=taskLeases"
+    );
+    this.dataStore = new PostgresDataStore();
+    this.dataStore.connect(properties);
+
+    Properties settings = new Properties();
+    settings.setProperty("lease_size", String.valueOf(LEASE_SIZE));
+    this.leasedTaskManager =
+            LeasedTaskManager.fromProperties(this.dataStore, settings)
+                    .success();
+    this.leasedTaskManager.start();
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    this.leasedTaskManager.close(5000);
+    this.dataStore.disconnect();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Validation<RuntimeException, String> timeOrderedId()
+  {
+    return this.taskManager.generateId();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Validation<RuntimeException, String> timeOrderedId4Threads()
+  {
+    return this.taskManager.generateId();
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public Validation<RuntimeException, String> timeOrderedIdAllThreads()
+  {
+    return this.taskManager.generateId();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public String randomUuid()
+  {
+    return UUID.randomUUID().toString();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public String randomUuid4Threads()
+  {
+    return UUID.randomUUID().toString();
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public String randomUuidAllThreads()
+  {
+    return UUID.randomUUID().toString();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Validation<RuntimeException, String> leasedId()
+  {
+    return this.leasedTaskManager.generateId();
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public Validation<RuntimeException, String> leasedIdAllThreads()
+  {
+    return this.leasedTaskManager.generateId();
+  }
+
+}
@@ -11,7 +11,7 @@ CREATE TABLE task(
   consumer_id UUID REFERENCES consumer(id), 
   description VARCHAR(50) NOT NULL,
   created_at TIMESTAMP NOT NULL,
-  destroyed_at TIMESTAMP NOT NULL,
+  destroyed_at TIMESTAMP,
   PRIMARY KEY (id)
 );
 COMMENT ON TABLE task IS 'Individual tasks submitted by a user for TermMerge computation';
@@ -0,0 +1,36 @@
+CREATE OR REPLACE FUNCTION reserve_tasks(
+  description VARCHAR(50),
+  consumer_id UUID,
+  lease_size INTEGER
+)
+RETURNS SETOF UUID
+AS
+$$
+BEGIN
+  -- Reserve a whole lease of task rows in one statement; the ids are
+  --  handed out by the client without coming back here. UUIDs are
+  --  unique enough to not need create_task_for_consumer's table lock
+  RETURN QUERY
+  INSERT INTO task(id, consumer_id, description, created_at, destroyed_at)
+  SELECT uuid_generate_v1mc(), consumer_id, description,
+         current_timestamp, NULL
+  FROM generate_series(1, lease_size)
+  RETURNING task.id;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION release_tasks(
+  task_ids UUID[]
+)
+RETURNS SETOF UUID
+AS
+$$
+BEGIN
+  -- Destroyed tasks, and leased ids that were never handed out
+  RETURN QUERY
+  UPDATE task
+  SET destroyed_at = current_timestamp
+  WHERE task.id = ANY(task_ids) AND task.destroyed_at IS NULL
+  RETURNING task.id;
+END;
+$$ LANGUAGE plpgsql;
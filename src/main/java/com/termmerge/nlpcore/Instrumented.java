@@ -0,0 +1,19 @@
+package com.termmerge.nlpcore;
+
+import com.codahale.metrics.MetricRegistry;
+
+
+/**
+ * Contract for components that expose runtime metrics
+ *  (timers, counters, gauges) about their own behaviour
+ */
+public interface Instrumented
+{
+
+  /**
+   * Obtain the registry holding every metric recorded by this component
+   * @return MetricRegistry
+   */
+  MetricRegistry getMetricRegistry();
+
+}
@@ -0,0 +1,84 @@
+package com.termmerge.nlpcore.datastore;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+
+
+/**
+ * Flush policy of a bulk write: rows are sent once "bulk_batch_size" of
+ *  them are pending, or once "bulk_flush_interval_ms" passed since the
+ *  last flush, so slow row streams still get written steadily. Counts
+ *  the rows flushed. Used by the one thread running the write.
+ */
+final class BulkBatch
+{
+
+  private final int batchSize;
+  private final long flushIntervalNanos;
+
+  private final Meter rowsWritten;
+  private final Timer flushLatency;
+
+  private int pending;
+  private long written;
+  private long lastFlushNanos;
+
+  BulkBatch(
+          int batchSize,
+          long flushIntervalMs,
+          Meter rowsWritten,
+          Timer flushLatency
+  )
+  {
+    this.batchSize = batchSize;
+    this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+    this.rowsWritten = rowsWritten;
+    this.flushLatency = flushLatency;
+    this.pending = 0;
+    this.written = 0;
+    this.lastFlushNanos = System.nanoTime();
+  }
+
+  /**
+   * Count a row into the batch
+   * @return whether the batch is due to be flushed
+   */
+  boolean add()
+  {
+    this.pending++;
+    return this.pending >= this.batchSize ||
+            System.nanoTime() - this.lastFlushNanos >=
+                    this.flushIntervalNanos;
+  }
+
+  boolean hasPending()
+  {
+    return this.pending > 0;
+  }
+
+  /**
+   * Record the pending rows as flushed
+   * @param startNanos - System.nanoTime the flush started at
+   */
+  void flushed(long startNanos)
+  {
+    this.lastFlushNanos = System.nanoTime();
+    this.flushLatency.update(
+            this.lastFlushNanos - startNanos, TimeUnit.NANOSECONDS
+    );
+    this.rowsWritten.mark(this.pending);
+    this.written += this.pending;
+    this.pending = 0;
+  }
+
+  /**
+   * @return rows flushed so far
+   */
+  long getWritten()
+  {
+    return this.written;
+  }
+
+}
@@ -40,6 +40,21 @@ public interface DataStore<
           Function<AtomicRawType, ?> queryMapper
   );
 
+  /**
+   * Query the DataStore with values bound to the query's placeholders
+   *  rather than written into it, so one prepared query serves them all
+   * @param queryBuilder - query to run, with a placeholder per parameter
+   * @param parameters - typed values of the placeholders, in order
+   * @param queryMapper - wraps over the raw atomic results
+   *   returned by the data store to the final atomic results.
+   * @return Validation object on async finish
+   */
+  Validation<RuntimeException, Stream<?>> query(
+          QueryBuilderType queryBuilder,
+          QueryParameters parameters,
+          Function<AtomicRawType, ?> queryMapper
+  );
+
   /**
    * Query the DataStore to manipulate the stored dataset, with the list
    *  of ordered queries ran as one transaction.
@@ -53,6 +68,21 @@ public interface DataStore<
           Function<AtomicRawType, ?>[] queryMappers
   );
 
+  /**
+   * Write a stream of rows in bulk, sending them in batches rather than
+   *  a round trip per row. The rows are written all together or not at
+   *  all.
+   * @param queryBuilder - write to run for every row, with a placeholder
+   *  per column
+   * @param rows - typed values of every row, consumed (but not closed) by
+   *  the write
+   * @return Validation of the number of rows written
+   */
+  Validation<RuntimeException, Long> bulkWrite(
+          QueryBuilderType queryBuilder,
+          Stream<QueryParameters> rows
+  );
+
   /**
    * Disconnect with the DataStore
    * @return Validation object on async finish
@@ -0,0 +1,366 @@
+package com.termmerge.nlpcore.datastore;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.DriverManager;
+
+import java.util.Deque;
+import java.util.Properties;
+import java.util.function.Function;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledExecutorService;
+
+import fj.data.Validation;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.MetricRegistry;
+
+
+/**
+ * Bounded pool of JDBC connections. At most "pool_size" connections are
+ *  out at a time; borrowers beyond that wait up to "pool_max_wait_ms".
+ *  Idle connections are reused most recently returned first, checked
+ *  with Connection.isValid when idle for over
+ *  "pool_validation_interval_ms", and closed once idle for
+ *  "pool_idle_timeout_ms" (keeping "pool_min_idle" of them).
+ *
+ * Connections are pooled together with their prepared statements.
+ *  Borrowing and returning only touch a semaphore and a lock-free deque.
+ *  Thread-safe.
+ */
+class JDBCConnectionPool
+{
+
+  private final String connectionString;
+  private final int maxSize;
+  private final int minIdle;
+  private final long maxWaitMs;
+  private final long idleTimeoutMs;
+  private final long validationIntervalMs;
+
+  // Wraps newly opened connections
+  private final Function<Connection, StatementCache> statementCaches;
+
+  // Connection.isValid takes whole seconds
+  private final int validationTimeoutS;
+
+  // One permit per connection that may be out
+  private final Semaphore permits;
+
+  // Idle connections, most recently returned first
+  private final Deque<IdleConnection> idle;
+  private final AtomicInteger idleCount;
+  private final AtomicInteger activeCount;
+
+  private final ScheduledExecutorService evictor;
+  private volatile boolean isOpen;
+
+  private final Timer waitTimer;
+  private final Meter timeouts;
+  private final Meter evicted;
+  private final Meter invalidated;
+
+  private JDBCConnectionPool(
+          String connectionString,
+          int maxSize,
+          int minIdle,
+          long maxWaitMs,
+          long idleTimeoutMs,
+          long validationIntervalMs,
+          Function<Connection, StatementCache> statementCaches,
+          MetricRegistry metricRegistry
+  )
+  {
+    this.connectionString = connectionString;
+    this.maxSize = maxSize;
+    this.minIdle = minIdle;
+    this.maxWaitMs = maxWaitMs;
+    this.idleTimeoutMs = idleTimeoutMs;
+    this.validationIntervalMs = validationIntervalMs;
+    this.statementCaches = statementCaches;
+    this.validationTimeoutS = (int) Math.max(
+            1, TimeUnit.MILLISECONDS.toSeconds(maxWaitMs)
+    );
+    this.permits = new Semaphore(maxSize, true);
+    this.idle = new ConcurrentLinkedDeque<>();
+    this.idleCount = new AtomicInteger(0);
+    this.activeCount = new AtomicInteger(0);
+    this.isOpen = true;
+
+    this.waitTimer = metricRegistry.timer("pool.wait");
+    this.timeouts = metricRegistry.meter("pool.timeouts");
+    this.evicted = metricRegistry.meter("pool.evicted");
+    this.invalidated = metricRegistry.meter("pool.invalidated");
+
+    this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread evictorThread = new Thread(runnable, "jdbc-pool-evictor");
+      evictorThread.setDaemon(true);
+      return evictorThread;
+    });
+    long evictionPeriodMs = Math.max(10, idleTimeoutMs / 4);
+    this.evictor.scheduleWithFixedDelay(
+            this::evictIdle,
+            evictionPeriodMs,
+            evictionPeriodMs,
+            TimeUnit.MILLISECONDS
+    );
+  }
+
+  /**
+   * Create a pool, if the settings ask for one
+   * @param settings - connect settings; "pool_size" turns pooling on,
+   *  "pool_min_idle", "pool_max_wait_ms", "pool_idle_timeout_ms" and
+   *  "pool_validation_interval_ms" tune it
+   * @param statementCaches - statement cache of a newly opened connection
+   * @param metricRegistry - registry to record pool metrics in
+   * @return Validation of the pool
+   */
+  static Validation<RuntimeException, JDBCConnectionPool> fromProperties(
+          Properties settings,
+          Function<Connection, StatementCache> statementCaches,
+          MetricRegistry metricRegistry
+  )
+  {
+    int maxSize, minIdle;
+    long maxWaitMs, idleTimeoutMs, validationIntervalMs;
+    try {
+      maxSize = Integer.parseInt(settings.getProperty("pool_size"));
+      minIdle = Integer.parseInt(
+              settings.getProperty("pool_min_idle", "0")
+      );
+      maxWaitMs = Long.parseLong(
+              settings.getProperty("pool_max_wait_ms", "5000")
+      );
+      idleTimeoutMs = Long.parseLong(
+              settings.getProperty("pool_idle_timeout_ms", "600000")
+      );
+      validationIntervalMs = Long.parseLong(
+              settings.getProperty("pool_validation_interval_ms", "500")
+      );
+    } catch (NumberFormatException e) {
+      return Validation.fail(new IllegalArgumentException(
+              "pool_size, pool_min_idle, pool_max_wait_ms, " +
+                      "pool_idle_timeout_ms and " +
+                      "pool_validation_interval_ms must be integers"
+      ));
+    }
+    if (maxSize < 1 || minIdle < 0 || minIdle > maxSize ||
+            maxWaitMs < 0 || idleTimeoutMs < 1 || validationIntervalMs < 0) {
+      return Validation.fail(new IllegalArgumentException(
+              "pool_size must be positive and at least pool_min_idle"
+      ));
+    }
+
+    return Validation.success(new JDBCConnectionPool(
+            settings.getProperty("connection_string"),
+            maxSize,
+            minIdle,
+            maxWaitMs,
+            idleTimeoutMs,
+            validationIntervalMs,
+            statementCaches,
+            metricRegistry
+    ));
+  }
+
+  /**
+   * Take a connection out of the pool, opening one if none is idle.
+   *  Every borrowed connection must be handed back with giveBack
+   * @return Validation of the connection, with its statements
+   */
+  Validation<RuntimeException, StatementCache> borrow()
+  {
+    if (!this.isOpen) {
+      return Validation.fail(new IllegalStateException(
+              "DB Connection not initiated"
+      ));
+    }
+
+    boolean acquired;
+    Timer.Context waitTime = this.waitTimer.time();
+    try {
+      acquired = this.permits.tryAcquire(
+              this.maxWaitMs, TimeUnit.MILLISECONDS
+      );
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Validation.fail(new IllegalStateException(
+              "Interrupted while waiting for a database connection"
+      ));
+    } finally {
+      waitTime.stop();
+    }
+    if (!acquired) {
+      this.timeouts.mark();
+      return Validation.fail(new IllegalStateException(
+              "Timed out waiting for a database connection"
+      ));
+    }
+
+    IdleConnection pooled;
+    while ((pooled = this.idle.pollFirst()) != null) {
+      this.idleCount.decrementAndGet();
+      if (this.isUsable(pooled)) {
+        this.activeCount.incrementAndGet();
+        return Validation.success(pooled.statements);
+      }
+      this.invalidated.mark();
+      closeQuietly(pooled.statements);
+    }
+
+    try {
+      Connection connection =
+              DriverManager.getConnection(this.connectionString);
+      this.activeCount.incrementAndGet();
+      return Validation.success(this.statementCaches.apply(connection));
+    } catch (SQLException e) {
+      this.permits.release();
+      return Validation.fail(
+              new RuntimeException("Cannot connect to database.")
+      );
+    }
+  }
+
+  /**
+   * Connections currently borrowed
+   */
+  int activeCount()
+  {
+    return this.activeCount.get();
+  }
+
+  /**
+   * Connections currently idle in the pool
+   */
+  int idleCount()
+  {
+    return this.idleCount.get();
+  }
+
+  /**
+   * Share of "pool_size" currently borrowed
+   */
+  double utilization()
+  {
+    return (double) this.activeCount.get() / this.maxSize;
+  }
+
+  /**
+   * Hand a borrowed connection back. Connections left closed or in a
+   *  broken state are dropped rather than pooled
+   */
+  void giveBack(StatementCache statements)
+  {
+    this.activeCount.decrementAndGet();
+
+    Connection connection = statements.getConnection();
+    boolean reusable;
+    try {
+      reusable = this.isOpen && !connection.isClosed();
+      if (reusable && !connection.getAutoCommit()) {
+        connection.rollback();
+        connection.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      reusable = false;
+    }
+
+    if (reusable) {
+      this.idle.offerFirst(
+              new IdleConnection(statements, System.currentTimeMillis())
+      );
+      this.idleCount.incrementAndGet();
+    }
+    else {
+      closeQuietly(statements);
+    }
+    this.permits.release();
+
+    if (!this.isOpen) {
+      this.closeIdle();
+    }
+  }
+
+  /**
+   * Close every idle connection; borrowed ones are closed as they come
+   *  back
+   */
+  void close()
+  {
+    this.isOpen = false;
+    this.evictor.shutdownNow();
+    this.closeIdle();
+  }
+
+  private boolean isUsable(IdleConnection pooled)
+  {
+    if (System.currentTimeMillis() - pooled.since <
+            this.validationIntervalMs) {
+      return true;
+    }
+
+    try {
+      return pooled.statements.getConnection()
+              .isValid(this.validationTimeoutS);
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  private void evictIdle()
+  {
+    long cutoff = System.currentTimeMillis() - this.idleTimeoutMs;
+    while (this.idleCount.get() > this.minIdle) {
+      IdleConnection oldest = this.idle.peekLast();
+      if (oldest == null || oldest.since > cutoff) {
+        return;
+      }
+      if (this.idle.removeLastOccurrence(oldest)) {
+        this.idleCount.decrementAndGet();
+        this.evicted.mark();
+        closeQuietly(oldest.statements);
+      }
+    }
+  }
+
+  private void closeIdle()
+  {
+    IdleConnection pooled;
+    while ((pooled = this.idle.pollFirst()) != null) {
+      this.idleCount.decrementAndGet();
+      closeQuietly(pooled.statements);
+    }
+  }
+
+  private static void closeQuietly(StatementCache statements)
+  {
+    statements.close();
+    try {
+      statements.getConnection().close();
+    } catch (SQLException e) {
+      // Already unusable, nothing else to release
+    }
+  }
+
+  /**
+   * Pooled connection, and since when it is idle
+   */
+  private static final class IdleConnection
+  {
+
+    private final StatementCache statements;
+    private final long since;
+
+    IdleConnection(StatementCache statements, long since)
+    {
+      this.statements = statements;
+      this.since = since;
+    }
+
+  }
+
+}
@@ -5,27 +5,79 @@ import java.util.function.Function;
 import java.util.stream.Stream;
 import java.sql.PreparedStatement;
 import java.sql.Connection;
+import java.util.Iterator;
 
-import java.util.Arrays;
+import java.sql.Types;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
 import java.sql.DriverManager;
+import java.time.Instant;
 import java.util.Properties;
 import java.sql.SQLException;
 
 import fj.data.Validation;
-import com.aol.cyclops.control.ReactiveSeq;
-import org.apache.commons.dbutils.ResultSetIterator;
+import com.termmerge.nlpcore.Instrumented;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.MetricRegistry;
 
 
 /**
- * Generalized DataStore implementation for JDBC-based datastores
- *  Not thread-safe
+ * Generalized DataStore implementation for JDBC-based datastores.
+ *  By default it holds one connection and is not thread-safe.
+ *
+ * With "pool_size" among the connect settings it borrows a connection
+ *  from a JDBCConnectionPool per query instead, and is thread-safe: a
+ *  query's connection goes back to the pool once its rows were read
+ *  through or its stream was closed, so callers must do either.
+ *
+ * Either way, statements are prepared once per connection and SQL text
+ *  and kept for reuse, up to "statement_cache_size" (default 64, 0 turns
+ *  caching off) per connection. Queries with bound parameters share the
+ *  statement - and the server's plan - across parameter values.
+ *
+ * Bulk writes go out as JDBC batches of "bulk_batch_size" rows (default
+ *  1000), flushed early once "bulk_flush_interval_ms" (default 1000)
+ *  passed since the last one. A write is one transaction: its rows are
+ *  committed together once all were sent, or none are.
+ *
+ * With "fetch_size" set, query results are streamed rather than read
+ *  whole: the driver fetches that many rows per round trip through a
+ *  forward-only, read-only cursor, so memory stays flat however large
+ *  the result. Cursors need a transaction, which each query holds open
+ *  until its stream is read through or closed; a transactional query
+ *  commits then too. On a single connection, streams share one
+ *  transaction, committed once the last of them is released; a query
+ *  failing meanwhile rolls back to a savepoint of its own, and bulk
+ *  writes fail until the streams are released.
  */
 abstract class JDBCDataStore implements
-        DataStore<Object[], String, Boolean>
+        DataStore<Object[], String, Boolean>, Instrumented
 {
 
   private String driverName;
-  private Connection dbConnection;
+  private StatementCache dbConnection;
+  private volatile JDBCConnectionPool connectionPool;
+
+  // Bulk write flush policy
+  private int bulkBatchSize;
+  private long bulkFlushIntervalMs;
+
+  // Rows fetched per round trip when streaming; 0 reads results whole
+  private int fetchSize;
+
+  // Streams holding the single connection's transaction open
+  private int openStreams;
+
+  // Runtime metrics of this datastore
+  private final MetricRegistry metricRegistry;
+  private final Meter statementHits;
+  private final Meter statementMisses;
+  private final Meter statementEvictions;
+  private final Meter bulkRows;
+  private final Timer bulkFlushLatency;
 
   JDBCDataStore(
           String driverName
@@ -33,6 +85,45 @@ abstract class JDBCDataStore implements
   {
     this.driverName = driverName;
     this.dbConnection = null;
+    this.connectionPool = null;
+    this.bulkBatchSize = 1000;
+    this.bulkFlushIntervalMs = 1000;
+    this.fetchSize = 0;
+    this.openStreams = 0;
+    this.metricRegistry = new MetricRegistry();
+    this.statementHits = this.metricRegistry.meter("statements.hits");
+    this.statementMisses = this.metricRegistry.meter("statements.misses");
+    this.statementEvictions =
+            this.metricRegistry.meter("statements.evicted");
+    this.bulkRows = this.metricRegistry.meter("bulk.rows");
+    this.bulkFlushLatency = this.metricRegistry.timer("bulk.flush.latency");
+    this.metricRegistry.register("statements.hit_rate", new RatioGauge()
+    {
+      @Override
+      protected Ratio getRatio()
+      {
+        long hits = JDBCDataStore.this.statementHits.getCount();
+        return Ratio.of(
+                hits,
+                hits + JDBCDataStore.this.statementMisses.getCount()
+        );
+      }
+    });
+
+    // Registered once over whichever pool is current, as a store may be
+    //  connected again after a disconnect
+    this.metricRegistry.register("pool.active", (Gauge<Integer>) () -> {
+      JDBCConnectionPool pool = this.connectionPool;
+      return pool == null ? 0 : pool.activeCount();
+    });
+    this.metricRegistry.register("pool.idle", (Gauge<Integer>) () -> {
+      JDBCConnectionPool pool = this.connectionPool;
+      return pool == null ? 0 : pool.idleCount();
+    });
+    this.metricRegistry.register("pool.utilization", (Gauge<Double>) () -> {
+      JDBCConnectionPool pool = this.connectionPool;
+      return pool == null ? 0.0 : pool.utilization();
+    });
   }
 
   public Validation<RuntimeException, Boolean> connect(
@@ -48,7 +139,7 @@ abstract class JDBCDataStore implements
       }
     }
 
-    if (this.dbConnection != null) {
+    if (this.dbConnection != null || this.connectionPool != null) {
       return Validation.fail(
               new RuntimeException(
                       "Database connection already initialized!"
@@ -65,14 +156,84 @@ abstract class JDBCDataStore implements
 
     try {
       Class.forName(this.driverName);
-
-      this.dbConnection = DriverManager.getConnection(
-              properties.getProperty("connection_string")
-      );
     } catch (ClassNotFoundException e) {
       return Validation.fail(
               new RuntimeException("Cannot find Postgres Driver.")
       );
+    }
+
+    int statementCacheSize, bulkBatchSize, fetchSize;
+    long bulkFlushIntervalMs;
+    try {
+      statementCacheSize = Integer.parseInt(
+              properties.getProperty("statement_cache_size", "64")
+      );
+      bulkBatchSize = Integer.parseInt(
+              properties.getProperty("bulk_batch_size", "1000")
+      );
+      bulkFlushIntervalMs = Long.parseLong(
+              properties.getProperty("bulk_flush_interval_ms", "1000")
+      );
+      fetchSize = Integer.parseInt(
+              properties.getProperty("fetch_size", "0")
+      );
+    } catch (NumberFormatException e) {
+      return Validation.fail(new IllegalArgumentException(
+              "statement_cache_size, bulk_batch_size, " +
+                      "bulk_flush_interval_ms and fetch_size must be integers"
+      ));
+    }
+    if (statementCacheSize < 0) {
+      return Validation.fail(new IllegalArgumentException(
+              "statement_cache_size must be a non-negative integer"
+      ));
+    }
+    else if (bulkBatchSize < 1 || bulkFlushIntervalMs < 0) {
+      return Validation.fail(new IllegalArgumentException(
+              "bulk_batch_size must be positive"
+      ));
+    }
+    else if (fetchSize < 0) {
+      return Validation.fail(new IllegalArgumentException(
+              "fetch_size must be a non-negative integer"
+      ));
+    }
+    this.fetchSize = fetchSize;
+    this.bulkBatchSize = bulkBatchSize;
+    this.bulkFlushIntervalMs = bulkFlushIntervalMs;
+    final int cacheSize = statementCacheSize;
+
+    if (properties.containsKey("pool_size")) {
+      Validation<RuntimeException, JDBCConnectionPool> pool =
+              JDBCConnectionPool.fromProperties(
+                      properties,
+                      connection -> this.statementCache(connection, cacheSize),
+                      this.metricRegistry
+              );
+      if (pool.isFail()) {
+        return Validation.fail(pool.fail());
+      }
+
+      // Fail fast on unreachable databases, as the single connection does
+      Validation<RuntimeException, StatementCache> firstConnection =
+              pool.success().borrow();
+      if (firstConnection.isFail()) {
+        pool.success().close();
+        return Validation.fail(firstConnection.fail());
+      }
+      pool.success().giveBack(firstConnection.success());
+
+      this.connectionPool = pool.success();
+      return Validation.success(true);
+    }
+
+    try {
+      this.dbConnection = this.statementCache(
+              DriverManager.getConnection(
+                      properties.getProperty("connection_string")
+              ),
+              cacheSize
+      );
     } catch (SQLException e) {
       return Validation.fail(
               new RuntimeException("Cannot connect to database.")
@@ -87,24 +248,43 @@ abstract class JDBCDataStore implements
           Function<Object[], ?> queryMapper
   )
   {
-    ReactiveSeq<Object[]> stream = null;
+    return this.query(sqlQuery, QueryParameters.EMPTY, queryMapper);
+  }
+
+  public Validation<RuntimeException, Stream<?>> query(
+          String sqlQuery,
+          QueryParameters parameters,
+          Function<Object[], ?> queryMapper
+  )
+  {
+    Validation<RuntimeException, StatementCache> borrowed = this.borrow();
+    if (borrowed.isFail()) {
+      return Validation.fail(borrowed.fail());
+    }
 
+    StatementCache statements = borrowed.success();
+    Connection connection = statements.getConnection();
+    QueryLease queryLease = this.lease(statements);
+    Savepoint savepoint = null;
     try {
-      PreparedStatement preparedStatement =
-              this.dbConnection.prepareStatement(sqlQuery);
-      ResultSet resultSet = preparedStatement.executeQuery();
-      stream = ReactiveSeq.fromIterator(
-              new ResultSetIterator(resultSet)
-      );
+      if (this.fetchSize > 0) {
+        savepoint = this.holdTransaction(queryLease, connection);
+      }
+      ResultSet resultSet =
+              this.execute(statements, queryLease, sqlQuery, parameters);
+      release(connection, savepoint);
+      return Validation.success(queryLease.closedWith(
+              queryLease.rows(resultSet, queryMapper)
+      ));
     } catch (SQLException e) {
+      if (savepoint != null) {
+        rollback(connection, savepoint);
+      }
+      queryLease.close();
       return Validation.fail(
               new RuntimeException("SQL Query execution failed!")
       );
     }
-
-    return Validation.success(
-            stream.map(queryMapper)
-    );
   }
 
   public Validation<RuntimeException, Stream<?>> query(
@@ -112,65 +292,140 @@ abstract class JDBCDataStore implements
           Function<Object[], ?>[] queryMappers
   )
   {
+    Validation<RuntimeException, StatementCache> borrowed = this.borrow();
+    if (borrowed.isFail()) {
+      return Validation.fail(borrowed.fail());
+    }
+
+    StatementCache statements = borrowed.success();
+    Connection connection = statements.getConnection();
+    QueryLease queryLease = this.lease(statements);
+    Savepoint savepoint = null;
     try {
-      this.dbConnection.setAutoCommit(false);
+      if (this.fetchSize > 0) {
+        savepoint = this.holdTransaction(queryLease, connection);
+      }
+      else {
+        connection.setAutoCommit(false);
+      }
     } catch (SQLException e) {
+      queryLease.close();
       return Validation.fail(
               new RuntimeException("Cannot set autocommit off!")
       );
     }
 
-    Stream<Validation<RuntimeException, Stream<?>>>
-            stream =
-            ReactiveSeq
-                    .fromStream(Arrays.stream(sqlQueries))
-                    .zip(Arrays.stream(queryMappers))
-                    .map(tuple -> tuple.map(this::query));
-
-    Validation<RuntimeException, Stream<?>> result =
-            stream.reduce(
-                    Validation.success(ReactiveSeq.empty()),
-                    (accumValidation, currentValidation) -> {
-                      if (accumValidation.isFail()) {
-                        return accumValidation;
-                      }
-                      else if (currentValidation.isFail()) {
-                        return currentValidation;
-                      }
-
-                      return Validation.success(
-                              Stream.concat(
-                                      accumValidation.success(),
-                                      currentValidation.success()
-                              )
-                      );
-                    }
-            );
-
+    Stream<?> rows = Stream.empty();
     try {
-      this.dbConnection.commit();
-      this.dbConnection.setAutoCommit(true);
+      for (int i = 0; i < sqlQueries.length; i++) {
+        rows = Stream.concat(rows, queryLease.rows(
+                this.execute(
+                        statements,
+                        queryLease,
+                        sqlQueries[i],
+                        QueryParameters.EMPTY
+                ),
+                queryMappers[i]
+        ));
+      }
+      if (this.fetchSize == 0) {
+        connection.commit();
+      }
+      release(connection, savepoint);
     } catch (SQLException e) {
+      rollback(connection, savepoint);
+      if (this.fetchSize == 0) {
+        this.restoreAutoCommit(connection);
+      }
+      queryLease.close();
+      return Validation.fail(
+              new RuntimeException("SQL Query execution failed!")
+      );
+    }
+
+    if (this.fetchSize == 0 && !this.restoreAutoCommit(connection)) {
+      queryLease.close();
       return Validation.fail(
               new RuntimeException("Cannot set autocommit back on!")
       );
-    } finally {
-      stream.close();
+    }
+    return Validation.success(queryLease.closedWith(rows));
+  }
+
+  public Validation<RuntimeException, Long> bulkWrite(
+          String sqlQuery,
+          Stream<QueryParameters> rows
+  )
+  {
+    Validation<RuntimeException, StatementCache> borrowed = this.borrow();
+    if (borrowed.isFail()) {
+      return Validation.fail(borrowed.fail());
+    }
+    // Committing would end the cursors of the streams still being read
+    else if (this.connectionPool == null && this.openStreams > 0) {
+      return Validation.fail(new IllegalStateException(
+              "Cannot bulk write while query streams are open"
+      ));
+    }
+
+    StatementCache statements = borrowed.success();
+    Connection connection = statements.getConnection();
+    QueryLease queryLease = this.lease(statements);
+    try {
+      connection.setAutoCommit(false);
+    } catch (SQLException e) {
+      queryLease.close();
+      return Validation.fail(
+              new RuntimeException("Cannot set autocommit off!")
+      );
+    }
+
+    BulkBatch bulkBatch = new BulkBatch(
+            this.bulkBatchSize,
+            this.bulkFlushIntervalMs,
+            this.bulkRows,
+            this.bulkFlushLatency
+    );
+    try {
+      this.writeRows(
+              statements, queryLease, sqlQuery, rows.iterator(), bulkBatch
+      );
+      connection.commit();
+    } catch (SQLException | RuntimeException e) {
+      rollback(connection, null);
+      this.restoreAutoCommit(connection);
+      queryLease.close();
+      return Validation.fail(
+              new RuntimeException("Bulk write failed!", e)
+      );
     }
 
-    return result;
+    boolean isAutoCommitRestored = this.restoreAutoCommit(connection);
+    queryLease.close();
+    if (!isAutoCommitRestored) {
+      return Validation.fail(
+              new RuntimeException("Cannot set autocommit back on!")
+      );
+    }
+    return Validation.success(bulkBatch.getWritten());
   }
 
   public Validation<RuntimeException, Boolean> disconnect()
   {
-    if (this.dbConnection == null) {
+    if (this.connectionPool != null) {
+      this.connectionPool.close();
+      this.connectionPool = null;
+      return Validation.success(true);
+    }
+    else if (this.dbConnection == null) {
       return Validation.fail(
               new IllegalStateException("DB Connection not initiated")
       );
     }
 
+    this.dbConnection.close();
     try {
-      this.dbConnection.close();
+      this.dbConnection.getConnection().close();
     } catch (SQLException e) {
       return Validation.fail(
               new RuntimeException("DB Connection complained on close.")
@@ -180,4 +435,261 @@ abstract class JDBCDataStore implements
     return Validation.success(true);
   }
 
+  public MetricRegistry getMetricRegistry()
+  {
+    return this.metricRegistry;
+  }
+
+  private Validation<RuntimeException, StatementCache> borrow()
+  {
+    if (this.connectionPool != null) {
+      return this.connectionPool.borrow();
+    }
+    else if (this.dbConnection == null) {
+      return Validation.fail(
+              new IllegalStateException("DB Connection not initiated")
+      );
+    }
+    return Validation.success(this.dbConnection);
+  }
+
+  /**
+   * Lease of a query's resources, handing a pooled connection back once
+   *  released
+   */
+  private QueryLease lease(StatementCache statements)
+  {
+    JDBCConnectionPool pool = this.connectionPool;
+    return new QueryLease(
+            pool == null ? () -> { } : () -> pool.giveBack(statements)
+    );
+  }
+
+  /**
+   * Write rows, on a connection with autocommit off; committing them is
+   *  left to the caller
+   * @param statements - connection to write on, with its statements
+   * @param queryLease - lease of the write, releasing its statement
+   * @param sqlQuery - statement run for every row
+   * @param rows - values of every row
+   * @param bulkBatch - flush policy, counting the rows written
+   */
+  void writeRows(
+          StatementCache statements,
+          QueryLease queryLease,
+          String sqlQuery,
+          Iterator<QueryParameters> rows,
+          BulkBatch bulkBatch
+  ) throws SQLException
+  {
+    PreparedStatement preparedStatement =
+            statements.prepare(queryLease, sqlQuery);
+    try {
+      while (rows.hasNext()) {
+        QueryParameters row = rows.next();
+        for (int i = 0; i < row.size(); i++) {
+          bind(preparedStatement, i + 1, row.typeAt(i), row.valueAt(i));
+        }
+        preparedStatement.addBatch();
+
+        if (bulkBatch.add()) {
+          flushBatch(preparedStatement, bulkBatch);
+        }
+      }
+      if (bulkBatch.hasPending()) {
+        flushBatch(preparedStatement, bulkBatch);
+      }
+    } catch (SQLException | RuntimeException e) {
+      // The statement is cached, its next user must not send these rows
+      try {
+        preparedStatement.clearBatch();
+      } catch (SQLException clearFailure) {
+        // The write failed already
+      }
+      throw e;
+    }
+  }
+
+  private static void flushBatch(
+          PreparedStatement preparedStatement,
+          BulkBatch bulkBatch
+  ) throws SQLException
+  {
+    long startNanos = System.nanoTime();
+    preparedStatement.executeBatch();
+    // Not every driver resets the batch once executed
+    preparedStatement.clearBatch();
+    bulkBatch.flushed(startNanos);
+  }
+
+  /**
+   * Turn autocommit off until the lease is released, then commit; the
+   *  driver only fetches through a cursor inside a transaction. Held
+   *  before the query's statements, so released after them
+   * @return savepoint the query can roll back to without aborting the
+   *  transaction open streams share with it, or null if it is the
+   *  only one holding the transaction
+   */
+  private Savepoint holdTransaction(
+          QueryLease queryLease,
+          Connection connection
+  ) throws SQLException
+  {
+    boolean isShared = this.connectionPool == null;
+    Savepoint savepoint = null;
+    if (isShared && this.openStreams > 0) {
+      savepoint = connection.setSavepoint();
+    }
+    else {
+      connection.setAutoCommit(false);
+    }
+    if (isShared) {
+      this.openStreams++;
+    }
+
+    queryLease.hold(() -> {
+      if (isShared && --this.openStreams > 0) {
+        return;
+      }
+      try {
+        connection.commit();
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    });
+    return savepoint;
+  }
+
+  /**
+   * Release the savepoint of a query that succeeded, if it has one
+   */
+  private static void release(Connection connection, Savepoint savepoint)
+  {
+    if (savepoint == null) {
+      return;
+    }
+    try {
+      connection.releaseSavepoint(savepoint);
+    } catch (SQLException e) {
+      // Savepoints are released along with their transaction anyway
+    }
+  }
+
+  /**
+   * Roll back a failed query, only up to its savepoint if it has one
+   */
+  private static void rollback(Connection connection, Savepoint savepoint)
+  {
+    try {
+      if (savepoint == null) {
+        connection.rollback();
+      }
+      else {
+        connection.rollback(savepoint);
+      }
+    } catch (SQLException e) {
+      // The connection is checked again when released
+    }
+  }
+
+  private StatementCache statementCache(Connection connection, int size)
+  {
+    return new StatementCache(
+            connection,
+            size,
+            this.statementHits,
+            this.statementMisses,
+            this.statementEvictions
+    );
+  }
+
+  private ResultSet execute(
+          StatementCache statements,
+          QueryLease queryLease,
+          String sqlQuery,
+          QueryParameters parameters
+  ) throws SQLException
+  {
+    PreparedStatement preparedStatement =
+            statements.prepare(queryLease, sqlQuery);
+    if (this.fetchSize > 0) {
+      preparedStatement.setFetchSize(this.fetchSize);
+    }
+    for (int i = 0; i < parameters.size(); i++) {
+      bind(preparedStatement, i + 1, parameters.typeAt(i),
+              parameters.valueAt(i));
+    }
+    return preparedStatement.executeQuery();
+  }
+
+  private static void bind(
+          PreparedStatement preparedStatement,
+          int index,
+          QueryParameters.Type type,
+          Object value
+  ) throws SQLException
+  {
+    if (value == null) {
+      preparedStatement.setNull(index, sqlTypeOf(type));
+      return;
+    }
+
+    switch (type) {
+      case STRING:
+        preparedStatement.setString(index, (String) value);
+        break;
+      case INT:
+        preparedStatement.setInt(index, (Integer) value);
+        break;
+      case LONG:
+        preparedStatement.setLong(index, (Long) value);
+        break;
+      case DOUBLE:
+        preparedStatement.setDouble(index, (Double) value);
+        break;
+      case BOOLEAN:
+        preparedStatement.setBoolean(index, (Boolean) value);
+        break;
+      case TIMESTAMP:
+        preparedStatement.setTimestamp(
+                index, Timestamp.from((Instant) value)
+        );
+        break;
+      default:
+        // The Postgres driver binds UUIDs natively as Types.OTHER
+        preparedStatement.setObject(index, value, sqlTypeOf(type));
+    }
+  }
+
+  private static int sqlTypeOf(QueryParameters.Type type)
+  {
+    switch (type) {
+      case STRING:
+        return Types.VARCHAR;
+      case INT:
+        return Types.INTEGER;
+      case LONG:
+        return Types.BIGINT;
+      case DOUBLE:
+        return Types.DOUBLE;
+      case BOOLEAN:
+        return Types.BOOLEAN;
+      case TIMESTAMP:
+        return Types.TIMESTAMP;
+      default:
+        return Types.OTHER;
+    }
+  }
+
+
+  private boolean restoreAutoCommit(Connection connection)
+  {
+    try {
+      connection.setAutoCommit(true);
+      return true;
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
 }
@@ -0,0 +1,166 @@
+package com.termmerge.nlpcore.datastore;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.ResultSetMetaData;
+
+import java.util.List;
+import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.StreamSupport;
+
+
+/**
+ * JDBC resources a query's rows are read through - statements, result
+ *  sets and the connection they came from. Rows are read lazily, and
+ *  everything is released exactly once: when the last result set was
+ *  read to its end, or when the stream over the rows is closed,
+ *  whichever comes first. Streams that are neither fully read nor
+ *  closed hold their connection.
+ */
+final class QueryLease implements AutoCloseable
+{
+
+  // Closed in reverse order of being held
+  private final List<AutoCloseable> resources;
+
+  // Hands the connection back
+  private final Runnable release;
+
+  private final AtomicInteger unreadResults;
+  private final AtomicBoolean isClosed;
+
+  QueryLease(Runnable release)
+  {
+    this.resources = new ArrayList<>();
+    this.release = release;
+    this.unreadResults = new AtomicInteger(0);
+    this.isClosed = new AtomicBoolean(false);
+  }
+
+  /**
+   * Close a resource along with the lease. Only called while setting the
+   *  query up, before its rows are handed out
+   */
+  <T extends AutoCloseable> T hold(T resource)
+  {
+    this.resources.add(resource);
+    return resource;
+  }
+
+  /**
+   * Lazily mapped rows of a result set; the lease is closed once the
+   *  last unread one is read through. Plain JDK streams, as ReactiveSeq
+   *  ignores onClose
+   */
+  Stream<?> rows(ResultSet resultSet, Function<Object[], ?> rowMapper)
+  {
+    this.unreadResults.incrementAndGet();
+    return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(
+                    new Rows(this.hold(resultSet)),
+                    Spliterator.ORDERED | Spliterator.NONNULL
+            ),
+            false
+    ).map(rowMapper);
+  }
+
+  /**
+   * Attach the lease to the stream handed to the caller
+   */
+  Stream<?> closedWith(Stream<?> rows)
+  {
+    return rows.onClose(this::close);
+  }
+
+  @Override
+  public void close()
+  {
+    if (!this.isClosed.compareAndSet(false, true)) {
+      return;
+    }
+
+    for (int i = this.resources.size() - 1; i >= 0; i--) {
+      try {
+        this.resources.get(i).close();
+      } catch (Exception e) {
+        // Released either way; the connection is checked on return
+      }
+    }
+    this.release.run();
+  }
+
+  /**
+   * Iterator over the rows of a result set as Object arrays, reading
+   *  one row ahead to know when the result set is through
+   */
+  private final class Rows implements Iterator<Object[]>
+  {
+
+    private final ResultSet resultSet;
+    private int columns;
+
+    // Whether the cursor is on an unread row; null until moved
+    private Boolean hasRow;
+
+    Rows(ResultSet resultSet)
+    {
+      this.resultSet = resultSet;
+      this.columns = -1;
+      this.hasRow = null;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      if (this.hasRow == null) {
+        try {
+          this.hasRow = this.resultSet.next();
+        } catch (SQLException e) {
+          this.hasRow = false;
+          QueryLease.this.close();
+          throw new RuntimeException("Reading query results failed!", e);
+        }
+
+        if (!this.hasRow &&
+                QueryLease.this.unreadResults.decrementAndGet() == 0) {
+          QueryLease.this.close();
+        }
+      }
+      return this.hasRow;
+    }
+
+    @Override
+    public Object[] next()
+    {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      this.hasRow = null;
+
+      try {
+        if (this.columns < 0) {
+          ResultSetMetaData metaData = this.resultSet.getMetaData();
+          this.columns = metaData.getColumnCount();
+        }
+        Object[] row = new Object[this.columns];
+        for (int i = 0; i < this.columns; i++) {
+          row[i] = this.resultSet.getObject(i + 1);
+        }
+        return row;
+      } catch (SQLException e) {
+        QueryLease.this.close();
+        throw new RuntimeException("Reading query results failed!", e);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,146 @@
+package com.termmerge.nlpcore.datastore;
+
+import java.util.UUID;
+import java.util.Arrays;
+import java.time.Instant;
+
+
+/**
+ * Typed values bound, in order, to the placeholders of a query. Keeping
+ *  values out of the query text lets the DataStore reuse one prepared
+ *  statement (and its plan) for every set of values, and spares callers
+ *  from quoting them. Immutable and thread-safe.
+ */
+public final class QueryParameters
+{
+
+  public static final QueryParameters EMPTY =
+          new QueryParameters(new Type[0], new Object[0]);
+
+  /**
+   * Type of a bound value; decides how it is bound, null values included
+   */
+  public enum Type
+  {
+    STRING,
+    INT,
+    LONG,
+    DOUBLE,
+    BOOLEAN,
+    TIMESTAMP,
+    UUID
+  }
+
+  // Type and value of each placeholder; null values are SQL NULLs
+  private final Type[] types;
+  private final Object[] values;
+
+  private QueryParameters(Type[] types, Object[] values)
+  {
+    this.types = types;
+    this.values = values;
+  }
+
+  public int size()
+  {
+    return this.types.length;
+  }
+
+  /**
+   * @return type of the value bound to the placeholder at an index
+   */
+  public Type typeAt(int index)
+  {
+    return this.types[index];
+  }
+
+  /**
+   * @return value bound to the placeholder at an index, null for NULL;
+   *  a String, Integer, Long, Double, Boolean, Instant or UUID by type
+   */
+  public Object valueAt(int index)
+  {
+    return this.values[index];
+  }
+
+  @Override
+  public String toString()
+  {
+    return Arrays.toString(this.values);
+  }
+
+  public static class Builder
+  {
+
+    private Type[] types;
+    private Object[] values;
+    private int size;
+
+    public Builder()
+    {
+      this.types = new Type[4];
+      this.values = new Object[4];
+      this.size = 0;
+    }
+
+    public Builder addString(String value)
+    {
+      return this.add(Type.STRING, value);
+    }
+
+    public Builder addInt(Integer value)
+    {
+      return this.add(Type.INT, value);
+    }
+
+    public Builder addLong(Long value)
+    {
+      return this.add(Type.LONG, value);
+    }
+
+    public Builder addDouble(Double value)
+    {
+      return this.add(Type.DOUBLE, value);
+    }
+
+    public Builder addBoolean(Boolean value)
+    {
+      return this.add(Type.BOOLEAN, value);
+    }
+
+    public Builder addTimestamp(Instant value)
+    {
+      return this.add(Type.TIMESTAMP, value);
+    }
+
+    public Builder addUuid(UUID value)
+    {
+      return this.add(Type.UUID, value);
+    }
+
+    public QueryParameters build()
+    {
+      if (this.size == 0) {
+        return EMPTY;
+      }
+      return new QueryParameters(
+              Arrays.copyOf(this.types, this.size),
+              Arrays.copyOf(this.values, this.size)
+      );
+    }
+
+    private Builder add(Type type, Object value)
+    {
+      if (this.size == this.types.length) {
+        this.types = Arrays.copyOf(this.types, this.size * 2);
+        this.values = Arrays.copyOf(this.values, this.size * 2);
+      }
+      this.types[this.size] = type;
+      this.values[this.size] = value;
+      this.size++;
+      return this;
+    }
+
+  }
+
+}
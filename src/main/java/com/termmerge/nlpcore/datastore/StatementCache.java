@@ -0,0 +1,186 @@
+package com.termmerge.nlpcore.datastore;
+
+import java.sql.ResultSet;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.PreparedStatement;
+
+import java.util.Map;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import com.codahale.metrics.Meter;
+
+
+/**
+ * A connection together with its prepared statements, kept by SQL text
+ *  and evicted least recently used first once more than
+ *  "statement_cache_size" of them are prepared. Evicted statements are
+ *  closed, right away or once their query releases them.
+ *
+ * A statement serves one query at a time; a query preparing SQL whose
+ *  statement is still being read gets a statement of its own, closed
+ *  with that query. Used by one thread at a time, like its connection.
+ */
+class StatementCache
+{
+
+  private final Connection connection;
+  private final int capacity;
+
+  // Prepared statements by SQL text, least recently used first
+  private final LinkedHashMap<String, CachedStatement> statements;
+
+  private final Meter hits;
+  private final Meter misses;
+  private final Meter evictions;
+
+  StatementCache(
+          Connection connection,
+          int capacity,
+          Meter hits,
+          Meter misses,
+          Meter evictions
+  )
+  {
+    this.connection = connection;
+    this.capacity = capacity;
+    this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    this.hits = hits;
+    this.misses = misses;
+    this.evictions = evictions;
+  }
+
+  Connection getConnection()
+  {
+    return this.connection;
+  }
+
+  /**
+   * Prepared statement for a query, released along with the query's
+   *  lease
+   * @param queryLease - lease of the query running the statement
+   * @param sqlQuery - SQL of the statement
+   * @return statement, with no parameters bound
+   */
+  PreparedStatement prepare(
+          QueryLease queryLease,
+          String sqlQuery
+  ) throws SQLException
+  {
+    if (this.capacity == 0) {
+      this.misses.mark();
+      return queryLease.hold(this.prepareStatement(sqlQuery));
+    }
+
+    CachedStatement cached = this.statements.get(sqlQuery);
+    if (cached != null && cached.inUse) {
+      this.misses.mark();
+      return queryLease.hold(this.prepareStatement(sqlQuery));
+    }
+    else if (cached != null) {
+      this.hits.mark();
+    }
+    else {
+      this.misses.mark();
+      cached = new CachedStatement(this.prepareStatement(sqlQuery));
+      this.statements.put(sqlQuery, cached);
+      this.evictOverCapacity();
+    }
+
+    cached.inUse = true;
+    queryLease.hold(cached);
+    return cached.statement;
+  }
+
+  /**
+   * Close every statement that is not in use; the rest are closed as
+   *  their queries release them
+   */
+  void close()
+  {
+    for (CachedStatement cached: this.statements.values()) {
+      cached.isEvicted = true;
+      if (!cached.inUse) {
+        closeQuietly(cached.statement);
+      }
+    }
+    this.statements.clear();
+  }
+
+  /**
+   * Statement read through once, front to back - which lets drivers
+   *  stream its results through a cursor
+   */
+  private PreparedStatement prepareStatement(
+          String sqlQuery
+  ) throws SQLException
+  {
+    return this.connection.prepareStatement(
+            sqlQuery,
+            ResultSet.TYPE_FORWARD_ONLY,
+            ResultSet.CONCUR_READ_ONLY
+    );
+  }
+
+  private void evictOverCapacity()
+  {
+    Iterator<Map.Entry<String, CachedStatement>> leastRecentlyUsed =
+            this.statements.entrySet().iterator();
+    while (this.statements.size() > this.capacity) {
+      CachedStatement evicted = leastRecentlyUsed.next().getValue();
+      leastRecentlyUsed.remove();
+      this.evictions.mark();
+
+      evicted.isEvicted = true;
+      if (!evicted.inUse) {
+        closeQuietly(evicted.statement);
+      }
+    }
+  }
+
+  private static void closeQuietly(PreparedStatement statement)
+  {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      // Dropped either way
+    }
+  }
+
+  /**
+   * Cached statement; closing it hands it back to the cache
+   */
+  private static final class CachedStatement implements AutoCloseable
+  {
+
+    private final PreparedStatement statement;
+    private boolean inUse;
+    private boolean isEvicted;
+
+    CachedStatement(PreparedStatement statement)
+    {
+      this.statement = statement;
+      this.inUse = false;
+      this.isEvicted = false;
+    }
+
+    @Override
+    public void close()
+    {
+      this.inUse = false;
+      if (this.isEvicted) {
+        closeQuietly(this.statement);
+        return;
+      }
+
+      try {
+        this.statement.clearParameters();
+      } catch (SQLException e) {
+        // Parameters are all bound again before the next execution
+      }
+    }
+
+  }
+
+}
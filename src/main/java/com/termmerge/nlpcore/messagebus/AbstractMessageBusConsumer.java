@@ -0,0 +1,148 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.List;
+import java.util.function.Consumer;
+import com.termmerge.nlpcore.Instrumented;
+
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.Collections;
+
+import fj.data.Validation;
+import com.codahale.metrics.MetricRegistry;
+
+
+/**
+ * Listener bookkeeping shared by every MessageBusConsumer implementation.
+ *  Listeners live in lock-free ListenerRegistries, so dispatching to a
+ *  slow listener never blocks threads adding or removing listeners.
+ */
+public abstract class AbstractMessageBusConsumer implements
+        MessageBusConsumer, Instrumented
+{
+
+  // Runtime metrics of this consumer
+  protected final MetricRegistry metricRegistry;
+
+  // Lock-free registry of key-value listeners, each receiving whole
+  //  batches of records (per-record listeners are adapted)
+  private final
+    ListenerRegistry<Consumer<Validation<RuntimeException, List<Properties>>>>
+            listeners;
+
+  // Lock-free registry of raw record listeners
+  private final ListenerRegistry<
+          Consumer<Validation<RuntimeException, List<MessageBusRecord>>>>
+            recordListeners;
+
+  protected AbstractMessageBusConsumer()
+  {
+    this.metricRegistry = new MetricRegistry();
+    this.listeners =
+            new ListenerRegistry<>(this.metricRegistry, "listeners");
+    this.recordListeners =
+            new ListenerRegistry<>(this.metricRegistry, "record_listeners");
+  }
+
+  public void addListener(
+          Consumer<Validation<RuntimeException, Properties>> listener
+  )
+  {
+    this.listeners.add(new RecordListenerAdapter(listener));
+  }
+
+  public void removeListener(
+          Consumer<Validation<RuntimeException, Properties>> listener
+  )
+  {
+    this.listeners.remove(new RecordListenerAdapter(listener));
+  }
+
+  public void addBatchListener(
+          Consumer<Validation<RuntimeException, List<Properties>>> listener
+  )
+  {
+    this.listeners.add(listener);
+  }
+
+  public void removeBatchListener(
+          Consumer<Validation<RuntimeException, List<Properties>>> listener
+  )
+  {
+    this.listeners.remove(listener);
+  }
+
+  public void addRecordListener(
+          Consumer<Validation<RuntimeException, List<MessageBusRecord>>>
+                  listener
+  )
+  {
+    this.recordListeners.add(listener);
+  }
+
+  public void removeRecordListener(
+          Consumer<Validation<RuntimeException, List<MessageBusRecord>>>
+                  listener
+  )
+  {
+    this.recordListeners.remove(listener);
+  }
+
+  public void publishToListeners(
+          Validation<RuntimeException, Properties> validationObject
+  )
+  {
+    this.publishBatchToListeners(
+            validationObject.map(Collections::singletonList)
+    );
+  }
+
+  public void publishBatchToListeners(
+          Validation<RuntimeException, List<Properties>> validationObject
+  )
+  {
+    this.listeners.forEach(listener -> listener.accept(validationObject));
+  }
+
+  public void publishRecordsToListeners(
+          Validation<RuntimeException, List<MessageBusRecord>>
+                  validationObject
+  )
+  {
+    this.recordListeners.forEach(
+            listener -> listener.accept(validationObject)
+    );
+
+    // Key-value form is only built when someone listens for it
+    if (this.listeners.size() == 0) {
+      return;
+    }
+    this.publishBatchToListeners(validationObject.map(records -> {
+      List<Properties> batch = new ArrayList<>(records.size());
+      for (MessageBusRecord record : records) {
+        batch.add(record.toProperties());
+      }
+      return Collections.unmodifiableList(batch);
+    }));
+  }
+
+  public Validation<RuntimeException, Boolean> acknowledge(
+          Properties record
+  )
+  {
+    return Validation.success(false);
+  }
+
+  public Validation<RuntimeException, Boolean> acknowledge(
+          MessageBusRecord record
+  )
+  {
+    return Validation.success(false);
+  }
+
+  public MetricRegistry getMetricRegistry()
+  {
+    return this.metricRegistry;
+  }
+
+}
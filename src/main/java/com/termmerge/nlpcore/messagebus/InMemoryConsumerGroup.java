@@ -0,0 +1,83 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Consumer group of an in-memory topic. Keeps the committed offset of
+ *  every partition and which member currently owns it; members claim
+ *  and release partitions with compare-and-set so each partition is
+ *  read by at most one member at a time, spread evenly across members.
+ */
+class InMemoryConsumerGroup
+{
+
+  // Next offset to read, per partition
+  private final AtomicLongArray committedOffsets;
+
+  // Member owning each partition, or null
+  private final AtomicReferenceArray<Object> owners;
+
+  // Members currently in the group
+  private final AtomicInteger members;
+
+  InMemoryConsumerGroup(int partitions)
+  {
+    this.committedOffsets = new AtomicLongArray(partitions);
+    this.owners = new AtomicReferenceArray<>(partitions);
+    this.members = new AtomicInteger(0);
+  }
+
+  void join()
+  {
+    this.members.incrementAndGet();
+  }
+
+  void leave(Object member, List<Integer> ownedPartitions)
+  {
+    for (int partition : ownedPartitions) {
+      this.owners.compareAndSet(partition, member, null);
+    }
+    ownedPartitions.clear();
+    this.members.decrementAndGet();
+  }
+
+  /**
+   * Bring a member's partitions to its fair share, releasing surplus
+   *  partitions and claiming free ones
+   * @param member - identity of the member
+   * @param ownedPartitions - partitions the member owns, updated in place
+   */
+  void rebalance(Object member, List<Integer> ownedPartitions)
+  {
+    int partitions = this.owners.length();
+    int fairShare = (partitions + Math.max(1, this.members.get()) - 1) /
+            Math.max(1, this.members.get());
+
+    while (ownedPartitions.size() > fairShare) {
+      int partition = ownedPartitions.remove(ownedPartitions.size() - 1);
+      this.owners.compareAndSet(partition, member, null);
+    }
+    for (int partition = 0;
+         partition < partitions && ownedPartitions.size() < fairShare;
+         partition++) {
+      if (this.owners.compareAndSet(partition, null, member)) {
+        ownedPartitions.add(partition);
+      }
+    }
+  }
+
+  long committed(int partition)
+  {
+    return this.committedOffsets.get(partition);
+  }
+
+  void commit(int partition, long offset)
+  {
+    this.committedOffsets.set(partition, offset);
+  }
+
+}
@@ -0,0 +1,138 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.Map;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fj.data.Validation;
+
+
+/**
+ * Message bus living entirely inside this process, for single-node
+ *  deployments and for benchmarking listeners without a broker. Keeps
+ *  Kafka's model: topics split into partitions of offset-ordered
+ *  records, keyed records always land on the same partition, and each
+ *  consumer group reads a partition through one member at a time.
+ *
+ * Buses are looked up by name, so producers and consumers connecting
+ *  with the same "connection_string" (e.g. "memory://analytics") share
+ *  one. The first to connect decides "partitions" (default 1) and
+ *  "partition_capacity" (records retained per partition, default 65536,
+ *  at most 2^30).
+ */
+public class InMemoryMessageBus
+{
+
+  // Largest power of two an array can hold, capacities being rounded up
+  private static final int MAX_PARTITION_CAPACITY = 1 << 30;
+
+  private static final Map<String, InMemoryMessageBus> BUSES =
+          new ConcurrentHashMap<>();
+
+  private final int partitions;
+  private final int partitionCapacity;
+
+  // Partition logs of each topic, created on first use
+  private final Map<String, InMemoryPartitionLog[]> topics;
+
+  // Consumer groups of each topic, keyed by "topic/group"
+  private final Map<String, InMemoryConsumerGroup> groups;
+
+  // Spreads key-less records over partitions
+  private final AtomicInteger roundRobin;
+
+  private InMemoryMessageBus(int partitions, int partitionCapacity)
+  {
+    this.partitions = partitions;
+    this.partitionCapacity = partitionCapacity;
+    this.topics = new ConcurrentHashMap<>();
+    this.groups = new ConcurrentHashMap<>();
+    this.roundRobin = new AtomicInteger(0);
+  }
+
+  /**
+   * Find (or create) the bus named by the "connection_string" setting
+   * @param settings - connect settings
+   * @return Validation of the bus
+   */
+  static Validation<RuntimeException, InMemoryMessageBus> fromSettings(
+          Properties settings
+  )
+  {
+    if (!settings.containsKey("connection_string")) {
+      return Validation.fail(new IllegalArgumentException(
+              "connection_string required"
+      ));
+    }
+
+    int partitions, partitionCapacity;
+    try {
+      partitions = Integer.parseInt(
+              settings.getProperty("partitions", "1")
+      );
+      partitionCapacity = Integer.parseInt(
+              settings.getProperty("partition_capacity", "65536")
+      );
+    } catch (NumberFormatException e) {
+      return Validation.fail(new IllegalArgumentException(
+              "partitions and partition_capacity must be integers"
+      ));
+    }
+    if (partitions < 1 || partitionCapacity < 1) {
+      return Validation.fail(new IllegalArgumentException(
+              "partitions and partition_capacity must be positive"
+      ));
+    }
+    else if (partitionCapacity > MAX_PARTITION_CAPACITY) {
+      return Validation.fail(new IllegalArgumentException(
+              "partition_capacity must be at most " + MAX_PARTITION_CAPACITY
+      ));
+    }
+
+    return Validation.success(BUSES.computeIfAbsent(
+            settings.getProperty("connection_string"),
+            name -> new InMemoryMessageBus(partitions, partitionCapacity)
+    ));
+  }
+
+  /**
+   * Drop a bus and everything on it
+   * @param connectionString - name the bus was connected with
+   */
+  public static void destroy(String connectionString)
+  {
+    BUSES.remove(connectionString);
+  }
+
+  InMemoryPartitionLog[] topic(String topicName)
+  {
+    return this.topics.computeIfAbsent(topicName, name -> {
+      InMemoryPartitionLog[] logs = new InMemoryPartitionLog[partitions];
+      for (int partition = 0; partition < partitions; partition++) {
+        logs[partition] =
+                new InMemoryPartitionLog(name, partition, partitionCapacity);
+      }
+      return logs;
+    });
+  }
+
+  InMemoryConsumerGroup group(String topicName, String groupId)
+  {
+    return this.groups.computeIfAbsent(
+            topicName + "/" + groupId,
+            name -> new InMemoryConsumerGroup(this.partitions)
+    );
+  }
+
+  long append(String topicName, byte[] key, byte[] value)
+  {
+    int partition = key == null ?
+            (this.roundRobin.getAndIncrement() & Integer.MAX_VALUE) %
+                    this.partitions :
+            (Arrays.hashCode(key) & Integer.MAX_VALUE) % this.partitions;
+    return this.topic(topicName)[partition].append(key, value);
+  }
+
+}
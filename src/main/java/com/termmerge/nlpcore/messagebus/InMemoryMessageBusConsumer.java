@@ -0,0 +1,153 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.List;
+
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+
+import fj.data.Validation;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Obtains a data messagebus from an InMemoryMessageBus in this process.
+ *
+ * Behaves like the Kafka consumer: "group_id" names the consumer group,
+ *  "consumer_threads" members share the topic's partitions, records of
+ *  a partition arrive in offset order, and a group's offsets are
+ *  committed once listeners return. Listeners are called synchronously
+ *  on the polling threads, so ingest is naturally held back by slow
+ *  listeners; at most "poll_batch_size" records (default 500) are
+ *  handed over per call.
+ */
+public class InMemoryMessageBusConsumer extends AbstractMessageBusConsumer
+{
+
+  // Bus shared with producers of the same connection string
+  private InMemoryMessageBus messageBus;
+
+  // Consumer group to read as
+  private String groupId;
+
+  // Members of the group run by this consumer
+  private int consumerThreads;
+
+  // Most records handed to listeners at once
+  private int pollBatchSize;
+
+  // Polling Threads, one per member of the group
+  private List<InMemoryPollingThread> pollingThreads;
+
+  // Application Logger
+  private Logger logger;
+
+
+  public InMemoryMessageBusConsumer()
+  {
+    this.messageBus = null;
+    this.pollingThreads = new CopyOnWriteArrayList<>();
+    this.logger = LoggerFactory.getLogger(InMemoryMessageBusConsumer.class);
+  }
+
+  public Validation<RuntimeException, Boolean> connect(Properties settings)
+  {
+    if (!settings.containsKey("group_id")) {
+      return Validation.fail(new IllegalArgumentException(
+              "In-memory bus settings are not correctly set!"
+      ));
+    }
+
+    try {
+      this.consumerThreads = Integer.parseInt(
+              settings.getProperty("consumer_threads", "1")
+      );
+      this.pollBatchSize = Integer.parseInt(
+              settings.getProperty("poll_batch_size", "500")
+      );
+    } catch (NumberFormatException e) {
+      return Validation.fail(new IllegalArgumentException(
+              "consumer_threads and poll_batch_size must be integers"
+      ));
+    }
+    if (this.consumerThreads < 1 || this.pollBatchSize < 1) {
+      return Validation.fail(new IllegalArgumentException(
+              "consumer_threads and poll_batch_size must be positive"
+      ));
+    }
+
+    Validation<RuntimeException, InMemoryMessageBus> busValidation =
+            InMemoryMessageBus.fromSettings(settings);
+    if (busValidation.isFail()) {
+      return Validation.fail(busValidation.fail());
+    }
+    this.messageBus = busValidation.success();
+    this.groupId = settings.getProperty("group_id");
+    return Validation.success(true);
+  }
+
+  public Validation<RuntimeException, Long> listenToMessageBus(
+          String topicName
+  )
+  {
+    if (this.messageBus == null) {
+      return Validation.fail(new IllegalStateException(
+              "Consumer hasn't been connected!"
+      ));
+    }
+    else if (!this.pollingThreads.isEmpty()) {
+      return Validation.fail(new IllegalStateException(
+              "Cannot listen/switch to another topic"
+      ));
+    }
+    this.logger.info(
+            "Listening to In-Memory Message Bus, topic: " + topicName +
+                    " with " + this.consumerThreads + " consumer(s)"
+    );
+
+    InMemoryPartitionLog[] partitionLogs = this.messageBus.topic(topicName);
+    InMemoryConsumerGroup consumerGroup =
+            this.messageBus.group(topicName, this.groupId);
+    for (int i = 0; i < this.consumerThreads; i++) {
+      this.pollingThreads.add(new InMemoryPollingThread(
+              partitionLogs,
+              consumerGroup,
+              this,
+              this.pollBatchSize,
+              i
+      ));
+    }
+    for (InMemoryPollingThread pollingThread : this.pollingThreads) {
+      pollingThread.start();
+    }
+
+    return Validation.success(this.pollingThreads.get(0).getId());
+  }
+
+  public Validation<RuntimeException, Long> disconnect()
+  {
+    if (this.pollingThreads.isEmpty()) {
+      return Validation.fail(new IllegalStateException(
+              "Consumer hasn't been started!"
+      ));
+    }
+
+    for (InMemoryPollingThread pollingThread : this.pollingThreads) {
+      pollingThread.shutdown();
+    }
+    try {
+      for (InMemoryPollingThread pollingThread : this.pollingThreads) {
+        pollingThread.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Validation.fail(new IllegalStateException(
+              "Interrupted while waiting for polling threads to stop"
+      ));
+    }
+
+    return Validation.success(this.pollingThreads.get(0).getId());
+  }
+
+}
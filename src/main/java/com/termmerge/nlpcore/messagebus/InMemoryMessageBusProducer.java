@@ -0,0 +1,105 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.Properties;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import fj.data.Validation;
+
+
+/**
+ * Publishes onto an InMemoryMessageBus in this process. Keyed records
+ *  go to the partition of their key's hash, key-less ones round-robin.
+ *  Appending never blocks, so returned futures are already complete and
+ *  hold the record's offset within its partition. Thread-safe.
+ */
+public class InMemoryMessageBusProducer implements MessageBusProducer
+{
+
+  // Bus shared with consumers of the same connection string
+  private volatile InMemoryMessageBus messageBus;
+
+  public InMemoryMessageBusProducer()
+  {
+    this.messageBus = null;
+  }
+
+  public Validation<RuntimeException, Boolean> connect(Properties settings)
+  {
+    if (this.messageBus != null) {
+      return Validation.fail(new IllegalStateException(
+              "Producer already connected!"
+      ));
+    }
+
+    Validation<RuntimeException, InMemoryMessageBus> busValidation =
+            InMemoryMessageBus.fromSettings(settings);
+    if (busValidation.isFail()) {
+      return Validation.fail(busValidation.fail());
+    }
+    this.messageBus = busValidation.success();
+    return Validation.success(true);
+  }
+
+  public CompletableFuture<Validation<RuntimeException, Long>>
+    publishToMessageBus(
+          String topicName,
+          String key,
+          Validation<RuntimeException, String> payload
+  )
+  {
+    if (payload.isFail()) {
+      return CompletableFuture.completedFuture(
+              Validation.fail(payload.fail())
+      );
+    }
+
+    String value = payload.success();
+    return this.publishToMessageBus(
+            topicName,
+            key == null ? null : key.getBytes(StandardCharsets.UTF_8),
+            value == null ? null : value.getBytes(StandardCharsets.UTF_8)
+    );
+  }
+
+  public CompletableFuture<Validation<RuntimeException, Long>>
+    publishToMessageBus(
+          String topicName,
+          byte[] key,
+          byte[] payload
+  )
+  {
+    InMemoryMessageBus currentBus = this.messageBus;
+    if (currentBus == null) {
+      return CompletableFuture.completedFuture(Validation.fail(
+              new IllegalStateException("Producer hasn't been connected!")
+      ));
+    }
+
+    return CompletableFuture.completedFuture(Validation.success(
+            currentBus.append(topicName, key, payload)
+    ));
+  }
+
+  public Validation<RuntimeException, Boolean> flush()
+  {
+    if (this.messageBus == null) {
+      return Validation.fail(new IllegalStateException(
+              "Producer hasn't been connected!"
+      ));
+    }
+    return Validation.success(true);
+  }
+
+  public Validation<RuntimeException, Boolean> disconnect()
+  {
+    if (this.messageBus == null) {
+      return Validation.fail(new IllegalStateException(
+              "Producer hasn't been connected!"
+      ));
+    }
+    this.messageBus = null;
+    return Validation.success(true);
+  }
+
+}
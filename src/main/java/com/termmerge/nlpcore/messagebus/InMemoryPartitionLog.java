@@ -0,0 +1,102 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * One partition of an in-memory topic: a lock-free, multi-producer ring
+ *  buffer of records with Kafka-like offsets. Appending claims the next
+ *  offset with a single atomic increment and then publishes the record
+ *  into its slot, unless a newer record already took it; readers never
+ *  lock and never see a record before it is published. Once the ring is
+ *  full the oldest records are overwritten, much like retention drops
+ *  old Kafka segments.
+ */
+class InMemoryPartitionLog
+{
+
+  private final String topic;
+  private final int partition;
+
+  // Ring of published records, indexed by offset & mask
+  private final AtomicReferenceArray<MessageBusRecord> slots;
+  private final int mask;
+
+  // Next offset to be claimed by a producer
+  private final AtomicLong nextOffset;
+
+  /**
+   * @param capacity - records retained, rounded up to a power of two
+   */
+  InMemoryPartitionLog(String topic, int partition, int capacity)
+  {
+    int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    this.topic = topic;
+    this.partition = partition;
+    this.slots = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+    this.nextOffset = new AtomicLong(0);
+  }
+
+  long append(byte[] key, byte[] value)
+  {
+    long offset = this.nextOffset.getAndIncrement();
+    int index = (int) (offset & this.mask);
+    MessageBusRecord record = new MessageBusRecord(
+            this.topic, this.partition, offset, key, value
+    );
+
+    // A producer that wrapped the ring meanwhile may already have stored
+    //  a newer record in the slot, which must not be replaced by ours
+    MessageBusRecord current = this.slots.get(index);
+    while ((current == null || current.getOffset() < offset) &&
+            !this.slots.compareAndSet(index, current, record)) {
+      current = this.slots.get(index);
+    }
+    return offset;
+  }
+
+  /**
+   * Read published records in offset order
+   * @param fromOffset - first offset wanted
+   * @param maxRecords - most records to read
+   * @param records - list the records are appended to
+   * @return offset to read from next time
+   */
+  long read(long fromOffset, int maxRecords, List<MessageBusRecord> records)
+  {
+    long offset = fromOffset;
+    int read = 0;
+    while (read < maxRecords) {
+      MessageBusRecord record =
+              this.slots.get((int) (offset & this.mask));
+
+      // Not published yet (a producer may still be filling the slot)
+      if (record == null || record.getOffset() < offset) {
+        break;
+      }
+
+      // Overwritten while we were behind - skip to the oldest retained
+      if (record.getOffset() > offset) {
+        offset = Math.max(
+                offset + 1,
+                this.nextOffset.get() - this.slots.length()
+        );
+        continue;
+      }
+
+      records.add(record);
+      offset++;
+      read++;
+    }
+    return offset;
+  }
+
+  long endOffset()
+  {
+    return this.nextOffset.get();
+  }
+
+}
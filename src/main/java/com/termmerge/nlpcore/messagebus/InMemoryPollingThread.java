@@ -0,0 +1,109 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import fj.data.Validation;
+
+
+/**
+ * One member of an in-memory consumer group. Claims its fair share of
+ *  the topic's partitions, reads each from the group's committed offset
+ *  and hands the records to the consumer's listeners, committing once
+ *  they return. When no partition has new records it backs off from
+ *  yielding to parking for up to a millisecond.
+ */
+class InMemoryPollingThread extends Thread
+{
+
+  // Idle loops spent yielding before parking
+  private static final int YIELD_LIMIT = 100;
+
+  // Longest park between idle loops
+  private static final long MAX_PARK_NANOS =
+          TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final InMemoryPartitionLog[] partitionLogs;
+  private final InMemoryConsumerGroup consumerGroup;
+  private final MessageBusConsumer messageBusConsumer;
+  private final int pollBatchSize;
+
+  // Partitions this member currently owns
+  private final List<Integer> ownedPartitions;
+
+  private volatile boolean isPolling;
+
+  InMemoryPollingThread(
+          InMemoryPartitionLog[] partitionLogs,
+          InMemoryConsumerGroup consumerGroup,
+          MessageBusConsumer messageBusConsumer,
+          int pollBatchSize,
+          int threadIndex
+  )
+  {
+    super("in-memory-poller-" + threadIndex);
+    this.partitionLogs = partitionLogs;
+    this.consumerGroup = consumerGroup;
+    this.messageBusConsumer = messageBusConsumer;
+    this.pollBatchSize = pollBatchSize;
+    this.ownedPartitions = new ArrayList<>();
+    this.isPolling = true;
+  }
+
+  public void run()
+  {
+    this.consumerGroup.join();
+    List<MessageBusRecord> records = new ArrayList<>(this.pollBatchSize);
+    int idleLoops = 0;
+
+    try {
+      while (this.isPolling) {
+        this.consumerGroup.rebalance(this, this.ownedPartitions);
+
+        boolean delivered = false;
+        for (int partition : this.ownedPartitions) {
+          long offset = this.consumerGroup.committed(partition);
+          long nextOffset = this.partitionLogs[partition]
+                  .read(offset, this.pollBatchSize, records);
+          if (!records.isEmpty()) {
+            this.messageBusConsumer.publishRecordsToListeners(
+                    Validation.success(Collections.unmodifiableList(
+                            new ArrayList<>(records)
+                    ))
+            );
+            records.clear();
+            delivered = true;
+          }
+          if (nextOffset != offset) {
+            this.consumerGroup.commit(partition, nextOffset);
+          }
+        }
+
+        if (delivered) {
+          idleLoops = 0;
+        }
+        else if (idleLoops++ < YIELD_LIMIT) {
+          Thread.yield();
+        }
+        else {
+          LockSupport.parkNanos(Math.min(
+                  MAX_PARK_NANOS,
+                  1000L << Math.min(10, idleLoops - YIELD_LIMIT)
+          ));
+        }
+      }
+    } finally {
+      this.consumerGroup.leave(this, this.ownedPartitions);
+    }
+  }
+
+  void shutdown()
+  {
+    this.isPolling = false;
+    LockSupport.unpark(this);
+  }
+
+}
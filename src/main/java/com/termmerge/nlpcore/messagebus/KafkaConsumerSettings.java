@@ -0,0 +1,162 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.Properties;
+
+import fj.data.Validation;
+
+
+/**
+ * Optional, tunable settings of a KafkaMessageBusConsumer, parsed from the
+ *  Properties given on connect:
+ *  - consumer_threads: consumers of the group polling in parallel
+ *  - buffer_capacity: records buffered between a poller and its listeners
+ *  - buffer_high_watermark: buffered records at which polling is paused
+ *  - buffer_low_watermark: buffered records at which polling is resumed
+ *  - poll_timeout_min_ms: poll timeout while records keep arriving
+ *  - poll_timeout_max_ms: poll timeout an idle topic backs off to
+ *  - disconnect_timeout_ms: how long disconnect waits for pollers to stop
+ *  - commit_mode: "auto" (Kafka auto-commit) or "acknowledge" (commit
+ *    contiguous offsets acknowledged by listeners)
+ *  - commit_batch_size: acknowledgements that trigger a commit
+ *  - commit_interval_ms: time after which acknowledgements are committed
+ */
+class KafkaConsumerSettings
+{
+
+  static final String COMMIT_AUTO = "auto";
+  static final String COMMIT_ACKNOWLEDGE = "acknowledge";
+
+  final int consumerThreads;
+  final int bufferCapacity;
+  final int bufferHighWatermark;
+  final int bufferLowWatermark;
+  final int pollTimeoutMinMs;
+  final int pollTimeoutMaxMs;
+  final int disconnectTimeoutMs;
+  final String commitMode;
+  final int commitBatchSize;
+  final int commitIntervalMs;
+
+  private KafkaConsumerSettings(
+          int consumerThreads,
+          int bufferCapacity,
+          int bufferHighWatermark,
+          int bufferLowWatermark,
+          int pollTimeoutMinMs,
+          int pollTimeoutMaxMs,
+          int disconnectTimeoutMs,
+          String commitMode,
+          int commitBatchSize,
+          int commitIntervalMs
+  )
+  {
+    this.consumerThreads = consumerThreads;
+    this.bufferCapacity = bufferCapacity;
+    this.bufferHighWatermark = bufferHighWatermark;
+    this.bufferLowWatermark = bufferLowWatermark;
+    this.pollTimeoutMinMs = pollTimeoutMinMs;
+    this.pollTimeoutMaxMs = pollTimeoutMaxMs;
+    this.disconnectTimeoutMs = disconnectTimeoutMs;
+    this.commitMode = commitMode;
+    this.commitBatchSize = commitBatchSize;
+    this.commitIntervalMs = commitIntervalMs;
+  }
+
+  boolean isAcknowledgeMode()
+  {
+    return COMMIT_ACKNOWLEDGE.equals(this.commitMode);
+  }
+
+  static KafkaConsumerSettings defaults()
+  {
+    return new KafkaConsumerSettings(
+            1, 10000, 7500, 2500, 10, 1000, 10000, COMMIT_AUTO, 100, 1000
+    );
+  }
+
+  static Validation<RuntimeException, KafkaConsumerSettings> fromProperties(
+          Properties settings
+  )
+  {
+    int consumerThreads, bufferCapacity, highWatermark, lowWatermark;
+    int pollTimeoutMinMs, pollTimeoutMaxMs, disconnectTimeoutMs;
+    int commitBatchSize, commitIntervalMs;
+    String commitMode = settings.getProperty("commit_mode", COMMIT_AUTO);
+    try {
+      consumerThreads = Integer.parseInt(
+              settings.getProperty("consumer_threads", "1")
+      );
+      bufferCapacity = Integer.parseInt(
+              settings.getProperty("buffer_capacity", "10000")
+      );
+      highWatermark = Integer.parseInt(settings.getProperty(
+              "buffer_high_watermark",
+              Integer.toString(bufferCapacity * 3 / 4)
+      ));
+      lowWatermark = Integer.parseInt(settings.getProperty(
+              "buffer_low_watermark",
+              Integer.toString(bufferCapacity / 4)
+      ));
+      pollTimeoutMinMs = Integer.parseInt(
+              settings.getProperty("poll_timeout_min_ms", "10")
+      );
+      pollTimeoutMaxMs = Integer.parseInt(
+              settings.getProperty("poll_timeout_max_ms", "1000")
+      );
+      disconnectTimeoutMs = Integer.parseInt(
+              settings.getProperty("disconnect_timeout_ms", "10000")
+      );
+      commitBatchSize = Integer.parseInt(
+              settings.getProperty("commit_batch_size", "100")
+      );
+      commitIntervalMs = Integer.parseInt(
+              settings.getProperty("commit_interval_ms", "1000")
+      );
+    } catch (NumberFormatException e) {
+      return Validation.fail(new IllegalArgumentException(
+              "Kafka consumer settings must be integers"
+      ));
+    }
+
+    if (consumerThreads < 1) {
+      return Validation.fail(new IllegalArgumentException(
+              "consumer_threads must be a positive integer"
+      ));
+    }
+    else if (bufferCapacity < 1 ||
+            highWatermark > bufferCapacity ||
+            lowWatermark < 0 ||
+            lowWatermark >= highWatermark) {
+      return Validation.fail(new IllegalArgumentException(
+              "Buffer watermarks must satisfy " +
+                      "0 <= low < high <= capacity"
+      ));
+    }
+    else if (pollTimeoutMinMs < 1 ||
+            pollTimeoutMaxMs < pollTimeoutMinMs ||
+            disconnectTimeoutMs < 0) {
+      return Validation.fail(new IllegalArgumentException(
+              "Poll timeouts must satisfy 1 <= min <= max and " +
+                      "disconnect timeout must not be negative"
+      ));
+    }
+    else if (!COMMIT_AUTO.equals(commitMode) &&
+            !COMMIT_ACKNOWLEDGE.equals(commitMode)) {
+      return Validation.fail(new IllegalArgumentException(
+              "commit_mode must be either auto or acknowledge"
+      ));
+    }
+    else if (commitBatchSize < 1 || commitIntervalMs < 1) {
+      return Validation.fail(new IllegalArgumentException(
+              "Commit batch size and interval must be positive"
+      ));
+    }
+
+    return Validation.success(new KafkaConsumerSettings(
+            consumerThreads, bufferCapacity, highWatermark, lowWatermark,
+            pollTimeoutMinMs, pollTimeoutMaxMs, disconnectTimeoutMs,
+            commitMode, commitBatchSize, commitIntervalMs
+    ));
+  }
+
+}
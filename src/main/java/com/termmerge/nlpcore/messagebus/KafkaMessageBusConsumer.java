@@ -1,42 +1,62 @@
 package com.termmerge.nlpcore.messagebus;
 
+import java.util.Map;
 import java.util.List;
-import java.util.function.Consumer;
 
-import java.util.ArrayList;
 import java.util.Properties;
-import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.slf4j.Logger;
 
 import fj.data.Validation;
+import com.codahale.metrics.Gauge;
 import org.slf4j.LoggerFactory;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
-import org.apache.kafka.clients.consumer.ConsumerRecord;
 
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.KafkaException;
 
 
 /**
  * Obtains a data messagebus from a publisher using the
  *  Apache Kafka publish-subscribe system.
+ *
+ * Setting "consumer_threads" to N > 1 on connect runs N consumers of the
+ *  same group in parallel, each on its own thread. Records of a partition
+ *  stay in order, but listeners may then be called concurrently and must
+ *  be thread-safe.
+ *
+ * Polled records wait in a bounded buffer ("buffer_capacity") until
+ *  listeners take them; fetching is paused above "buffer_high_watermark"
+ *  and resumed below "buffer_low_watermark". The "buffer.depth" gauge and
+ *  "poll.paused" timer report how often and how long ingest is held back.
+ *  Batches a listener throws on are logged and counted in
+ *  "dispatch.failures"; delivery carries on with the next batch.
+ *
+ * With "commit_mode" set to "acknowledge", Kafka auto-commit is turned
+ *  off; listeners acknowledge records and the pollers asynchronously
+ *  commit, per partition, the offset up to which every record has been
+ *  acknowledged - after "commit_batch_size" acknowledgements or
+ *  "commit_interval_ms", whichever comes first.
  */
-public class KafkaMessageBusConsumer implements MessageBusConsumer
+public class KafkaMessageBusConsumer extends AbstractMessageBusConsumer
 {
 
   // Key-Value Pairs of Kafka Settings
   private Properties networkSettings;
 
-  // Thread-safe list of message bus listeners
-  private final
-    List<Consumer<Validation<RuntimeException, Properties>>> listeners;
+  // Parallelism and buffering settings
+  private KafkaConsumerSettings consumerSettings;
 
   // Currently subscribed to a topic?
   private boolean hasAssignedTopic;
 
-  // Kafka Polling Thread
-  private Thread pollingThread;
+  // Kafka Polling Threads, one per consumer in the group
+  private List<KafkaPollingThread> pollingThreads;
+
+  // Delivery and acknowledgement state of currently assigned partitions
+  private final Map<TopicPartition, PartitionOffsets> partitionOffsets;
 
   // Application Logger
   private Logger logger;
@@ -49,16 +69,23 @@ public class KafkaMessageBusConsumer implements MessageBusConsumer
     this.networkSettings.put("auto.offset.reset", "earliest");
     this.networkSettings.put("enable.auto.commit", "true");
     this.networkSettings.put("key.deserializer",
-            "org.apache.kafka.common.serialization.StringDeserializer");
+            "org.apache.kafka.common.serialization.ByteArrayDeserializer");
     this.networkSettings.put("value.deserializer",
-            "org.apache.kafka.common.serialization.StringDeserializer");
+            "org.apache.kafka.common.serialization.ByteArrayDeserializer");
 
-    this.listeners = Collections.synchronizedList(
-            new ArrayList<>()
-    );
+    this.consumerSettings = KafkaConsumerSettings.defaults();
     this.hasAssignedTopic = false;
-    this.pollingThread = null;
+    this.pollingThreads = new CopyOnWriteArrayList<>();
+    this.partitionOffsets = new ConcurrentHashMap<>();
     this.logger = LoggerFactory.getLogger(KafkaMessageBusConsumer.class);
+
+    this.metricRegistry.register(
+            "buffer.depth",
+            (Gauge<Integer>) () -> this.pollingThreads
+                    .stream()
+                    .mapToInt(KafkaPollingThread::bufferDepth)
+                    .sum()
+    );
   }
 
   public Validation<RuntimeException, Boolean> connect(
@@ -83,8 +110,20 @@ public class KafkaMessageBusConsumer implements MessageBusConsumer
             kafkaSettings.getProperty("group_id")
     );
 
+    // Optional parallelism and buffering settings
+    Validation<RuntimeException, KafkaConsumerSettings> settingsValidation =
+            KafkaConsumerSettings.fromProperties(kafkaSettings);
+    if (settingsValidation.isFail()) {
+      return Validation.fail(settingsValidation.fail());
+    }
+    this.consumerSettings = settingsValidation.success();
+    this.networkSettings.put(
+            "enable.auto.commit",
+            Boolean.toString(!this.consumerSettings.isAcknowledgeMode())
+    );
+
     // Test a connection to Kafka Server - early network error detection!
-    KafkaConsumer<String, String> testConsumer;
+    KafkaConsumer<byte[], byte[]> testConsumer;
     try {
        testConsumer = new KafkaConsumer<>(this.networkSettings);
     } catch (KafkaException e) {
@@ -107,88 +146,88 @@ public class KafkaMessageBusConsumer implements MessageBusConsumer
       );
     }
     this.hasAssignedTopic = true;
-    this.logger.info("Listening to Kafka Message Bus, topic: " + topicName);
-
-    this.pollingThread = new Thread(() -> {
-      // Initialize Kafka Consumer and subscribe to specified topic
-      KafkaConsumer<String, String> kafkaConsumer;
-      kafkaConsumer = new KafkaConsumer<>(networkSettings);
-
-      ArrayList<String> topicsList = new ArrayList<>();
-
-      // Synchronized publish of a Validation object to all current consumers
-      topicsList.add(topicName);
-      try {
-        kafkaConsumer.subscribe(topicsList);
-      } catch (RuntimeException e) {
-        this.publishToListeners(Validation.fail(e));
-      }
-
-
-      // Continuously obtain Kafka records and fire listeners
-      ConsumerRecords<String, String> consumerRecordList = null;
-      while (!Thread.currentThread().isInterrupted()) {
-        try {
-          consumerRecordList = kafkaConsumer.poll(10);
-        } catch (RuntimeException e) {
-          this.publishToListeners(Validation.fail(e));
-        }
-
-        if (consumerRecordList == null) {
-          continue;
-        }
-
-        for (ConsumerRecord<String, String> consumerRecord :
-                consumerRecordList) {
-          Properties kafkaRecord = new Properties();
-          kafkaRecord.put("key", consumerRecord.key());
-          kafkaRecord.put("value", consumerRecord.value());
-          this.publishToListeners(Validation.success(kafkaRecord));
-        }
-      }
+    this.logger.info(
+            "Listening to Kafka Message Bus, topic: " + topicName +
+                    " with " + this.consumerSettings.consumerThreads +
+                    " consumer(s)"
+    );
 
-      this.logger.info("(Kafka Thread) Kafka Thread interrupted");
-      kafkaConsumer.close();
-    });
+    for (int i = 0; i < this.consumerSettings.consumerThreads; i++) {
+      this.pollingThreads.add(new KafkaPollingThread(
+              this.networkSettings,
+              this.consumerSettings,
+              topicName,
+              this,
+              this.partitionOffsets,
+              this.metricRegistry,
+              i
+      ));
+    }
 
     try {
-      this.pollingThread.start();
+      for (KafkaPollingThread pollingThread : this.pollingThreads) {
+        pollingThread.start();
+      }
     } catch (IllegalThreadStateException e) {
       return Validation.fail(e);
     }
 
-    return Validation.success(this.pollingThread.getId());
+    return Validation.success(this.pollingThreads.get(0).getId());
   }
 
-  public void addListener(
-          Consumer<Validation<RuntimeException, Properties>> listener
+  public Validation<RuntimeException, Boolean> acknowledge(
+          Properties record
   )
   {
-    this.listeners.add(listener);
+    if (!this.consumerSettings.isAcknowledgeMode()) {
+      return Validation.success(false);
+    }
+
+    String topic = record.getProperty("topic");
+    String partition = record.getProperty("partition");
+    String offset = record.getProperty("offset");
+    if (topic == null || partition == null || offset == null) {
+      return Validation.fail(new IllegalArgumentException(
+              "Record is missing its topic, partition or offset"
+      ));
+    }
+
+    try {
+      return Validation.success(this.acknowledge(
+              new TopicPartition(topic, Integer.parseInt(partition)),
+              Long.parseLong(offset)
+      ));
+    } catch (NumberFormatException e) {
+      return Validation.fail(new IllegalArgumentException(
+              "Record has a malformed partition or offset"
+      ));
+    }
   }
 
-  public void removeListener(
-          Consumer<Validation<RuntimeException, Properties>> listener
+  public Validation<RuntimeException, Boolean> acknowledge(
+          MessageBusRecord record
   )
   {
-    this.listeners.remove(listener);
+    if (!this.consumerSettings.isAcknowledgeMode()) {
+      return Validation.success(false);
+    }
+
+    return Validation.success(this.acknowledge(
+            new TopicPartition(record.getTopic(), record.getPartition()),
+            record.getOffset()
+    ));
   }
 
-  public void publishToListeners(
-          Validation<RuntimeException, Properties> validationObject
-  )
+  private boolean acknowledge(TopicPartition topicPartition, long offset)
   {
-    synchronized (this.listeners) {
-      for (Consumer<Validation<RuntimeException, Properties>> listener :
-              listeners) {
-        listener.accept(validationObject);
-      }
-    }
+    // Partitions revoked in the meantime get redelivered elsewhere
+    PartitionOffsets offsets = this.partitionOffsets.get(topicPartition);
+    return offsets != null && offsets.acknowledge(offset);
   }
 
   public Validation<RuntimeException, Long> disconnect()
   {
-    if (this.pollingThread == null) {
+    if (this.pollingThreads.isEmpty()) {
       return Validation.fail(
               new IllegalStateException(
                       "Consumer hasn't been started!"
@@ -196,14 +235,34 @@ public class KafkaMessageBusConsumer implements MessageBusConsumer
       );
     }
 
+    this.logger.info("(Main Thread) Stopping Kafka Threads");
+    for (KafkaPollingThread pollingThread : this.pollingThreads) {
+      pollingThread.shutdown();
+    }
+
+    // Wait for every thread to publish what it polled, commit and close
+    long deadline = System.currentTimeMillis() +
+            this.consumerSettings.disconnectTimeoutMs;
     try {
-      this.pollingThread.interrupt();
-    } catch (SecurityException e) {
-      return Validation.fail(e);
+      for (KafkaPollingThread pollingThread : this.pollingThreads) {
+        pollingThread.join(
+                Math.max(1, deadline - System.currentTimeMillis())
+        );
+        if (pollingThread.isAlive()) {
+          return Validation.fail(new IllegalStateException(
+                  "Kafka Thread did not stop in time: " +
+                          pollingThread.getName()
+          ));
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Validation.fail(new IllegalStateException(
+              "Interrupted while waiting for Kafka Threads to stop"
+      ));
     }
 
-    this.logger.warn("(Main Thread) Interrupting Kafka Thread");
-    return Validation.success(this.pollingThread.getId());
+    return Validation.success(this.pollingThreads.get(0).getId());
   }
 
 }
@@ -0,0 +1,264 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import com.termmerge.nlpcore.Instrumented;
+
+import java.util.Properties;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+
+import fj.data.Validation;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.LoggerFactory;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+
+import org.apache.kafka.common.KafkaException;
+
+
+/**
+ * Publishes onto a data messagebus using the Apache Kafka
+ *  publish-subscribe system. Sends are batched per partition: a batch
+ *  goes out once it holds "batch_size" bytes or has waited "linger_ms",
+ *  compressed as a whole with "compression_type" (none, gzip, snappy or
+ *  lz4).
+ *
+ * Send latency (until the broker acknowledged) and payload sizes are
+ *  recorded as histograms; Kafka's own per-batch statistics are bridged
+ *  as "batch.*" gauges. Thread-safe.
+ */
+public class KafkaMessageBusProducer implements
+        MessageBusProducer, Instrumented
+{
+
+  // Key-Value Pairs of Kafka Settings
+  private Properties networkSettings;
+
+  // Kafka Producer, present while connected
+  private volatile KafkaProducer<byte[], byte[]> kafkaProducer;
+
+  // Runtime metrics of this producer
+  private final MetricRegistry metricRegistry;
+
+  // Time from handing a payload over until the broker acknowledged it
+  private final Timer sendTimer;
+
+  // Size of every payload handed over, in bytes
+  private final Histogram payloadSizes;
+
+  // Application Logger
+  private Logger logger;
+
+
+  public KafkaMessageBusProducer()
+  {
+    // Kafka Default Network Settings
+    this.networkSettings = new Properties();
+    this.networkSettings.put("acks", "1");
+    this.networkSettings.put("linger.ms", "5");
+    this.networkSettings.put("batch.size", "65536");
+    this.networkSettings.put("compression.type", "lz4");
+    this.networkSettings.put("key.serializer",
+            "org.apache.kafka.common.serialization.ByteArraySerializer");
+    this.networkSettings.put("value.serializer",
+            "org.apache.kafka.common.serialization.ByteArraySerializer");
+
+    this.kafkaProducer = null;
+    this.metricRegistry = new MetricRegistry();
+    this.sendTimer = this.metricRegistry.timer("send.latency");
+    this.payloadSizes = this.metricRegistry.histogram("send.payload_size");
+    this.registerBatchGauge("batch.size.avg", "batch-size-avg");
+    this.registerBatchGauge("batch.size.max", "batch-size-max");
+    this.registerBatchGauge("batch.records.avg", "records-per-request-avg");
+    this.registerBatchGauge("batch.queue_time.avg", "record-queue-time-avg");
+    this.registerBatchGauge("batch.compression.avg", "compression-rate-avg");
+    this.logger = LoggerFactory.getLogger(KafkaMessageBusProducer.class);
+  }
+
+  public Validation<RuntimeException, Boolean> connect(
+          Properties kafkaSettings
+  )
+  {
+    if (!kafkaSettings.containsKey("connection_string")) {
+      return Validation.fail(new IllegalArgumentException(
+              "Kafka settings are not correctly set!"
+      ));
+    }
+    else if (this.kafkaProducer != null) {
+      return Validation.fail(new IllegalStateException(
+              "Producer already connected!"
+      ));
+    }
+    this.networkSettings.put(
+            "bootstrap.servers",
+            kafkaSettings.getProperty("connection_string")
+    );
+
+    // Optional batching settings
+    String[][] optionalSettings = {
+            {"acks", "acks"},
+            {"linger_ms", "linger.ms"},
+            {"batch_size", "batch.size"},
+            {"compression_type", "compression.type"}
+    };
+    for (String[] optionalSetting : optionalSettings) {
+      if (kafkaSettings.containsKey(optionalSetting[0])) {
+        this.networkSettings.put(
+                optionalSetting[1],
+                kafkaSettings.getProperty(optionalSetting[0])
+        );
+      }
+    }
+
+    try {
+      this.kafkaProducer = new KafkaProducer<>(this.networkSettings);
+    } catch (KafkaException e) {
+      return Validation.fail(e);
+    }
+
+    this.logger.info("Connected Kafka Producer");
+    return Validation.success(true);
+  }
+
+  public CompletableFuture<Validation<RuntimeException, Long>>
+    publishToMessageBus(
+          String topicName,
+          String key,
+          Validation<RuntimeException, String> payload
+  )
+  {
+    if (payload.isFail()) {
+      return CompletableFuture.completedFuture(
+              Validation.fail(payload.fail())
+      );
+    }
+
+    String value = payload.success();
+    return this.publishToMessageBus(
+            topicName,
+            key == null ? null : key.getBytes(StandardCharsets.UTF_8),
+            value == null ? null : value.getBytes(StandardCharsets.UTF_8)
+    );
+  }
+
+  public CompletableFuture<Validation<RuntimeException, Long>>
+    publishToMessageBus(
+          String topicName,
+          byte[] key,
+          byte[] payload
+  )
+  {
+    CompletableFuture<Validation<RuntimeException, Long>> result =
+            new CompletableFuture<>();
+    KafkaProducer<byte[], byte[]> currentProducer = this.kafkaProducer;
+    if (currentProducer == null) {
+      result.complete(Validation.fail(new IllegalStateException(
+              "Producer hasn't been connected!"
+      )));
+      return result;
+    }
+
+    // Null payloads are tombstones, deleting the key from compacted topics
+    this.payloadSizes.update(payload == null ? 0 : payload.length);
+    Timer.Context sendTime = this.sendTimer.time();
+    try {
+      currentProducer.send(
+              new ProducerRecord<>(topicName, key, payload),
+              (recordMetadata, exception) -> {
+                sendTime.stop();
+                if (exception != null) {
+                  result.complete(Validation.fail(
+                          exception instanceof RuntimeException ?
+                                  (RuntimeException) exception :
+                                  new KafkaException(exception)
+                  ));
+                }
+                else {
+                  result.complete(
+                          Validation.success(recordMetadata.offset())
+                  );
+                }
+              }
+      );
+    } catch (RuntimeException e) {
+      sendTime.stop();
+      result.complete(Validation.fail(e));
+    }
+
+    return result;
+  }
+
+  public Validation<RuntimeException, Boolean> flush()
+  {
+    KafkaProducer<byte[], byte[]> currentProducer = this.kafkaProducer;
+    if (currentProducer == null) {
+      return Validation.fail(new IllegalStateException(
+              "Producer hasn't been connected!"
+      ));
+    }
+
+    try {
+      currentProducer.flush();
+    } catch (RuntimeException e) {
+      return Validation.fail(e);
+    }
+    return Validation.success(true);
+  }
+
+  public Validation<RuntimeException, Boolean> disconnect()
+  {
+    KafkaProducer<byte[], byte[]> currentProducer = this.kafkaProducer;
+    if (currentProducer == null) {
+      return Validation.fail(new IllegalStateException(
+              "Producer hasn't been connected!"
+      ));
+    }
+
+    this.kafkaProducer = null;
+    try {
+      currentProducer.close();
+    } catch (RuntimeException e) {
+      return Validation.fail(e);
+    }
+
+    this.logger.info("Disconnected Kafka Producer");
+    return Validation.success(true);
+  }
+
+  public MetricRegistry getMetricRegistry()
+  {
+    return this.metricRegistry;
+  }
+
+  /**
+   * Bridge one of Kafka's producer-wide metrics as a gauge
+   * @param name - name of the gauge
+   * @param kafkaMetricName - name of the Kafka "producer-metrics" metric
+   */
+  private void registerBatchGauge(String name, String kafkaMetricName)
+  {
+    this.metricRegistry.register(name, (Gauge<Double>) () -> {
+      KafkaProducer<byte[], byte[]> currentProducer = this.kafkaProducer;
+      if (currentProducer == null) {
+        return Double.NaN;
+      }
+
+      for (Map.Entry<MetricName, ? extends Metric> metric :
+              currentProducer.metrics().entrySet()) {
+        if (metric.getKey().name().equals(kafkaMetricName) &&
+                metric.getKey().group().equals("producer-metrics")) {
+          return metric.getValue().value();
+        }
+      }
+      return Double.NaN;
+    });
+  }
+
+}
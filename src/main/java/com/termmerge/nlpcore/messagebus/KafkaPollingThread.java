@@ -0,0 +1,500 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Collection;
+
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Properties;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.slf4j.Logger;
+
+import fj.data.Validation;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.LoggerFactory;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+
+
+/**
+ * One member of a Kafka consumer group, polling a topic on its own thread.
+ *  Records are polled as raw bytes and handed, undecoded, to a dispatcher
+ *  thread through a bounded buffer; the dispatcher publishes whatever has
+ *  accumulated to the listeners of the owning MessageBusConsumer as one
+ *  batch. Kafka assigns each partition to exactly one member of a group,
+ *  so the records of a partition are always published in order.
+ *
+ * When the buffer reaches its high watermark the assigned partitions are
+ *  paused - polling carries on so the group membership stays alive, but
+ *  no more records are fetched - until the buffer drains to its low
+ *  watermark.
+ *
+ * The poll timeout doubles on every empty poll up to a maximum, so idle
+ *  topics cost next to no CPU, and drops back to the minimum as soon as
+ *  records arrive. Shutdown wakes the consumer out of a pending poll,
+ *  lets the dispatcher publish everything already polled, commits and
+ *  only then closes the consumer. A listener that throws is logged and
+ *  counted, and the dispatcher carries on with the next batch.
+ *
+ * In acknowledge commit mode every delivered record is tracked per
+ *  partition, and the offsets listeners have acknowledged contiguously
+ *  are committed asynchronously from the polling thread, so a slow
+ *  commit never holds up polling.
+ */
+class KafkaPollingThread extends Thread
+{
+
+  // Marks the end of the buffered records once polling has stopped
+  private static final MessageBusRecord END_OF_RECORDS =
+          new MessageBusRecord(null, -1, -1, null, null);
+
+  // How often a blocked shutdown hand-off checks the dispatcher is alive
+  private static final long HAND_OFF_CHECK_MS = 100;
+
+  // Key-Value Pairs of Kafka Settings
+  private final Properties networkSettings;
+
+  // Buffer, polling and parallelism settings
+  private final KafkaConsumerSettings consumerSettings;
+
+  // Topic being polled
+  private final String topicName;
+
+  // Consumer whose listeners receive the polled records
+  private final MessageBusConsumer messageBusConsumer;
+
+  // Bounded hand-off between polling and dispatching
+  private final ArrayBlockingQueue<MessageBusRecord> buffer;
+
+  // Thread publishing buffered records to listeners
+  private final Thread dispatchThread;
+
+  // Delivery and acknowledgement state of assigned partitions, shared
+  //  with the owning consumer which records acknowledgements
+  private final Map<TopicPartition, PartitionOffsets> partitionOffsets;
+
+  // Time spent with partitions paused due to a full buffer
+  private final Timer pauseTimer;
+
+  // Latency of asynchronous offset commits
+  private final Timer commitTimer;
+
+  // Offset commits that failed
+  private final Counter commitFailures;
+
+  // Batches a listener threw on while they were being published
+  private final Counter dispatchFailures;
+
+  // When acknowledged offsets were last committed
+  private long lastCommitTime;
+
+  // Application Logger
+  private final Logger logger;
+
+  // Kafka Consumer owned by this thread, set once polling starts
+  private volatile KafkaConsumer<byte[], byte[]> kafkaConsumer;
+
+  // Cleared to stop polling
+  private volatile boolean isPolling;
+
+  KafkaPollingThread(
+          Properties networkSettings,
+          KafkaConsumerSettings consumerSettings,
+          String topicName,
+          MessageBusConsumer messageBusConsumer,
+          Map<TopicPartition, PartitionOffsets> partitionOffsets,
+          MetricRegistry metricRegistry,
+          int threadIndex
+  )
+  {
+    super("kafka-poller-" + topicName + "-" + threadIndex);
+    this.networkSettings = networkSettings;
+    this.consumerSettings = consumerSettings;
+    this.topicName = topicName;
+    this.messageBusConsumer = messageBusConsumer;
+    this.buffer = new ArrayBlockingQueue<>(consumerSettings.bufferCapacity);
+    this.dispatchThread = new Thread(
+            this::dispatchRecords,
+            "kafka-dispatcher-" + topicName + "-" + threadIndex
+    );
+    this.partitionOffsets = partitionOffsets;
+    this.pauseTimer = metricRegistry.timer("poll.paused");
+    this.commitTimer = metricRegistry.timer("offsets.commit");
+    this.commitFailures = metricRegistry.counter("offsets.commit.failures");
+    this.dispatchFailures = metricRegistry.counter("dispatch.failures");
+    this.lastCommitTime = System.currentTimeMillis();
+    this.logger = LoggerFactory.getLogger(KafkaPollingThread.class);
+    this.kafkaConsumer = null;
+    this.isPolling = true;
+  }
+
+  int bufferDepth()
+  {
+    return this.buffer.size();
+  }
+
+  /**
+   * Ask this thread to stop. Safe to call from any thread; a poll in
+   *  progress is woken up instead of waiting out its timeout.
+   */
+  void shutdown()
+  {
+    this.isPolling = false;
+    KafkaConsumer<byte[], byte[]> currentConsumer = this.kafkaConsumer;
+    if (currentConsumer != null) {
+      currentConsumer.wakeup();
+    }
+  }
+
+  @Override
+  public void run()
+  {
+    // Initialize Kafka Consumer and subscribe to specified topic
+    KafkaConsumer<byte[], byte[]> kafkaConsumer;
+    kafkaConsumer = new KafkaConsumer<>(this.networkSettings);
+    this.kafkaConsumer = kafkaConsumer;
+
+    ArrayList<String> topicsList = new ArrayList<>();
+    topicsList.add(this.topicName);
+    try {
+      kafkaConsumer.subscribe(topicsList, new PartitionOffsetsRebalancer());
+    } catch (RuntimeException e) {
+      this.messageBusConsumer.publishRecordsToListeners(
+              Validation.fail(e)
+      );
+    }
+    this.dispatchThread.start();
+
+    // Records polled but not yet accepted by the full buffer
+    ArrayDeque<MessageBusRecord> overflow = new ArrayDeque<>();
+    Timer.Context pausedTime = null;
+    long pollTimeout = this.consumerSettings.pollTimeoutMinMs;
+
+    // Acknowledgements must not wait for long polls to get committed
+    long maxPollTimeout = this.consumerSettings.isAcknowledgeMode() ?
+            Math.min(
+                    this.consumerSettings.pollTimeoutMaxMs,
+                    this.consumerSettings.commitIntervalMs
+            ) :
+            this.consumerSettings.pollTimeoutMaxMs;
+
+    // Continuously obtain Kafka records and hand them to the dispatcher
+    while (this.isPolling && !Thread.currentThread().isInterrupted()) {
+      ConsumerRecords<byte[], byte[]> consumerRecordList;
+      try {
+        consumerRecordList = kafkaConsumer.poll(
+                pausedTime == null ?
+                        pollTimeout :
+                        this.consumerSettings.pollTimeoutMinMs
+        );
+      } catch (WakeupException e) {
+        break;
+      } catch (RuntimeException e) {
+        this.messageBusConsumer.publishRecordsToListeners(
+                Validation.fail(e)
+        );
+        continue;
+      }
+
+      // Back off while idle, react immediately once records flow again
+      pollTimeout = consumerRecordList.isEmpty() ?
+              Math.min(pollTimeout * 2, maxPollTimeout) :
+              this.consumerSettings.pollTimeoutMinMs;
+
+      for (ConsumerRecord<byte[], byte[]> consumerRecord :
+              consumerRecordList) {
+        overflow.add(new MessageBusRecord(
+                consumerRecord.topic(),
+                consumerRecord.partition(),
+                consumerRecord.offset(),
+                consumerRecord.key(),
+                consumerRecord.value()
+        ));
+
+        if (this.consumerSettings.isAcknowledgeMode()) {
+          this.partitionOffsets.computeIfAbsent(
+                  new TopicPartition(
+                          consumerRecord.topic(),
+                          consumerRecord.partition()
+                  ),
+                  topicPartition -> new PartitionOffsets()
+          ).deliver(consumerRecord.offset());
+        }
+      }
+      while (!overflow.isEmpty() && this.buffer.offer(overflow.peek())) {
+        overflow.poll();
+      }
+
+      // Pause fetching above the high watermark, resume below the low
+      //  one. Pausing is repeated while saturated so that partitions
+      //  gained on a rebalance are paused too.
+      int depth = this.buffer.size();
+      if (!overflow.isEmpty() ||
+              depth >= this.consumerSettings.bufferHighWatermark) {
+        kafkaConsumer.pause(kafkaConsumer.assignment());
+        if (pausedTime == null) {
+          pausedTime = this.pauseTimer.time();
+        }
+      }
+      else if (pausedTime != null &&
+              depth <= this.consumerSettings.bufferLowWatermark) {
+        kafkaConsumer.resume(kafkaConsumer.paused());
+        pausedTime.stop();
+        pausedTime = null;
+      }
+
+      if (this.consumerSettings.isAcknowledgeMode()) {
+        this.commitAcknowledgedAsync(kafkaConsumer);
+      }
+    }
+
+    this.logger.info("(" + this.getName() + ") Kafka Thread stopping");
+    if (pausedTime != null) {
+      pausedTime.stop();
+    }
+    this.isPolling = false;
+
+    // An interrupt only ends polling, the shutdown itself must complete
+    boolean wasInterrupted = Thread.interrupted();
+
+    // Publish every record already polled before committing
+    boolean isHandedOff = true;
+    try {
+      for (MessageBusRecord kafkaRecord : overflow) {
+        isHandedOff = isHandedOff && this.handOff(kafkaRecord);
+      }
+      isHandedOff = isHandedOff && this.handOff(END_OF_RECORDS);
+      this.dispatchThread.join();
+    } catch (InterruptedException e) {
+      this.dispatchThread.interrupt();
+      wasInterrupted = true;
+    }
+
+    // Committing the position would skip records never published, only
+    //  acknowledged offsets are still safe to commit
+    if (!isHandedOff) {
+      this.logger.warn(
+              "(" + this.getName() + ") Dispatcher stopped, " +
+                      "buffered records were not published"
+      );
+    }
+    try {
+      if (isHandedOff || this.consumerSettings.isAcknowledgeMode()) {
+        this.commitOffsets(kafkaConsumer);
+      }
+    } catch (RuntimeException e) {
+      this.logger.warn(
+              "(" + this.getName() + ") Final offset commit failed", e
+      );
+    }
+    for (TopicPartition topicPartition : kafkaConsumer.assignment()) {
+      this.partitionOffsets.remove(topicPartition);
+    }
+    kafkaConsumer.close();
+
+    if (wasInterrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Hand a record to the dispatcher, waiting for room in the buffer only
+   *  as long as the dispatcher is still alive to make some
+   * @return whether the record was buffered
+   */
+  private boolean handOff(MessageBusRecord kafkaRecord)
+          throws InterruptedException
+  {
+    while (!this.buffer.offer(
+            kafkaRecord, HAND_OFF_CHECK_MS, TimeUnit.MILLISECONDS
+    )) {
+      if (!this.dispatchThread.isAlive()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void commitOffsets(KafkaConsumer<byte[], byte[]> kafkaConsumer)
+  {
+    // A wakeup requested after the last poll is still pending and would
+    //  abort the first blocking call
+    try {
+      this.commitOffsetsSync(kafkaConsumer, kafkaConsumer.assignment());
+    } catch (WakeupException e) {
+      this.commitOffsetsSync(kafkaConsumer, kafkaConsumer.assignment());
+    }
+  }
+
+  private void commitOffsetsSync(
+          KafkaConsumer<byte[], byte[]> kafkaConsumer,
+          Collection<TopicPartition> topicPartitions
+  )
+  {
+    if (!this.consumerSettings.isAcknowledgeMode()) {
+      kafkaConsumer.commitSync();
+      return;
+    }
+
+    Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+    for (TopicPartition topicPartition : topicPartitions) {
+      PartitionOffsets partitionOffsets =
+              this.partitionOffsets.get(topicPartition);
+      if (partitionOffsets != null && partitionOffsets.committable() >= 0) {
+        offsets.put(
+                topicPartition,
+                new OffsetAndMetadata(partitionOffsets.committable())
+        );
+      }
+    }
+    if (!offsets.isEmpty()) {
+      kafkaConsumer.commitSync(offsets);
+    }
+  }
+
+  /**
+   * Commit acknowledged offsets once enough acknowledgements piled up or
+   *  enough time passed. Completion is reported within a later poll.
+   */
+  private void commitAcknowledgedAsync(
+          KafkaConsumer<byte[], byte[]> kafkaConsumer
+  )
+  {
+    int pendingAcknowledgements = 0;
+    for (TopicPartition topicPartition : kafkaConsumer.assignment()) {
+      PartitionOffsets partitionOffsets =
+              this.partitionOffsets.get(topicPartition);
+      if (partitionOffsets != null) {
+        pendingAcknowledgements += partitionOffsets.pendingAcknowledgements();
+      }
+    }
+
+    long now = System.currentTimeMillis();
+    if (pendingAcknowledgements == 0 ||
+            (pendingAcknowledgements < this.consumerSettings.commitBatchSize &&
+                    now - this.lastCommitTime <
+                            this.consumerSettings.commitIntervalMs)) {
+      return;
+    }
+    this.lastCommitTime = now;
+
+    Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+    for (TopicPartition topicPartition : kafkaConsumer.assignment()) {
+      PartitionOffsets partitionOffsets =
+              this.partitionOffsets.get(topicPartition);
+      long committable = partitionOffsets == null ?
+              -1 :
+              partitionOffsets.takeCommittable();
+      if (committable >= 0) {
+        offsets.put(topicPartition, new OffsetAndMetadata(committable));
+      }
+    }
+    if (offsets.isEmpty()) {
+      return;
+    }
+
+    Timer.Context commitTime = this.commitTimer.time();
+    kafkaConsumer.commitAsync(offsets, (committedOffsets, exception) -> {
+      commitTime.stop();
+      if (exception != null) {
+        this.commitFailures.inc();
+        this.logger.warn(
+                "(" + this.getName() + ") Offset commit failed", exception
+        );
+      }
+    });
+  }
+
+  /**
+   * Keeps acknowledgement tracking in step with the partitions assigned
+   *  to this consumer, committing what was acknowledged before a
+   *  partition moves to another member of the group
+   */
+  private class PartitionOffsetsRebalancer
+          implements ConsumerRebalanceListener
+  {
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions)
+    {
+      if (!consumerSettings.isAcknowledgeMode()) {
+        return;
+      }
+
+      try {
+        commitOffsetsSync(kafkaConsumer, partitions);
+      } catch (RuntimeException e) {
+        commitFailures.inc();
+        logger.warn("(" + getName() + ") Offset commit failed", e);
+      }
+      for (TopicPartition topicPartition : partitions) {
+        partitionOffsets.remove(topicPartition);
+      }
+    }
+
+    @Override
+    public void onPartitionsAssigned(Collection<TopicPartition> partitions)
+    {
+      if (!consumerSettings.isAcknowledgeMode()) {
+        return;
+      }
+
+      for (TopicPartition topicPartition : partitions) {
+        partitionOffsets.put(topicPartition, new PartitionOffsets());
+      }
+    }
+
+  }
+
+  private void dispatchRecords()
+  {
+    boolean hasEnded = false;
+    while (!hasEnded) {
+      List<MessageBusRecord> kafkaRecords = new ArrayList<>();
+      try {
+        kafkaRecords.add(this.buffer.take());
+      } catch (InterruptedException e) {
+        break;
+      }
+      this.buffer.drainTo(kafkaRecords);
+
+      // Nothing is buffered after the end marker
+      int lastIndex = kafkaRecords.size() - 1;
+      if (kafkaRecords.get(lastIndex) == END_OF_RECORDS) {
+        kafkaRecords.remove(lastIndex);
+        hasEnded = true;
+      }
+      if (kafkaRecords.isEmpty()) {
+        continue;
+      }
+
+      // A failing listener must not stop delivery to the partitions
+      try {
+        this.messageBusConsumer.publishRecordsToListeners(
+                Validation.success(
+                        Collections.unmodifiableList(kafkaRecords)
+                )
+        );
+      } catch (RuntimeException e) {
+        this.dispatchFailures.inc();
+        this.logger.warn(
+                "(" + this.getName() + ") Listener failed on a batch of " +
+                        kafkaRecords.size() + " records", e
+        );
+      }
+    }
+  }
+
+}
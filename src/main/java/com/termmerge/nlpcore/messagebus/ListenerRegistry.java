@@ -0,0 +1,121 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import java.util.Arrays;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+
+
+/**
+ * Lock-free, copy-on-write registry of listeners. Registration swaps in
+ *  a new immutable array with compare-and-set; dispatch iterates whatever
+ *  array was current when it started, so neither side ever waits on the
+ *  other.
+ * @param <L> listener type
+ */
+class ListenerRegistry<L>
+{
+
+  private static final Object[] EMPTY = new Object[0];
+
+  // Current immutable snapshot of listeners
+  private final AtomicReference<Object[]> listeners;
+
+  // Time taken from requesting a registration change until it is applied
+  private final Timer registrationTimer;
+
+  // Number of compare-and-set attempts lost to a concurrent registration
+  private final Counter registrationRetries;
+
+  // Time taken dispatching to every listener in a snapshot
+  private final Timer dispatchTimer;
+
+  /**
+   * @param metricRegistry - registry to record contention metrics into
+   * @param metricPrefix - prefix of the metric names, e.g. "listeners"
+   */
+  ListenerRegistry(MetricRegistry metricRegistry, String metricPrefix)
+  {
+    this.listeners = new AtomicReference<>(EMPTY);
+    this.registrationTimer =
+            metricRegistry.timer(metricPrefix + ".registration");
+    this.registrationRetries =
+            metricRegistry.counter(metricPrefix + ".registration.retries");
+    this.dispatchTimer = metricRegistry.timer(metricPrefix + ".dispatch");
+    metricRegistry.register(
+            metricPrefix + ".count",
+            (Gauge<Integer>) this::size
+    );
+  }
+
+  void add(L listener)
+  {
+    Timer.Context registrationTime = this.registrationTimer.time();
+    try {
+      while (true) {
+        Object[] current = this.listeners.get();
+        Object[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = listener;
+        if (this.listeners.compareAndSet(current, next)) {
+          return;
+        }
+        this.registrationRetries.inc();
+      }
+    } finally {
+      registrationTime.stop();
+    }
+  }
+
+  boolean remove(L listener)
+  {
+    Timer.Context registrationTime = this.registrationTimer.time();
+    try {
+      while (true) {
+        Object[] current = this.listeners.get();
+        int index = Arrays.asList(current).indexOf(listener);
+        if (index < 0) {
+          return false;
+        }
+
+        Object[] next = new Object[current.length - 1];
+        System.arraycopy(current, 0, next, 0, index);
+        System.arraycopy(
+                current, index + 1,
+                next, index,
+                current.length - index - 1
+        );
+        if (this.listeners.compareAndSet(current, next)) {
+          return true;
+        }
+        this.registrationRetries.inc();
+      }
+    } finally {
+      registrationTime.stop();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  void forEach(Consumer<? super L> action)
+  {
+    Object[] snapshot = this.listeners.get();
+    Timer.Context dispatchTime = this.dispatchTimer.time();
+    try {
+      for (Object listener : snapshot) {
+        action.accept((L) listener);
+      }
+    } finally {
+      dispatchTime.stop();
+    }
+  }
+
+  int size()
+  {
+    return this.listeners.get().length;
+  }
+
+}
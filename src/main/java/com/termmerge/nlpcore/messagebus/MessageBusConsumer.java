@@ -1,5 +1,6 @@
 package com.termmerge.nlpcore.messagebus;
 
+import java.util.List;
 import java.util.function.Consumer;
 import com.termmerge.nlpcore.NetworkIO;
 
@@ -30,7 +31,8 @@ public interface MessageBusConsumer extends NetworkIO
   /**
    * Add a listener, which acts upon incoming atomic data that is on
    * the messagebus. The atomic data has a key-value structure of
-   * string keys and string values
+   * string keys and string values ("key", "value" and, where the
+   * messagebus has them, "topic", "partition" and "offset")
    * @param listener
    */
   void addListener(
@@ -47,6 +49,46 @@ public interface MessageBusConsumer extends NetworkIO
                   listener
   );
 
+  /**
+   * Add a batch listener, which acts upon every atomic record obtained
+   *  from one poll of the messagebus at once. Batches handed to the
+   *  listener are immutable.
+   * @param listener
+   */
+  void addBatchListener(
+          Consumer<Validation<RuntimeException, List<Properties>>>
+                  listener
+  );
+
+  /**
+   * Remove a batch listener.
+   * @param listener
+   */
+  void removeBatchListener(
+          Consumer<Validation<RuntimeException, List<Properties>>>
+                  listener
+  );
+
+  /**
+   * Add a record listener, which acts upon every raw record obtained from
+   *  one poll of the messagebus at once. Keys and values are exposed as
+   *  bytes and only decoded on demand. Batches are immutable.
+   * @param listener
+   */
+  void addRecordListener(
+          Consumer<Validation<RuntimeException, List<MessageBusRecord>>>
+                  listener
+  );
+
+  /**
+   * Remove a record listener.
+   * @param listener
+   */
+  void removeRecordListener(
+          Consumer<Validation<RuntimeException, List<MessageBusRecord>>>
+                  listener
+  );
+
   /**
    * Publish a Validation object to all listeners. Must be thread-safe as
    *  this method can be called by multiple threads.
@@ -56,6 +98,51 @@ public interface MessageBusConsumer extends NetworkIO
           Validation<RuntimeException, Properties> validationObject
   );
 
+  /**
+   * Publish a Validation object holding a whole batch of records to all
+   *  listeners. Per-record listeners receive the records one at a time.
+   *  Must be thread-safe as this method can be called by multiple threads.
+   * @param validationObject
+   */
+  void publishBatchToListeners(
+          Validation<RuntimeException, List<Properties>> validationObject
+  );
+
+  /**
+   * Publish a Validation object holding a batch of raw records to every
+   *  listener - record listeners as they are, other listeners in their
+   *  key-value form (converted once per batch, and only if there are
+   *  any). Must be thread-safe as this method can be called by multiple
+   *  threads.
+   * @param validationObject
+   */
+  void publishRecordsToListeners(
+          Validation<RuntimeException, List<MessageBusRecord>>
+                  validationObject
+  );
+
+  /**
+   * Acknowledge that a record received by a listener has been fully
+   *  processed. Consumers that commit their position on acknowledgement
+   *  only move past records once they and every record before them are
+   *  acknowledged; other consumers ignore acknowledgements.
+   * @param record - record as handed to a listener
+   * @return Validation
+   *  Fail -> RuntimeException
+   *  Success -> whether the acknowledgement was tracked
+   */
+  Validation<RuntimeException, Boolean> acknowledge(Properties record);
+
+  /**
+   * Acknowledge that a raw record received by a record listener has been
+   *  fully processed.
+   * @param record - record as handed to a record listener
+   * @return Validation
+   *  Fail -> RuntimeException
+   *  Success -> whether the acknowledgement was tracked
+   */
+  Validation<RuntimeException, Boolean> acknowledge(MessageBusRecord record);
+
   /**
    * Tear down the data messagebus
    * @return Validation
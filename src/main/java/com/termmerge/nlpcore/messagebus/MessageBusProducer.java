@@ -0,0 +1,62 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.concurrent.CompletableFuture;
+import com.termmerge.nlpcore.NetworkIO;
+
+import fj.data.Validation;
+
+
+/**
+ * Contract for any implementing mechanism that publishes atomic data
+ * onto some message bus in the network, for consumers on the other end
+ * to listen to. Payloads come pre-serialized (for instance by a
+ * QuorumMessageProcessor) and sends complete asynchronously.
+ */
+public interface MessageBusProducer extends NetworkIO
+{
+
+  /**
+   * Publish a serialized payload onto a topic of the message bus
+   * @param topicName - topic to publish onto
+   * @param key - key deciding the partition (e.g. the task id), or null
+   * @param payload - serialized payload, as returned by a serializer
+   * @return CompletableFuture
+   *  -> Validation object on async finish
+   *  Fail -> RuntimeException (including a failed serialization)
+   *  Success -> Offset of the payload in its partition
+   */
+  CompletableFuture<Validation<RuntimeException, Long>> publishToMessageBus(
+          String topicName,
+          String key,
+          Validation<RuntimeException, String> payload
+  );
+
+  /**
+   * Publish a payload of raw bytes onto a topic of the message bus
+   * @param topicName - topic to publish onto
+   * @param key - key deciding the partition, or null
+   * @param payload - serialized payload
+   * @return CompletableFuture
+   *  -> Validation object on async finish
+   *  Fail -> RuntimeException
+   *  Success -> Offset of the payload in its partition
+   */
+  CompletableFuture<Validation<RuntimeException, Long>> publishToMessageBus(
+          String topicName,
+          byte[] key,
+          byte[] payload
+  );
+
+  /**
+   * Send everything batched so far, blocking until it is acknowledged
+   * @return Validation
+   */
+  Validation<RuntimeException, Boolean> flush();
+
+  /**
+   * Send whatever is still batched and tear down the producer
+   * @return Validation
+   */
+  Validation<RuntimeException, Boolean> disconnect();
+
+}
@@ -0,0 +1,131 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import java.util.Properties;
+
+
+/**
+ * Atomic record obtained from the message bus, exposing its key and value
+ *  as the raw bytes that came off the wire. Nothing is decoded until a
+ *  String form is asked for, and then only once, so listeners that parse
+ *  bytes directly (or only route on metadata) never pay for decoding.
+ *
+ * Byte arrays returned are the record's own - they must not be modified.
+ */
+public final class MessageBusRecord
+{
+
+  // Where the record lives on the message bus
+  private final String topic;
+  private final int partition;
+  private final long offset;
+
+  // Raw key and value, either possibly null
+  private final byte[] key;
+  private final byte[] value;
+
+  // UTF-8 decoded key and value, decoded on first use
+  private String decodedKey;
+  private String decodedValue;
+
+  public MessageBusRecord(
+          String topic,
+          int partition,
+          long offset,
+          byte[] key,
+          byte[] value
+  )
+  {
+    this.topic = topic;
+    this.partition = partition;
+    this.offset = offset;
+    this.key = key;
+    this.value = value;
+  }
+
+  public String getTopic()
+  {
+    return this.topic;
+  }
+
+  public int getPartition()
+  {
+    return this.partition;
+  }
+
+  public long getOffset()
+  {
+    return this.offset;
+  }
+
+  public byte[] getKeyBytes()
+  {
+    return this.key;
+  }
+
+  public byte[] getValueBytes()
+  {
+    return this.value;
+  }
+
+  /**
+   * Read-only view over the key bytes (no copy is made)
+   * @return ByteBuffer, or null if the record has no key
+   */
+  public ByteBuffer getKeyBuffer()
+  {
+    return this.key == null ?
+            null :
+            ByteBuffer.wrap(this.key).asReadOnlyBuffer();
+  }
+
+  /**
+   * Read-only view over the value bytes (no copy is made)
+   * @return ByteBuffer, or null if the record has no value
+   */
+  public ByteBuffer getValueBuffer()
+  {
+    return this.value == null ?
+            null :
+            ByteBuffer.wrap(this.value).asReadOnlyBuffer();
+  }
+
+  public String getKey()
+  {
+    if (this.decodedKey == null && this.key != null) {
+      this.decodedKey = new String(this.key, StandardCharsets.UTF_8);
+    }
+    return this.decodedKey;
+  }
+
+  public String getValue()
+  {
+    if (this.decodedValue == null && this.value != null) {
+      this.decodedValue = new String(this.value, StandardCharsets.UTF_8);
+    }
+    return this.decodedValue;
+  }
+
+  /**
+   * Key-value form handed to Properties-based listeners
+   * @return Properties with "key", "value", "topic", "partition" and
+   *  "offset" (key and value only when present)
+   */
+  public Properties toProperties()
+  {
+    Properties properties = new Properties();
+    if (this.key != null) {
+      properties.put("key", this.getKey());
+    }
+    if (this.value != null) {
+      properties.put("value", this.getValue());
+    }
+    properties.put("topic", this.topic);
+    properties.put("partition", Integer.toString(this.partition));
+    properties.put("offset", Long.toString(this.offset));
+    return properties;
+  }
+
+}
@@ -0,0 +1,97 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.Set;
+
+import java.util.HashSet;
+import java.util.ArrayDeque;
+
+
+/**
+ * Tracks which records of one partition have been delivered to listeners
+ *  and which of those have been acknowledged, yielding the offset up to
+ *  which every record is acknowledged - the only offset that is safe to
+ *  commit under at-least-once delivery. Records are delivered by the
+ *  polling thread while acknowledgements arrive from any listener thread.
+ */
+class PartitionOffsets
+{
+
+  // Delivered, not yet contiguously acknowledged offsets in delivery order
+  private final ArrayDeque<Long> delivered;
+
+  // Acknowledged offsets still waiting on an earlier acknowledgement
+  private final Set<Long> acknowledged;
+
+  // Offset to commit next (one past the last contiguous acknowledgement)
+  private long committable;
+
+  // Offset most recently handed out for committing
+  private long committed;
+
+  // Acknowledgements since offsets were last handed out for committing
+  private int pendingAcknowledgements;
+
+  PartitionOffsets()
+  {
+    this.delivered = new ArrayDeque<>();
+    this.acknowledged = new HashSet<>();
+    this.committable = -1;
+    this.committed = -1;
+    this.pendingAcknowledgements = 0;
+  }
+
+  synchronized void deliver(long offset)
+  {
+    this.delivered.add(offset);
+  }
+
+  synchronized boolean acknowledge(long offset)
+  {
+    // Delivered offsets ascend, so a range check tells whether the
+    //  record is still outstanding
+    if (this.delivered.isEmpty() ||
+            offset < this.delivered.peekFirst() ||
+            offset > this.delivered.peekLast() ||
+            !this.acknowledged.add(offset)) {
+      return false;
+    }
+
+    while (!this.delivered.isEmpty() &&
+            this.acknowledged.remove(this.delivered.peek())) {
+      this.committable = this.delivered.poll() + 1;
+    }
+    this.pendingAcknowledgements++;
+    return true;
+  }
+
+  synchronized int pendingAcknowledgements()
+  {
+    return this.pendingAcknowledgements;
+  }
+
+  /**
+   * Offset up to which everything is acknowledged, whether or not it has
+   *  been handed out for committing before
+   * @return offset to commit, or -1 if nothing was acknowledged yet
+   */
+  synchronized long committable()
+  {
+    return this.committable;
+  }
+
+  /**
+   * Hand out the offset to commit, if it moved since the last call
+   * @return offset to commit, or -1 if there is nothing new to commit
+   */
+  synchronized long takeCommittable()
+  {
+    this.pendingAcknowledgements = 0;
+    if (this.committable == this.committed) {
+      return -1;
+    }
+
+    this.committed = this.committable;
+    return this.committable;
+  }
+
+}
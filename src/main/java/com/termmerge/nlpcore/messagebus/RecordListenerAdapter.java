@@ -0,0 +1,61 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import java.util.Properties;
+
+import fj.data.Validation;
+
+
+/**
+ * Adapts a per-record listener onto the batch listener contract, so
+ *  existing listeners keep receiving one record at a time. Two adapters
+ *  are equal when they wrap the same per-record listener, which is what
+ *  allows removal by the original listener.
+ */
+class RecordListenerAdapter implements
+        Consumer<Validation<RuntimeException, List<Properties>>>
+{
+
+  private final
+    Consumer<Validation<RuntimeException, Properties>> recordListener;
+
+  RecordListenerAdapter(
+          Consumer<Validation<RuntimeException, Properties>> recordListener
+  )
+  {
+    this.recordListener = recordListener;
+  }
+
+  @Override
+  public void accept(
+          Validation<RuntimeException, List<Properties>> batchValidation
+  )
+  {
+    if (batchValidation.isFail()) {
+      this.recordListener.accept(Validation.fail(batchValidation.fail()));
+      return;
+    }
+
+    for (Properties record : batchValidation.success()) {
+      this.recordListener.accept(Validation.success(record));
+    }
+  }
+
+  @Override
+  public boolean equals(Object other)
+  {
+    return other instanceof RecordListenerAdapter &&
+            this.recordListener.equals(
+                    ((RecordListenerAdapter) other).recordListener
+            );
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return this.recordListener.hashCode();
+  }
+
+}
@@ -0,0 +1,470 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.BufferOverflowException;
+
+import fj.data.Validation;
+
+
+/**
+ * Implementation of QuorumMessageProcessor with a compact binary
+ *  encoding, for deployments where bus bandwidth matters more than
+ *  human-readable messages. The String form of serialize/deserialize is
+ *  the Base64 of the bytes.
+ *
+ * Layout (version 1):
+ *   version            - 1 byte
+ *   sender, recipient  - varint symbol each (see below)
+ *   task               - varint symbol
+ *   consumerId         - varint (length + 1) then UTF-8, 0 if absent
+ *   time               - varint (epoch millis + 1), 0 if absent
+ *   params             - varint (count + 1), 0 if absent, then
+ *                        length-prefixed UTF-8 key and value per pair
+ *
+ * A symbol is 0 when absent, 1 followed by a length-prefixed UTF-8
+ *  string for unknown values, or 2 + the ordinal of the QuorumGroup or
+ *  QuorumTask. Those enums are append-only so an ordinal never changes
+ *  meaning across releases.
+ *
+ * Messages are encoded into a per-thread scratch buffer that is reused
+ *  across messages; writing to a stream or ByteBuffer copies straight
+ *  out of it, and reading from a heap ByteBuffer decodes in place.
+ *  Lazy deserialization reads the version and the three leading
+ *  symbols only. Thread-safe.
+ */
+public class BinaryQuorumMessageProcessor
+        implements QuorumMessageProcessor
+{
+
+  static final byte VERSION = 1;
+
+  // Known senders/recipients and tasks, by wire index
+  private static final String[] GROUPS = wireNames(QuorumGroup.values());
+  private static final String[] TASKS = wireNames(QuorumTask.values());
+
+  // Scratch Output per thread; larger ones are not kept
+  private static final ThreadLocal<Output> SCRATCH =
+          ThreadLocal.withInitial(() -> new Output(256));
+  private static final int MAX_RETAINED = 64 * 1024;
+
+  private static final int SYMBOL_ABSENT = 0;
+  private static final int SYMBOL_LITERAL = 1;
+  private static final int SYMBOL_KNOWN = 2;
+
+  public Validation<RuntimeException, String> serialize(
+          QuorumMessage quorumMessage
+  )
+  {
+    return this.serializeToBytes(quorumMessage)
+            .map(serialized -> Base64.getEncoder().encodeToString(serialized));
+  }
+
+  public Validation<RuntimeException, QuorumMessage> deserialize(
+          String quorumMessage
+  )
+  {
+    byte[] serialized;
+    try {
+      serialized = Base64.getDecoder().decode(quorumMessage);
+    } catch (IllegalArgumentException e) {
+      return Validation.fail(e);
+    }
+    return this.deserializeFromBytes(serialized);
+  }
+
+  public Validation<RuntimeException, byte[]> serializeToBytes(
+          QuorumMessage quorumMessage
+  )
+  {
+    return this.encode(quorumMessage).map(Output::toByteArray);
+  }
+
+  public Validation<RuntimeException, Integer> serializeTo(
+          QuorumMessage quorumMessage,
+          OutputStream outputStream
+  )
+  {
+    return this.encode(quorumMessage).bind(output -> {
+      try {
+        outputStream.write(output.buffer, 0, output.position);
+      } catch (IOException e) {
+        return Validation.fail(new UncheckedIOException(e));
+      }
+      return Validation.success(output.position);
+    });
+  }
+
+  public Validation<RuntimeException, Integer> serializeTo(
+          QuorumMessage quorumMessage,
+          ByteBuffer buffer
+  )
+  {
+    return this.encode(quorumMessage).bind(output -> {
+      if (output.position > buffer.remaining()) {
+        return Validation.fail(new BufferOverflowException());
+      }
+      buffer.put(output.buffer, 0, output.position);
+      return Validation.success(output.position);
+    });
+  }
+
+  public Validation<RuntimeException, QuorumMessage> deserializeFromBytes(
+          byte[] quorumMessage
+  )
+  {
+    if (quorumMessage == null) {
+      return Validation.fail(new IllegalArgumentException(
+              "Empty binary QuorumMessage"
+      ));
+    }
+    return this.decode(new Input(quorumMessage, 0, quorumMessage.length));
+  }
+
+  public Validation<RuntimeException, QuorumMessage> deserializeFrom(
+          ByteBuffer buffer
+  )
+  {
+    Input input;
+    if (buffer.hasArray()) {
+      int start = buffer.arrayOffset() + buffer.position();
+      input = new Input(
+              buffer.array(),
+              start,
+              start + buffer.remaining()
+      );
+    }
+    else {
+      byte[] serialized = new byte[buffer.remaining()];
+      buffer.duplicate().get(serialized);
+      input = new Input(serialized, 0, serialized.length);
+    }
+
+    buffer.position(buffer.limit());
+    return this.decode(input);
+  }
+
+  public Validation<RuntimeException, QuorumMessageRoute> deserializeLazily(
+          String quorumMessage
+  )
+  {
+    byte[] serialized;
+    try {
+      serialized = Base64.getDecoder().decode(quorumMessage);
+    } catch (IllegalArgumentException e) {
+      return Validation.fail(e);
+    }
+    return this.deserializeLazilyFromBytes(serialized);
+  }
+
+  public Validation<RuntimeException, QuorumMessageRoute>
+          deserializeLazilyFromBytes(byte[] quorumMessage)
+  {
+    if (quorumMessage == null || quorumMessage.length == 0) {
+      return Validation.fail(new IllegalArgumentException(
+              "Empty binary QuorumMessage"
+      ));
+    }
+    else if (quorumMessage[0] != VERSION) {
+      return Validation.fail(new IllegalArgumentException(
+              "Unsupported binary QuorumMessage version: " + quorumMessage[0]
+      ));
+    }
+
+    Input input = new Input(quorumMessage, 1, quorumMessage.length);
+    try {
+      return Validation.success(new QuorumMessageRoute(
+              input.readSymbol(GROUPS),
+              input.readSymbol(GROUPS),
+              input.readSymbol(TASKS),
+              () -> this.deserializeFromBytes(quorumMessage)
+      ));
+    } catch (ArrayIndexOutOfBoundsException | NegativeArraySizeException e) {
+      return Validation.fail(new IllegalArgumentException(
+              "Truncated or malformed binary QuorumMessage"
+      ));
+    }
+  }
+
+  private static String[] wireNames(QuorumGroup[] groups)
+  {
+    String[] wireNames = new String[groups.length];
+    for (int i = 0; i < groups.length; i++) {
+      wireNames[i] = groups[i].getWireName();
+    }
+    return wireNames;
+  }
+
+  private static String[] wireNames(QuorumTask[] tasks)
+  {
+    String[] wireNames = new String[tasks.length];
+    for (int i = 0; i < tasks.length; i++) {
+      wireNames[i] = tasks[i].getWireName();
+    }
+    return wireNames;
+  }
+
+  /**
+   * Encode into this thread's scratch Output, valid until the thread's
+   *  next encode
+   */
+  private Validation<RuntimeException, Output> encode(
+          QuorumMessage quorumMessage
+  )
+  {
+    if (quorumMessage == null) {
+      return Validation.fail(new IllegalArgumentException(
+              "Cannot serialize a null QuorumMessage"
+      ));
+    }
+
+    Output output = SCRATCH.get();
+    if (output.buffer.length > MAX_RETAINED) {
+      output = new Output(256);
+      SCRATCH.set(output);
+    }
+    output.position = 0;
+
+    output.writeByte(VERSION);
+    output.writeSymbol(
+            quorumMessage.getSender(),
+            quorumMessage.getSenderGroup()
+    );
+    output.writeSymbol(
+            quorumMessage.getRecipient(),
+            quorumMessage.getRecipientGroup()
+    );
+    output.writeSymbol(quorumMessage.getTask(), quorumMessage.getTaskType());
+    output.writeOptionalString(quorumMessage.getConsumerId());
+
+    long timeMillis = quorumMessage.getTimeMillis();
+    output.writeVarLong(
+            timeMillis == QuorumMessage.NO_TIME ? 0 : timeMillis + 1
+    );
+
+    QuorumMessageParams params = quorumMessage.getParamMap();
+    if (params.isEmpty()) {
+      output.writeVarLong(0);
+    }
+    else {
+      output.writeVarLong(params.size() + 1);
+      for (int i = 0; i < params.size(); i++) {
+        output.writeString(params.keyAt(i));
+        output.writeString(params.valueAt(i));
+      }
+    }
+
+    return Validation.success(output);
+  }
+
+  private Validation<RuntimeException, QuorumMessage> decode(Input input)
+  {
+    if (input.position >= input.limit) {
+      return Validation.fail(new IllegalArgumentException(
+              "Empty binary QuorumMessage"
+      ));
+    }
+
+    byte version = input.buffer[input.position++];
+    if (version != VERSION) {
+      return Validation.fail(new IllegalArgumentException(
+              "Unsupported binary QuorumMessage version: " + version
+      ));
+    }
+
+    try {
+      String sender = input.readSymbol(GROUPS);
+      String recipient = input.readSymbol(GROUPS);
+      String task = input.readSymbol(TASKS);
+      String consumerId = input.readOptionalString();
+
+      long time = input.readVarLong();
+
+      QuorumMessageParams.Builder params = new QuorumMessageParams.Builder();
+      long paramCount = input.readVarLong();
+      for (long i = 1; i < paramCount; i++) {
+        params.put(input.readString(), input.readString());
+      }
+
+      return Validation.success(new QuorumMessage(
+              sender,
+              recipient,
+              task,
+              consumerId,
+              time == 0 ? QuorumMessage.NO_TIME : time - 1,
+              params.build()
+      ));
+    } catch (ArrayIndexOutOfBoundsException | NegativeArraySizeException e) {
+      return Validation.fail(new IllegalArgumentException(
+              "Truncated or malformed binary QuorumMessage"
+      ));
+    }
+  }
+
+  /**
+   * Growable byte sink with the codec's primitive encodings
+   */
+  private static final class Output
+  {
+
+    private byte[] buffer;
+    private int position;
+
+    Output(int initialCapacity)
+    {
+      this.buffer = new byte[initialCapacity];
+      this.position = 0;
+    }
+
+    void writeByte(int value)
+    {
+      this.ensureCapacity(1);
+      this.buffer[this.position++] = (byte) value;
+    }
+
+    void writeVarLong(long value)
+    {
+      this.ensureCapacity(10);
+      while ((value & ~0x7FL) != 0) {
+        this.buffer[this.position++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      this.buffer[this.position++] = (byte) value;
+    }
+
+    void writeString(String value)
+    {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      this.writeVarLong(bytes.length);
+      this.ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+      this.position += bytes.length;
+    }
+
+    void writeOptionalString(String value)
+    {
+      if (value == null) {
+        this.writeVarLong(0);
+        return;
+      }
+
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      this.writeVarLong(bytes.length + 1);
+      this.ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+      this.position += bytes.length;
+    }
+
+    void writeSymbol(String value, Enum<?> known)
+    {
+      if (known != null) {
+        this.writeVarLong(SYMBOL_KNOWN + known.ordinal());
+      }
+      else if (value == null) {
+        this.writeVarLong(SYMBOL_ABSENT);
+      }
+      else {
+        this.writeVarLong(SYMBOL_LITERAL);
+        this.writeString(value);
+      }
+    }
+
+    byte[] toByteArray()
+    {
+      return Arrays.copyOf(this.buffer, this.position);
+    }
+
+    private void ensureCapacity(int extra)
+    {
+      if (this.position + extra > this.buffer.length) {
+        this.buffer = Arrays.copyOf(
+                this.buffer,
+                Math.max(this.buffer.length * 2, this.position + extra)
+        );
+      }
+    }
+
+  }
+
+  /**
+   * Cursor over serialized bytes, reading the codec's encodings
+   */
+  private static final class Input
+  {
+
+    private final byte[] buffer;
+    private final int limit;
+    private int position;
+
+    Input(byte[] buffer, int position, int limit)
+    {
+      this.buffer = buffer;
+      this.position = position;
+      this.limit = limit;
+    }
+
+    long readVarLong()
+    {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        if (this.position >= this.limit) {
+          throw new ArrayIndexOutOfBoundsException("Varint out of bounds");
+        }
+        byte current = this.buffer[this.position++];
+        value |= (long) (current & 0x7F) << shift;
+        if ((current & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new ArrayIndexOutOfBoundsException("Varint too long");
+    }
+
+    String readString()
+    {
+      return this.readBytesAsString((int) this.readVarLong());
+    }
+
+    String readOptionalString()
+    {
+      long length = this.readVarLong();
+      return length == 0 ? null : this.readBytesAsString((int) length - 1);
+    }
+
+    String readSymbol(String[] table)
+    {
+      long symbol = this.readVarLong();
+      if (symbol == SYMBOL_ABSENT) {
+        return null;
+      }
+      else if (symbol == SYMBOL_LITERAL) {
+        return this.readString();
+      }
+      else if (symbol - SYMBOL_KNOWN >= table.length) {
+        throw new ArrayIndexOutOfBoundsException(
+                "Unknown symbol " + symbol
+        );
+      }
+      return table[(int) (symbol - SYMBOL_KNOWN)];
+    }
+
+    private String readBytesAsString(int length)
+    {
+      if (length < 0 || length > this.limit - this.position) {
+        throw new ArrayIndexOutOfBoundsException("String out of bounds");
+      }
+
+      String value = new String(
+              this.buffer, this.position, length, StandardCharsets.UTF_8
+      );
+      this.position += length;
+      return value;
+    }
+
+  }
+
+}
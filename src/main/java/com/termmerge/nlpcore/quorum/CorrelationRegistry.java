@@ -0,0 +1,451 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.Properties;
+import java.util.function.Consumer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import com.termmerge.nlpcore.Instrumented;
+import com.termmerge.nlpcore.messagebus.MessageBusRecord;
+
+import fj.data.Validation;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.MetricRegistry;
+
+
+/**
+ * Matches responses coming back over the message bus with the requests
+ *  waiting on them. Requests are registered under their task id (the
+ *  QuorumMessage consumerId, which responses carry back) and get a
+ *  future; a response completes its request's future with one map
+ *  lookup, whatever the number of requests in flight.
+ *
+ * Requests not answered within their timeout fail. Timeouts sit on a
+ *  hashed wheel of "wheel_size" buckets, "tick_ms" apart, turned by one
+ *  timer thread: scheduling and cancelling are queue offers and expiry
+ *  only looks at the current bucket. Answered requests are unlinked
+ *  from the wheel, so at most "max_pending" requests are held at a time
+ *  and registering beyond that fails. Thread-safe.
+ */
+public class CorrelationRegistry implements Instrumented
+{
+
+  // Requests waiting for a response, by task id
+  private final ConcurrentHashMap<String, Pending> pending;
+  private final AtomicInteger pendingCount;
+  private final int maxPending;
+  private final long defaultTimeoutMs;
+
+  // Requests to put on the wheel, and answered ones to take off it
+  private final Queue<Pending> scheduled;
+  private final Queue<Pending> answered;
+
+  // Wheel of timeout buckets, only touched by the timer thread
+  private final Bucket[] wheel;
+  private final long tickNanos;
+  private final long startNanos;
+  private long tick;
+
+  private volatile boolean isRunning;
+  private Thread timerThread;
+
+  // Runtime metrics of this registry
+  private final MetricRegistry metricRegistry;
+  private final Meter matched;
+  private final Meter unmatched;
+  private final Meter expired;
+  private final Meter rejected;
+  private final Timer responseTimer;
+
+  private CorrelationRegistry(
+          int maxPending,
+          long defaultTimeoutMs,
+          long tickMs,
+          int wheelSize
+  )
+  {
+    this.pending = new ConcurrentHashMap<>();
+    this.pendingCount = new AtomicInteger(0);
+    this.maxPending = maxPending;
+    this.defaultTimeoutMs = defaultTimeoutMs;
+    this.scheduled = new ConcurrentLinkedQueue<>();
+    this.answered = new ConcurrentLinkedQueue<>();
+
+    this.wheel = new Bucket[wheelSize];
+    for (int i = 0; i < wheelSize; i++) {
+      this.wheel[i] = new Bucket();
+    }
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+    this.startNanos = System.nanoTime();
+    this.tick = 0;
+    this.isRunning = false;
+
+    this.metricRegistry = new MetricRegistry();
+    this.matched = this.metricRegistry.meter("responses.matched");
+    this.unmatched = this.metricRegistry.meter("responses.unmatched");
+    this.expired = this.metricRegistry.meter("requests.expired");
+    this.rejected = this.metricRegistry.meter("requests.rejected");
+    this.responseTimer = this.metricRegistry.timer("response.latency");
+    this.metricRegistry.register(
+            "requests.pending",
+            (Gauge<Integer>) this.pendingCount::get
+    );
+  }
+
+  /**
+   * Create a registry
+   * @param settings - optional "max_pending", "default_timeout_ms",
+   *  "tick_ms" and "wheel_size" (a power of two)
+   * @return Validation of the (not yet started) registry
+   */
+  public static Validation<RuntimeException, CorrelationRegistry>
+          fromProperties(Properties settings)
+  {
+    int maxPending, wheelSize;
+    long defaultTimeoutMs, tickMs;
+    try {
+      maxPending = Integer.parseInt(
+              settings.getProperty("max_pending", "500000")
+      );
+      defaultTimeoutMs = Long.parseLong(
+              settings.getProperty("default_timeout_ms", "30000")
+      );
+      tickMs = Long.parseLong(settings.getProperty("tick_ms", "10"));
+      wheelSize = Integer.parseInt(
+              settings.getProperty("wheel_size", "1024")
+      );
+    } catch (NumberFormatException e) {
+      return Validation.fail(new IllegalArgumentException(
+              "max_pending, default_timeout_ms, tick_ms and wheel_size " +
+                      "must be integers"
+      ));
+    }
+    if (maxPending < 1 || defaultTimeoutMs < 1 || tickMs < 1 ||
+            wheelSize < 1 || Integer.bitCount(wheelSize) != 1) {
+      return Validation.fail(new IllegalArgumentException(
+              "max_pending, default_timeout_ms and tick_ms must be " +
+                      "positive, wheel_size a power of two"
+      ));
+    }
+
+    return Validation.success(new CorrelationRegistry(
+            maxPending, defaultTimeoutMs, tickMs, wheelSize
+    ));
+  }
+
+  public synchronized Validation<RuntimeException, Boolean> start()
+  {
+    if (this.timerThread != null) {
+      return Validation.fail(new IllegalStateException(
+              "Correlation registry already started!"
+      ));
+    }
+
+    this.isRunning = true;
+    this.timerThread = new Thread(this::turnWheel, "correlation-timer");
+    this.timerThread.setDaemon(true);
+    this.timerThread.start();
+    return Validation.success(true);
+  }
+
+  /**
+   * Wait for the response to a request, for "default_timeout_ms"
+   * @see #register(String, long)
+   */
+  public Validation<
+          RuntimeException,
+          CompletableFuture<Validation<RuntimeException, QuorumMessage>>
+          > register(String taskId)
+  {
+    return this.register(taskId, this.defaultTimeoutMs);
+  }
+
+  /**
+   * Wait for the response to a request. Register before sending the
+   *  request, so a quick response cannot arrive unmatched
+   * @param taskId - consumerId of the request
+   * @param timeoutMs - how long to wait for the response
+   * @return Validation of a future completing with the response, or a
+   *  failure once timed out
+   */
+  public Validation<
+          RuntimeException,
+          CompletableFuture<Validation<RuntimeException, QuorumMessage>>
+          > register(String taskId, long timeoutMs)
+  {
+    if (!this.isRunning) {
+      return Validation.fail(new IllegalStateException(
+              "Correlation registry is not running"
+      ));
+    }
+    else if (taskId == null || timeoutMs < 1) {
+      return Validation.fail(new IllegalArgumentException(
+              "Requests need a task id and a positive timeout"
+      ));
+    }
+
+    if (this.pendingCount.incrementAndGet() > this.maxPending) {
+      this.pendingCount.decrementAndGet();
+      this.rejected.mark();
+      return Validation.fail(new IllegalStateException(
+              "Too many requests waiting for a response"
+      ));
+    }
+
+    long now = System.nanoTime();
+    Pending request = new Pending(
+            taskId, now, now + TimeUnit.MILLISECONDS.toNanos(timeoutMs)
+    );
+    if (this.pending.putIfAbsent(taskId, request) != null) {
+      this.pendingCount.decrementAndGet();
+      return Validation.fail(new IllegalArgumentException(
+              "Already waiting for a response to task " + taskId
+      ));
+    }
+
+    this.scheduled.offer(request);
+    if (!this.isRunning) {
+      // Closed meanwhile, after failing what was waiting
+      this.fail(request, "Correlation registry closed");
+    }
+    return Validation.success(request.response);
+  }
+
+  /**
+   * Complete the request a response belongs to
+   * @param response - response carrying the request's consumerId
+   * @return whether a request was waiting for it
+   */
+  public boolean complete(QuorumMessage response)
+  {
+    String taskId = response.getConsumerId();
+    Pending request = taskId == null ? null : this.pending.remove(taskId);
+    if (request == null) {
+      this.unmatched.mark();
+      return false;
+    }
+
+    this.pendingCount.decrementAndGet();
+    this.responseTimer.update(
+            System.nanoTime() - request.registeredAt,
+            TimeUnit.NANOSECONDS
+    );
+    this.matched.mark();
+    request.response.complete(Validation.success(response));
+    this.answered.offer(request);
+    return true;
+  }
+
+  /**
+   * Listener to add to a MessageBusConsumer (addRecordListener), that
+   *  decodes every record as a QuorumMessage and completes its request
+   * @param processor - codec of the records' values
+   * @return record listener
+   */
+  public Consumer<Validation<RuntimeException, List<MessageBusRecord>>>
+          recordListener(QuorumMessageProcessor processor)
+  {
+    return records -> {
+      if (records.isFail()) {
+        return;
+      }
+
+      for (MessageBusRecord record : records.success()) {
+        if (record.getValueBytes() == null) {
+          continue;
+        }
+
+        Validation<RuntimeException, QuorumMessage> response =
+                processor.deserializeFromBytes(record.getValueBytes());
+        if (response.isSuccess()) {
+          this.complete(response.success());
+        }
+        else {
+          this.unmatched.mark();
+        }
+      }
+    };
+  }
+
+  /**
+   * Stop the timer, failing every request still waiting
+   * @return Validation of whether the timer stopped within timeoutMs
+   */
+  public Validation<RuntimeException, Boolean> close(long timeoutMs)
+  {
+    Thread currentTimer;
+    synchronized (this) {
+      currentTimer = this.timerThread;
+    }
+    if (currentTimer == null) {
+      return Validation.fail(new IllegalStateException(
+              "Correlation registry hasn't been started!"
+      ));
+    }
+
+    this.isRunning = false;
+    LockSupport.unpark(currentTimer);
+    try {
+      currentTimer.join(timeoutMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Validation.fail(new IllegalStateException(
+              "Interrupted while stopping the correlation timer"
+      ));
+    }
+
+    for (Pending request : this.pending.values()) {
+      this.fail(request, "Correlation registry closed");
+    }
+    return currentTimer.isAlive() ?
+            Validation.fail(new IllegalStateException(
+                    "Correlation timer did not stop in time"
+            )) :
+            Validation.success(true);
+  }
+
+  public MetricRegistry getMetricRegistry()
+  {
+    return this.metricRegistry;
+  }
+
+  private void fail(Pending request, String reason)
+  {
+    if (this.pending.remove(request.taskId, request)) {
+      this.pendingCount.decrementAndGet();
+      request.response.complete(Validation.fail(
+              new IllegalStateException(reason + ": task " + request.taskId)
+      ));
+    }
+  }
+
+  private void turnWheel()
+  {
+    int mask = this.wheel.length - 1;
+
+    while (this.isRunning) {
+      long nextTick = this.startNanos + (this.tick + 1) * this.tickNanos;
+      long now = System.nanoTime();
+      if (now < nextTick) {
+        LockSupport.parkNanos(nextTick - now);
+        continue;
+      }
+
+      Pending request;
+      while ((request = this.scheduled.poll()) != null) {
+        if (request.response.isDone()) {
+          continue;
+        }
+
+        long deadlineTick = Math.max(
+                this.tick,
+                (request.deadline - this.startNanos + this.tickNanos - 1) /
+                        this.tickNanos
+        );
+        request.rounds = (deadlineTick - this.tick) / this.wheel.length;
+        this.wheel[(int) (deadlineTick & mask)].add(request);
+      }
+      while ((request = this.answered.poll()) != null) {
+        if (request.bucket != null) {
+          request.bucket.remove(request);
+        }
+      }
+
+      Bucket bucket = this.wheel[(int) (this.tick & mask)];
+      request = bucket.head;
+      while (request != null) {
+        Pending next = request.next;
+        if (request.rounds > 0) {
+          request.rounds--;
+        }
+        else {
+          bucket.remove(request);
+          this.expired.mark();
+          this.fail(request, "Timed out waiting for a response");
+        }
+        request = next;
+      }
+      this.tick++;
+    }
+  }
+
+  /**
+   * Request waiting for a response. The wheel links are only ever
+   *  touched by the timer thread
+   */
+  private static final class Pending
+  {
+
+    private final String taskId;
+    private final long registeredAt;
+    private final long deadline;
+    private final CompletableFuture<Validation<RuntimeException, QuorumMessage>>
+            response;
+
+    private long rounds;
+    private Bucket bucket;
+    private Pending previous;
+    private Pending next;
+
+    Pending(String taskId, long registeredAt, long deadline)
+    {
+      this.taskId = taskId;
+      this.registeredAt = registeredAt;
+      this.deadline = deadline;
+      this.response = new CompletableFuture<>();
+    }
+
+  }
+
+  /**
+   * Doubly linked list of the requests timing out on one wheel slot
+   */
+  private static final class Bucket
+  {
+
+    private Pending head;
+    private Pending tail;
+
+    void add(Pending request)
+    {
+      request.bucket = this;
+      request.previous = this.tail;
+      request.next = null;
+      if (this.tail == null) {
+        this.head = request;
+      }
+      else {
+        this.tail.next = request;
+      }
+      this.tail = request;
+    }
+
+    void remove(Pending request)
+    {
+      if (request.previous == null) {
+        this.head = request.next;
+      }
+      else {
+        request.previous.next = request.next;
+      }
+      if (request.next == null) {
+        this.tail = request.previous;
+      }
+      else {
+        request.next.previous = request.previous;
+      }
+      request.bucket = null;
+      request.previous = null;
+      request.next = null;
+    }
+
+  }
+
+}
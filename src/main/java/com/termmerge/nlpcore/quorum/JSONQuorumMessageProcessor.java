@@ -1,78 +1,495 @@
 package com.termmerge.nlpcore.quorum;
 
-import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.io.Reader;
+import java.io.Writer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.CharArrayReader;
 
-import java.util.Date;
+import java.util.Arrays;
+import java.util.function.Supplier;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.CodingErrorAction;
+import java.nio.BufferOverflowException;
 
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonDeserializationContext;
-
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import fj.data.Validation;
 
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
 
 /**
  * Implementation of QuorumMessageProcessor, where serialization
  *  and deserialization is concerned with JSON as a network transport
- *  protocol
+ *  protocol. Messages are streamed through QuorumMessageTypeAdapter,
+ *  so no reflection or intermediate JSON tree is involved. Thread-safe.
+ *
+ * The byte-oriented methods encode straight between JSON text kept in
+ *  per-thread scratch space and UTF-8 wire bytes, without a String in
+ *  between.
+ *
+ * Lazy deserialization stops reading once sender, recipient and task
+ *  were seen, decoding bytes to chars only as far as the reader got.
  */
 public class JSONQuorumMessageProcessor
         implements QuorumMessageProcessor
 {
 
-  private Gson gson;
+  private QuorumMessageTypeAdapter typeAdapter;
+
+  // Per-thread scratch space of the byte-oriented methods
+  private ThreadLocal<Scratch> scratch;
 
   public JSONQuorumMessageProcessor()
   {
-    JsonDeserializer jsonDeserializer = new JsonDeserializer<Date>()
-    {
-      @Override
-      public Date deserialize(
-              JsonElement jsonElement,
-              Type type,
-              JsonDeserializationContext jsonDeserializationContext
-      )
-      {
-        return new Date(jsonElement.getAsJsonPrimitive().getAsLong());
-      }
-    };
-
-    this.gson = (new GsonBuilder()).registerTypeAdapter(
-            Date.class,
-            jsonDeserializer
-    ).create();
+    this.typeAdapter = new QuorumMessageTypeAdapter();
+    this.scratch = ThreadLocal.withInitial(Scratch::new);
   }
 
   public Validation<RuntimeException, String> serialize(
           QuorumMessage quorumMessage
   )
   {
-    String serialized;
+    StringWriter serialized = new StringWriter();
     try {
-      serialized = this.gson.toJson(quorumMessage);
-    } catch (JsonSyntaxException e) {
-      return Validation.fail(e);
+      this.typeAdapter.write(new JsonWriter(serialized), quorumMessage);
+    } catch (IOException e) {
+      return Validation.fail(new JsonIOException(e));
     }
 
-    return Validation.success(serialized);
+    return Validation.success(serialized.toString());
   }
 
   public Validation<RuntimeException, QuorumMessage> deserialize(
           String serialized
   )
   {
-    QuorumMessage deserialized;
+    return this.read(new JsonReader(new StringReader(serialized)));
+  }
+
+  public Validation<RuntimeException, byte[]> serializeToBytes(
+          QuorumMessage quorumMessage
+  )
+  {
+    Scratch scratch = this.scratch.get();
     try {
-      deserialized = this.gson.fromJson(
-              serialized, QuorumMessage.class
+      ByteBuffer encoded = scratch.encode(this.typeAdapter, quorumMessage);
+      return Validation.success(
+              Arrays.copyOf(encoded.array(), encoded.limit())
       );
+    } catch (IOException e) {
+      return Validation.fail(new JsonIOException(e));
+    } finally {
+      scratch.trim();
+    }
+  }
+
+  public Validation<RuntimeException, Integer> serializeTo(
+          QuorumMessage quorumMessage,
+          OutputStream outputStream
+  )
+  {
+    Scratch scratch = this.scratch.get();
+    try {
+      ByteBuffer encoded = scratch.encode(this.typeAdapter, quorumMessage);
+      outputStream.write(encoded.array(), 0, encoded.limit());
+      return Validation.success(encoded.limit());
+    } catch (IOException e) {
+      return Validation.fail(new JsonIOException(e));
+    } finally {
+      scratch.trim();
+    }
+  }
+
+  public Validation<RuntimeException, Integer> serializeTo(
+          QuorumMessage quorumMessage,
+          ByteBuffer buffer
+  )
+  {
+    Scratch scratch = this.scratch.get();
+    int start = buffer.position();
+    try {
+      CharBuffer json = scratch.write(this.typeAdapter, quorumMessage);
+      CharsetEncoder encoder = scratch.encoder.reset();
+      if (encoder.encode(json, buffer, true).isOverflow() ||
+              encoder.flush(buffer).isOverflow()) {
+        buffer.position(start);
+        return Validation.fail(new BufferOverflowException());
+      }
+      return Validation.success(buffer.position() - start);
+    } catch (IOException e) {
+      return Validation.fail(new JsonIOException(e));
+    } finally {
+      scratch.trim();
+    }
+  }
+
+  public Validation<RuntimeException, QuorumMessage> deserializeFromBytes(
+          byte[] serialized
+  )
+  {
+    return this.deserializeFrom(ByteBuffer.wrap(serialized));
+  }
+
+  public Validation<RuntimeException, QuorumMessage> deserializeFrom(
+          ByteBuffer buffer
+  )
+  {
+    Scratch scratch = this.scratch.get();
+    try {
+      CharBuffer json = scratch.decode(buffer);
+      return this.read(new JsonReader(new CharArrayReader(
+              json.array(), 0, json.limit()
+      )));
+    } finally {
+      scratch.trim();
+    }
+  }
+
+  public Validation<RuntimeException, QuorumMessageRoute> deserializeLazily(
+          String serialized
+  )
+  {
+    return this.readRoute(
+            new JsonReader(new StringReader(serialized)),
+            () -> this.deserialize(serialized)
+    );
+  }
+
+  public Validation<RuntimeException, QuorumMessageRoute>
+          deserializeLazilyFromBytes(byte[] serialized)
+  {
+    return this.readRoute(
+            new JsonReader(new Utf8Reader(serialized)),
+            () -> this.deserializeFromBytes(serialized)
+    );
+  }
+
+  private Validation<RuntimeException, QuorumMessageRoute> readRoute(
+          JsonReader jsonReader,
+          Supplier<Validation<RuntimeException, QuorumMessage>> decoder
+  )
+  {
+    QuorumMessageRoute route;
+    try {
+      jsonReader.setLenient(true);
+      route = this.typeAdapter.readRoute(jsonReader, decoder);
+    } catch (IOException | IllegalStateException | NumberFormatException e) {
+      return Validation.fail(new JsonSyntaxException(e));
+    }
+    return Validation.success(route);
+  }
+
+  private Validation<RuntimeException, QuorumMessage> read(
+          JsonReader jsonReader
+  )
+  {
+    QuorumMessage deserialized;
+    try {
+      jsonReader.setLenient(true);
+      deserialized = this.typeAdapter.read(jsonReader);
+    } catch (IOException | IllegalStateException | NumberFormatException e) {
+      return Validation.fail(new JsonSyntaxException(e));
     } catch (JsonSyntaxException e) {
       return Validation.fail(e);
     }
     return Validation.success(deserialized);
   }
 
+  /**
+   * Buffers and UTF-8 coders reused by one thread across messages
+   */
+  private static final class Scratch
+  {
+
+    // Scratch space beyond this many chars/bytes is not kept
+    private static final int MAX_RETAINED = 64 * 1024;
+
+    private final CharsetEncoder encoder;
+    private final CharsetDecoder decoder;
+
+    // JSON text of the message being written
+    private final CharArrayWriter chars;
+
+    // Decoded JSON text of the message being read
+    private CharBuffer decoded;
+
+    // Encoded bytes of the message being written
+    private ByteBuffer encoded;
+
+    Scratch()
+    {
+      this.encoder = StandardCharsets.UTF_8.newEncoder()
+              .onMalformedInput(CodingErrorAction.REPLACE)
+              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      this.decoder = StandardCharsets.UTF_8.newDecoder()
+              .onMalformedInput(CodingErrorAction.REPLACE)
+              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      this.chars = new CharArrayWriter(256);
+      this.decoded = CharBuffer.allocate(256);
+      this.encoded = ByteBuffer.allocate(256);
+    }
+
+    CharBuffer write(
+            TypeAdapter<QuorumMessage> typeAdapter,
+            QuorumMessage quorumMessage
+    ) throws IOException
+    {
+      this.chars.reset();
+      typeAdapter.write(new JsonWriter(this.chars), quorumMessage);
+      return this.chars.asCharBuffer();
+    }
+
+    ByteBuffer encode(
+            TypeAdapter<QuorumMessage> typeAdapter,
+            QuorumMessage quorumMessage
+    ) throws IOException
+    {
+      CharBuffer json = this.write(typeAdapter, quorumMessage);
+
+      // UTF-8 takes at most 3 bytes per UTF-16 char
+      if (this.encoded.capacity() < json.remaining() * 3) {
+        this.encoded = ByteBuffer.allocate(json.remaining() * 3);
+      }
+      this.encoded.clear();
+      this.encoder.reset();
+      this.encoder.encode(json, this.encoded, true);
+      this.encoder.flush(this.encoded);
+      this.encoded.flip();
+      return this.encoded;
+    }
+
+    CharBuffer decode(ByteBuffer buffer)
+    {
+      // UTF-8 decodes to at most one UTF-16 char per byte
+      if (this.decoded.capacity() < buffer.remaining()) {
+        this.decoded = CharBuffer.allocate(buffer.remaining());
+      }
+      this.decoded.clear();
+      this.decoder.reset();
+      CoderResult result = this.decoder.decode(buffer, this.decoded, true);
+      if (!result.isOverflow()) {
+        this.decoder.flush(this.decoded);
+      }
+      this.decoded.flip();
+      return this.decoded;
+    }
+
+    void trim()
+    {
+      this.chars.trim(MAX_RETAINED);
+      if (this.decoded.capacity() > MAX_RETAINED) {
+        this.decoded = CharBuffer.allocate(256);
+      }
+      if (this.encoded.capacity() > MAX_RETAINED) {
+        this.encoded = ByteBuffer.allocate(256);
+      }
+    }
+
+  }
+
+  /**
+   * Writer into a reusable char array, readable without copying
+   */
+  private static final class CharArrayWriter extends Writer
+  {
+
+    private char[] buffer;
+    private int count;
+
+    CharArrayWriter(int initialCapacity)
+    {
+      this.buffer = new char[initialCapacity];
+      this.count = 0;
+    }
+
+    @Override
+    public void write(int c)
+    {
+      this.ensureCapacity(1);
+      this.buffer[this.count++] = (char) c;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length)
+    {
+      this.ensureCapacity(length);
+      System.arraycopy(chars, offset, this.buffer, this.count, length);
+      this.count += length;
+    }
+
+    @Override
+    public void write(String string, int offset, int length)
+    {
+      this.ensureCapacity(length);
+      string.getChars(offset, offset + length, this.buffer, this.count);
+      this.count += length;
+    }
+
+    @Override
+    public void flush()
+    {
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    void reset()
+    {
+      this.count = 0;
+    }
+
+    CharBuffer asCharBuffer()
+    {
+      return CharBuffer.wrap(this.buffer, 0, this.count);
+    }
+
+    void trim(int maxRetained)
+    {
+      if (this.buffer.length > maxRetained) {
+        this.buffer = new char[256];
+        this.count = 0;
+      }
+    }
+
+    private void ensureCapacity(int extra)
+    {
+      if (this.count + extra > this.buffer.length) {
+        this.buffer = Arrays.copyOf(
+                this.buffer,
+                Math.max(this.buffer.length * 2, this.count + extra)
+        );
+      }
+    }
+
+  }
+
+  /**
+   * Reader decoding UTF-8 bytes as they are read, so a reader that stops
+   *  early never decodes (or copies) the rest. Malformed input reads as
+   *  U+FFFD, like the coders of the other methods
+   */
+  private static final class Utf8Reader extends Reader
+  {
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final byte[] bytes;
+    private int position;
+
+    // Second half of a surrogate pair that did not fit the last read
+    private int pendingLowSurrogate;
+
+    Utf8Reader(byte[] bytes)
+    {
+      this.bytes = bytes;
+      this.position = 0;
+      this.pendingLowSurrogate = -1;
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length)
+    {
+      int count = 0;
+      if (length > 0 && this.pendingLowSurrogate >= 0) {
+        chars[offset + count++] = (char) this.pendingLowSurrogate;
+        this.pendingLowSurrogate = -1;
+      }
+
+      while (count < length && this.position < this.bytes.length) {
+        int lead = this.bytes[this.position] & 0xFF;
+        if (lead < 0x80) {
+          chars[offset + count++] = (char) lead;
+          this.position++;
+          continue;
+        }
+
+        int codePoint = this.decodeSequence(lead);
+        if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+          chars[offset + count++] = (char) codePoint;
+        }
+        else {
+          chars[offset + count++] = Character.highSurrogate(codePoint);
+          if (count < length) {
+            chars[offset + count++] = Character.lowSurrogate(codePoint);
+          }
+          else {
+            this.pendingLowSurrogate = Character.lowSurrogate(codePoint);
+          }
+        }
+      }
+
+      return count == 0 && length > 0 ? -1 : count;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    /**
+     * Decode the multi-byte sequence at the current position, moving
+     *  past it (or past its lead byte only, if malformed)
+     */
+    private int decodeSequence(int lead)
+    {
+      int continuations;
+      int codePoint;
+      int minimum;
+      if (lead >= 0xC2 && lead < 0xE0) {
+        continuations = 1;
+        codePoint = lead & 0x1F;
+        minimum = 0x80;
+      }
+      else if (lead >= 0xE0 && lead < 0xF0) {
+        continuations = 2;
+        codePoint = lead & 0x0F;
+        minimum = 0x800;
+      }
+      else if (lead >= 0xF0 && lead < 0xF5) {
+        continuations = 3;
+        codePoint = lead & 0x07;
+        minimum = Character.MIN_SUPPLEMENTARY_CODE_POINT;
+      }
+      else {
+        this.position++;
+        return REPLACEMENT;
+      }
+
+      if (this.position + continuations >= this.bytes.length) {
+        this.position++;
+        return REPLACEMENT;
+      }
+      for (int i = 1; i <= continuations; i++) {
+        int continuation = this.bytes[this.position + i] & 0xFF;
+        if ((continuation & 0xC0) != 0x80) {
+          this.position++;
+          return REPLACEMENT;
+        }
+        codePoint = (codePoint << 6) | (continuation & 0x3F);
+      }
+
+      if (codePoint < minimum || codePoint > Character.MAX_CODE_POINT ||
+              (codePoint >= Character.MIN_SURROGATE &&
+                      codePoint <= Character.MAX_SURROGATE)) {
+        this.position++;
+        return REPLACEMENT;
+      }
+      this.position += continuations + 1;
+      return codePoint;
+    }
+
+  }
+
 }
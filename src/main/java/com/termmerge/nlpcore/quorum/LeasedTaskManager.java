@@ -0,0 +1,500 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.util.UUID;
+import java.util.List;
+import java.util.Queue;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.stream.Stream;
+import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import com.termmerge.nlpcore.Instrumented;
+import com.termmerge.nlpcore.datastore.DataStore;
+import com.termmerge.nlpcore.datastore.QueryParameters;
+
+import fj.data.Validation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.MetricRegistry;
+
+
+/**
+ * TaskManager backed by the task table, for when every task id must be
+ *  on record. Instead of a create_task_for_consumer round trip per id,
+ *  ids are reserved "lease_size" at a time by reserve_tasks (see
+ *  db/reserve_tasks.sql) and handed out from memory, so generateId is a
+ *  lock-free queue poll.
+ *
+ * A background thread reserves the next lease once fewer than
+ *  "low_watermark" ids are left, and marks destroyed ids with
+ *  release_tasks in batches. On close, ids that were leased but never
+ *  handed out are released as well. Only that thread uses the DataStore.
+ *  generateIdAsync never parks: callers finding the lease empty get an
+ *  id once that thread has reserved the next one. Thread-safe.
+ */
+public class LeasedTaskManager implements TaskManager, Instrumented
+{
+
+  // Longest wait before retrying a failed reservation or release
+  private static final long MAX_RETRY_BACKOFF_MS = 5000;
+
+  private final DataStore<Object[], String, ?> dataStore;
+
+  // Fixed reserve_tasks arguments; the consumer id may be null
+  private final String description;
+  private final UUID consumerId;
+
+  private final int leaseSize;
+  private final int lowWatermark;
+  private final long leaseWaitMs;
+  private final long releaseIntervalMs;
+
+  // Leased ids not handed out yet, and how many
+  private final Queue<String> available;
+  private final AtomicInteger availableCount;
+
+  // Destroyed ids waiting to be released
+  private final Queue<String> destroyed;
+
+  // generateIdAsync calls waiting for the next lease
+  private final Queue<CompletableFuture<Validation<RuntimeException, String>>>
+          waiting;
+
+  private volatile boolean isLeasing;
+  private Thread leaseThread;
+
+  // Runtime metrics of this task manager
+  private final MetricRegistry metricRegistry;
+  private final Meter idsReserved;
+  private final Meter idsReleased;
+  private final Meter leaseExhausted;
+  private final Timer leaseTimer;
+
+  // Application Logger
+  private Logger logger;
+
+  private LeasedTaskManager(
+          DataStore<Object[], String, ?> dataStore,
+          String description,
+          UUID consumerId,
+          int leaseSize,
+          int lowWatermark,
+          long leaseWaitMs,
+          long releaseIntervalMs
+  )
+  {
+    this.dataStore = dataStore;
+    this.description = description;
+    this.consumerId = consumerId;
+    this.leaseSize = leaseSize;
+    this.lowWatermark = lowWatermark;
+    this.leaseWaitMs = leaseWaitMs;
+    this.releaseIntervalMs = releaseIntervalMs;
+    this.available = new ConcurrentLinkedQueue<>();
+    this.availableCount = new AtomicInteger(0);
+    this.destroyed = new ConcurrentLinkedQueue<>();
+    this.waiting = new ConcurrentLinkedQueue<>();
+    this.isLeasing = false;
+
+    this.metricRegistry = new MetricRegistry();
+    this.idsReserved = this.metricRegistry.meter("ids.reserved");
+    this.idsReleased = this.metricRegistry.meter("ids.released");
+    this.leaseExhausted = this.metricRegistry.meter("lease.exhausted");
+    this.leaseTimer = this.metricRegistry.timer("lease.latency");
+    this.metricRegistry.register(
+            "ids.available",
+            (Gauge<Integer>) this.availableCount::get
+    );
+    this.logger = LoggerFactory.getLogger(LeasedTaskManager.class);
+  }
+
+  /**
+   * Create a task manager on a connected DataStore
+   * @param dataStore - connected datastore holding the task table
+   * @param settings - optional "task_description", "consumer_id",
+   *  "lease_size", "low_watermark", "lease_wait_ms" and
+   *  "release_interval_ms"
+   * @return Validation of the (not yet started) task manager
+   */
+  public static Validation<RuntimeException, LeasedTaskManager>
+          fromProperties(
+                  DataStore<Object[], String, ?> dataStore,
+                  Properties settings
+          )
+  {
+    int leaseSize, lowWatermark;
+    long leaseWaitMs, releaseIntervalMs;
+    try {
+      leaseSize = Integer.parseInt(
+              settings.getProperty("lease_size", "1000")
+      );
+      lowWatermark = Integer.parseInt(settings.getProperty(
+              "low_watermark", String.valueOf(leaseSize / 4)
+      ));
+      leaseWaitMs = Long.parseLong(
+              settings.getProperty("lease_wait_ms", "1000")
+      );
+      releaseIntervalMs = Long.parseLong(
+              settings.getProperty("release_interval_ms", "50")
+      );
+    } catch (NumberFormatException e) {
+      return Validation.fail(new IllegalArgumentException(
+              "lease_size, low_watermark, lease_wait_ms and " +
+                      "release_interval_ms must be integers"
+      ));
+    }
+    if (leaseSize < 1 || lowWatermark < 0 || lowWatermark >= leaseSize ||
+            leaseWaitMs < 0 || releaseIntervalMs < 1) {
+      return Validation.fail(new IllegalArgumentException(
+              "lease_size must be positive and above low_watermark"
+      ));
+    }
+
+    UUID consumerId = null;
+    if (settings.containsKey("consumer_id")) {
+      try {
+        consumerId = UUID.fromString(settings.getProperty("consumer_id"));
+      } catch (IllegalArgumentException e) {
+        return Validation.fail(new IllegalArgumentException(
+                "consumer_id must be a UUID"
+        ));
+      }
+    }
+
+    return Validation.success(new LeasedTaskManager(
+            dataStore,
+            settings.getProperty("task_description", "quorum_task"),
+            consumerId,
+            leaseSize,
+            lowWatermark,
+            leaseWaitMs,
+            releaseIntervalMs
+    ));
+  }
+
+  /**
+   * Reserve the first lease, then keep leasing in the background
+   * @return Validation of whether the first lease was reserved
+   */
+  public synchronized Validation<RuntimeException, Boolean> start()
+  {
+    if (this.leaseThread != null) {
+      return Validation.fail(new IllegalStateException(
+              "Task manager already started!"
+      ));
+    }
+
+    Validation<RuntimeException, Integer> firstLease = this.reserve();
+    if (firstLease.isFail()) {
+      return Validation.fail(firstLease.fail());
+    }
+
+    this.isLeasing = true;
+    this.leaseThread = new Thread(this::lease, "task-id-lease");
+    this.leaseThread.setDaemon(true);
+    this.leaseThread.start();
+    return Validation.success(true);
+  }
+
+  /**
+   * Hands out a leased id, waiting up to "lease_wait_ms" for the next
+   *  lease if the current one ran dry
+   */
+  public Validation<RuntimeException, String> generateId()
+  {
+    if (!this.isLeasing) {
+      return Validation.fail(new IllegalStateException(
+              "Task manager is not running"
+      ));
+    }
+
+    String taskId = this.take();
+    if (taskId == null) {
+      this.leaseExhausted.mark();
+      long deadline = System.nanoTime() +
+              TimeUnit.MILLISECONDS.toNanos(this.leaseWaitMs);
+      while (taskId == null && System.nanoTime() < deadline &&
+              this.isLeasing) {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        taskId = this.take();
+      }
+    }
+
+    if (taskId == null) {
+      return Validation.fail(new IllegalStateException(
+              "No leased task ids left"
+      ));
+    }
+    return Validation.success(taskId);
+  }
+
+  /**
+   * Hands out a leased id, or one from the next lease if the current
+   *  one ran dry
+   */
+  public CompletionStage<Validation<RuntimeException, String>>
+          generateIdAsync()
+  {
+    String taskId = this.isLeasing ? this.take() : null;
+    if (taskId != null) {
+      return CompletableFuture.completedFuture(Validation.success(taskId));
+    }
+    else if (!this.isLeasing) {
+      return CompletableFuture.completedFuture(Validation.fail(
+              new IllegalStateException("Task manager is not running")
+      ));
+    }
+
+    CompletableFuture<Validation<RuntimeException, String>> generated =
+            new CompletableFuture<>();
+    this.waiting.offer(generated);
+    if (!this.isLeasing && this.waiting.remove(generated)) {
+      // Closed meanwhile; the lease thread may have finished already
+      generated.complete(Validation.fail(
+              new IllegalStateException("Task manager is not running")
+      ));
+      return generated;
+    }
+    this.leaseExhausted.mark();
+    Thread currentLeaser = this.leaseThread;
+    if (currentLeaser != null) {
+      LockSupport.unpark(currentLeaser);
+    }
+    return generated;
+  }
+
+  public Validation<RuntimeException, String> destroyId(String taskId)
+  {
+    // A malformed id would fail the whole batch it is released with
+    Validation<RuntimeException, UUID> parsedId = TaskIds.parse(taskId);
+    if (parsedId.isFail()) {
+      return Validation.fail(parsedId.fail());
+    }
+
+    this.destroyed.offer(taskId);
+    return Validation.success(taskId);
+  }
+
+  /**
+   * Stop leasing, releasing destroyed ids and every id not handed out,
+   *  waiting at most timeoutMs
+   * @return Validation of whether every id got released
+   */
+  public Validation<RuntimeException, Boolean> close(long timeoutMs)
+  {
+    Thread currentLeaser;
+    synchronized (this) {
+      currentLeaser = this.leaseThread;
+    }
+    if (currentLeaser == null) {
+      return Validation.fail(new IllegalStateException(
+              "Task manager hasn't been started!"
+      ));
+    }
+
+    this.isLeasing = false;
+    LockSupport.unpark(currentLeaser);
+    try {
+      currentLeaser.join(timeoutMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Validation.fail(new IllegalStateException(
+              "Interrupted while releasing task ids"
+      ));
+    }
+
+    if (currentLeaser.isAlive() || !this.destroyed.isEmpty()) {
+      return Validation.fail(new IllegalStateException(
+              "Not every task id could be released"
+      ));
+    }
+    return Validation.success(true);
+  }
+
+  public MetricRegistry getMetricRegistry()
+  {
+    return this.metricRegistry;
+  }
+
+  private String take()
+  {
+    String taskId = this.available.poll();
+    if (taskId != null &&
+            this.availableCount.decrementAndGet() == this.lowWatermark) {
+      Thread currentLeaser = this.leaseThread;
+      if (currentLeaser != null) {
+        LockSupport.unpark(currentLeaser);
+      }
+    }
+    return taskId;
+  }
+
+  private void lease()
+  {
+    long retryBackoffMs = this.releaseIntervalMs;
+
+    while (this.isLeasing) {
+      boolean succeeded = true;
+      if (this.availableCount.get() <= this.lowWatermark) {
+        Validation<RuntimeException, Integer> reserved = this.reserve();
+        succeeded = reserved.isSuccess();
+        if (reserved.isFail()) {
+          this.completeWaiting(Validation.fail(reserved.fail()));
+        }
+      }
+      this.completeWaiting(null);
+      if (succeeded && !this.destroyed.isEmpty()) {
+        succeeded = this.release(this.destroyed).isSuccess();
+      }
+
+      if (succeeded) {
+        retryBackoffMs = this.releaseIntervalMs;
+        if (this.waiting.isEmpty()) {
+          LockSupport.parkNanos(
+                  TimeUnit.MILLISECONDS.toNanos(this.releaseIntervalMs)
+          );
+        }
+      }
+      else {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryBackoffMs));
+        retryBackoffMs = Math.min(MAX_RETRY_BACKOFF_MS, retryBackoffMs * 2);
+      }
+    }
+
+    this.completeWaiting(Validation.fail(
+            new IllegalStateException("Task manager is not running")
+    ));
+
+    // Hand back everything that was leased but never handed out
+    String taskId;
+    while ((taskId = this.take()) != null) {
+      this.destroyed.offer(taskId);
+    }
+    while (!this.destroyed.isEmpty() &&
+            this.release(this.destroyed).isSuccess()) {
+      // one batch of at most lease_size ids per statement
+    }
+  }
+
+  /**
+   * Hand leased ids to waiting generateIdAsync calls, for as long as
+   *  there are any; fail every waiting call instead if a failure is given
+   */
+  private void completeWaiting(Validation<RuntimeException, String> failure)
+  {
+    CompletableFuture<Validation<RuntimeException, String>> generated;
+    while ((generated = this.waiting.peek()) != null) {
+      String taskId = failure == null ? this.take() : null;
+      if (failure == null && taskId == null) {
+        return;
+      }
+
+      this.waiting.poll();
+      if (!generated.complete(
+              failure == null ? Validation.success(taskId) : failure
+      ) && taskId != null) {
+        this.destroyed.offer(taskId);
+      }
+    }
+  }
+
+  /**
+   * Reserve one lease of ids and make them available
+   * @return Validation of the number of ids reserved
+   */
+  private Validation<RuntimeException, Integer> reserve()
+  {
+    QueryParameters parameters = new QueryParameters.Builder()
+            .addString(this.description)
+            .addUuid(this.consumerId)
+            .addInt(this.leaseSize)
+            .build();
+
+    List<String> leased;
+    Timer.Context leaseTime = this.leaseTimer.time();
+    try {
+      Validation<RuntimeException, Stream<?>> result =
+              this.dataStore.query(
+                      "SELECT * FROM reserve_tasks(?, ?, ?)",
+                      parameters,
+                      row -> String.valueOf(row[0])
+              );
+      if (result.isFail()) {
+        return this.failed("Reserving task ids", result.fail());
+      }
+      leased = result.success()
+              .map(String.class::cast)
+              .collect(Collectors.toList());
+    } catch (RuntimeException e) {
+      return this.failed("Reserving task ids", e);
+    } finally {
+      leaseTime.stop();
+    }
+
+    this.available.addAll(leased);
+    this.availableCount.addAndGet(leased.size());
+    this.idsReserved.mark(leased.size());
+    return Validation.success(leased.size());
+  }
+
+  /**
+   * Release up to lease_size ids taken off a queue, putting them back
+   *  on failure
+   * @return Validation of the number of ids released
+   */
+  private Validation<RuntimeException, Integer> release(Queue<String> ids)
+  {
+    List<String> batch = new ArrayList<>();
+    String taskId;
+    while (batch.size() < this.leaseSize && (taskId = ids.poll()) != null) {
+      batch.add(taskId);
+    }
+    if (batch.isEmpty()) {
+      return Validation.success(0);
+    }
+
+    // One array literal, so every batch size shares a statement
+    QueryParameters parameters = new QueryParameters.Builder()
+            .addString(batch.stream().collect(
+                    Collectors.joining(",", "{", "}")
+            ))
+            .build();
+    Validation<RuntimeException, Integer> released;
+    try {
+      released = this.dataStore
+              .query(
+                      "SELECT * FROM release_tasks(?::uuid[])",
+                      parameters,
+                      row -> row[0]
+              )
+              .map(rows -> (int) rows.count());
+    } catch (RuntimeException e) {
+      released = Validation.fail(e);
+    }
+
+    if (released.isFail()) {
+      ids.addAll(batch);
+      return this.failed("Releasing task ids", released.fail());
+    }
+    this.idsReleased.mark(batch.size());
+    return Validation.success(batch.size());
+  }
+
+  private <T> Validation<RuntimeException, T> failed(
+          String action,
+          RuntimeException cause
+  )
+  {
+    this.logger.warn(action + " failed", cause);
+    return Validation.fail(cause);
+  }
+
+}
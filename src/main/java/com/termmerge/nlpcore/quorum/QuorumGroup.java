@@ -0,0 +1,49 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.util.Map;
+import java.util.HashMap;
+
+
+/**
+ * Groups of instances a QuorumMessage can be sent from or to, with the
+ *  names they carry on the wire. Declaration order is the binary
+ *  codec's wire index - only ever append!
+ */
+public enum QuorumGroup
+{
+
+  NLP_INTERFACE(QuorumMessage.GROUP_NLP_INTERFACE),
+  NLP_COMPUTE(QuorumMessage.GROUP_NLP_COMPUTE);
+
+  private static final Map<String, QuorumGroup> BY_WIRE_NAME =
+          new HashMap<>();
+  static {
+    for (QuorumGroup group : values()) {
+      BY_WIRE_NAME.put(group.wireName, group);
+    }
+  }
+
+  // Name of the group in serialized messages
+  private final String wireName;
+
+  QuorumGroup(String wireName)
+  {
+    this.wireName = wireName;
+  }
+
+  public String getWireName()
+  {
+    return this.wireName;
+  }
+
+  /**
+   * Look a group up by its wire name in constant time
+   * @param wireName - e.g. "nlpcore_compute"
+   * @return the group, or null when the name is unknown
+   */
+  public static QuorumGroup fromWireName(String wireName)
+  {
+    return wireName == null ? null : BY_WIRE_NAME.get(wireName);
+  }
+
+}
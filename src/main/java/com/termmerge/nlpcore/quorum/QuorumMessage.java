@@ -2,7 +2,8 @@ package com.termmerge.nlpcore.quorum;
 
 import java.util.Date;
 import java.util.Properties;
-import java.util.Arrays;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CompletableFuture;
 
 import fj.data.Validation;
 
@@ -15,14 +16,11 @@ import fj.data.Validation;
 public class QuorumMessage
 {
 
-  // Values allowable for "sender" and "recipient"
+  // Wire names of the groups, see QuorumGroup
   public static final String GROUP_NLP_INTERFACE = "nlpcore_interface";
   public static final String GROUP_NLP_COMPUTE = "nlpcore_compute";
-  private static String[] ALLOWABLE_SENDER_RECIPIENT = {
-          GROUP_NLP_INTERFACE, GROUP_NLP_COMPUTE
-  };
 
-  // Values allowable for "task"
+  // Wire names of the tasks, see QuorumTask
   public static final String STREAM_ANALYTICS = "stream_analytics";
   public static final String BATCH_ANALYTICS = "batch_analytics";
   public static final String CONVERGENCE_RADIUS = "convergence_radius";
@@ -37,30 +35,32 @@ public class QuorumMessage
   public static final String OPEN_INFO_EXTRACT = "nlp_openinfo_extract";
   public static final String WORDNET= "wordnet";
   public static final String FRAMENET = "framenet";
-  private static String[] ALLOWABLE_TASKS = {
-          STREAM_ANALYTICS, BATCH_ANALYTICS, CONVERGENCE_RADIUS,
-          NLP_TOKENIZE, NLP_SENTENCE, NLP_POS, NLP_NER, NLP_CONSTITUENCY,
-          NLP_DEPENDENCY, NLP_COREFERENCE, NLP_NATLOG_POLARITY,
-          OPEN_INFO_EXTRACT, WORDNET, FRAMENET
-  };
-
-  // Where this message originated from
+
+  // Value of getTimeMillis for messages that carried no time
+  public static final long NO_TIME = Long.MIN_VALUE;
+
+  // Where this message originated from (null if not a known group)
+  private QuorumGroup senderGroup;
   private String sender;
 
-  // Who is the message intended for
+  // Who is the message intended for (null if not a known group)
+  private QuorumGroup recipientGroup;
   private String recipient;
 
   // What task is this message intended for processing
+  //  (null if not a known task)
+  private QuorumTask taskType;
   private String task;
 
   // The real-world consumer who initiated this task
   private String consumerId;
 
-  // What time was this message created
-  private Date time;
+  // What time was this message created, in epoch millis (NO_TIME if
+  //  the message carried none)
+  private long timeMillis;
 
-  // Additional parameters for the task
-  private Properties params;
+  // Additional parameters for the task, never null
+  private QuorumMessageParams params;
 
   /**
    * Allows one to safely create instances of QuorumMessage
@@ -68,28 +68,32 @@ public class QuorumMessage
   public static class Builder
   {
 
-    private String sender;
-    private String recipient;
-    private String task;
+    private QuorumGroup sender;
+    private QuorumGroup recipient;
+    private QuorumTask task;
     private String consumerId;
-    private Date time;
-    private Properties params;
+    private long timeMillis;
+    private QuorumMessageParams.Builder params;
 
     public Builder asResponseMessage()
     {
-      this.sender = QuorumMessage.GROUP_NLP_COMPUTE;
-      this.recipient = QuorumMessage.GROUP_NLP_INTERFACE;
-      return this;
+      return this.fromTo(QuorumGroup.NLP_COMPUTE, QuorumGroup.NLP_INTERFACE);
     }
 
     public Builder asRequestMessage()
     {
-      this.sender = QuorumMessage.GROUP_NLP_INTERFACE;
-      this.recipient = QuorumMessage.GROUP_NLP_COMPUTE;
-      return this;
+      return this.fromTo(QuorumGroup.NLP_INTERFACE, QuorumGroup.NLP_COMPUTE);
     }
 
     public Builder fromTo(String sender, String recipient)
+    {
+      return this.fromTo(
+              QuorumGroup.fromWireName(sender),
+              QuorumGroup.fromWireName(recipient)
+      );
+    }
+
+    public Builder fromTo(QuorumGroup sender, QuorumGroup recipient)
     {
       this.sender = sender;
       this.recipient = recipient;
@@ -97,6 +101,11 @@ public class QuorumMessage
     }
 
     public Builder setTask(String task)
+    {
+      return this.setTask(QuorumTask.fromWireName(task));
+    }
+
+    public Builder setTask(QuorumTask task)
     {
       this.task = task;
       return this;
@@ -105,10 +114,10 @@ public class QuorumMessage
     public Builder setParam(String key, String value)
     {
       if (this.params == null) {
-        this.params = new Properties();
+        this.params = new QuorumMessageParams.Builder();
       }
 
-      this.params.setProperty(key, value);
+      this.params.put(key, value);
       return this;
     }
 
@@ -116,36 +125,128 @@ public class QuorumMessage
             TaskManager consumerIdManager
     )
     {
-      if (!Arrays.asList(QuorumMessage.ALLOWABLE_SENDER_RECIPIENT)
-              .contains(this.sender) ||
-              !Arrays.asList(QuorumMessage.ALLOWABLE_SENDER_RECIPIENT)
-                      .contains(this.recipient) ||
-              !Arrays.asList(QuorumMessage.ALLOWABLE_TASKS)
-                      .contains(this.task)
-              ) {
-        return Validation.fail(new IllegalStateException(
-                "Cannot construct valid QuorumMessage - Invalid " +
-                        "values for sender, recipient and/or task."
-        ));
+      Validation<RuntimeException, Builder> validated = this.validate();
+      if (validated.isFail()) {
+        return Validation.fail(validated.fail());
       }
 
-      this.time = new Date();
+      this.timeMillis = System.currentTimeMillis();
       return consumerIdManager.generateId().map((consumerId) -> {
         this.consumerId = consumerId;
         return new QuorumMessage(this);
       });
     }
 
+    /**
+     * Build without waiting on the TaskManager, e.g. one that has to
+     *  reach a datastore for ids. The message is made of the builder's
+     *  values at the time of this call, so the builder may be reused
+     *  right away
+     * @param consumerIdManager - source of the message's consumer id
+     * @return CompletionStage
+     *  -> Validation object once an id was generated
+     */
+    public CompletionStage<Validation<RuntimeException, QuorumMessage>>
+            buildAsync(TaskManager consumerIdManager)
+    {
+      Validation<RuntimeException, Builder> validated = this.validate();
+      if (validated.isFail()) {
+        return CompletableFuture.completedFuture(
+                Validation.fail(validated.fail())
+        );
+      }
+
+      QuorumGroup sender = this.sender;
+      QuorumGroup recipient = this.recipient;
+      QuorumTask task = this.task;
+      long timeMillis = System.currentTimeMillis();
+      QuorumMessageParams params = this.params == null ?
+              QuorumMessageParams.EMPTY : this.params.build();
+
+      return consumerIdManager.generateIdAsync().thenApply(generated ->
+              generated.map(consumerId -> new QuorumMessage(
+                      sender, recipient, task, consumerId, timeMillis, params
+              ))
+      );
+    }
+
+    private Validation<RuntimeException, Builder> validate()
+    {
+      // Unknown names were already turned into nulls by the setters
+      if (this.sender == null ||
+              this.recipient == null ||
+              this.task == null) {
+        return Validation.fail(new IllegalStateException(
+                "Cannot construct valid QuorumMessage - Invalid " +
+                        "values for sender, recipient and/or task."
+        ));
+      }
+      return Validation.success(this);
+    }
+
+  }
+
+  /**
+   * Used by deserializers, which must keep values they do not know.
+   *  Known group and task names are swapped for their shared constants,
+   *  so messages do not each hold copies of them
+   */
+  QuorumMessage(
+          String sender,
+          String recipient,
+          String task,
+          String consumerId,
+          long timeMillis,
+          QuorumMessageParams params
+  )
+  {
+    this.senderGroup = QuorumGroup.fromWireName(sender);
+    this.sender = this.senderGroup == null ?
+            sender : this.senderGroup.getWireName();
+    this.recipientGroup = QuorumGroup.fromWireName(recipient);
+    this.recipient = this.recipientGroup == null ?
+            recipient : this.recipientGroup.getWireName();
+    this.taskType = QuorumTask.fromWireName(task);
+    this.task = this.taskType == null ? task : this.taskType.getWireName();
+    this.consumerId = consumerId;
+    this.timeMillis = timeMillis;
+    this.params = params == null ? QuorumMessageParams.EMPTY : params;
+  }
+
+  /**
+   * Used by deserializers that already resolved groups and task
+   */
+  QuorumMessage(
+          QuorumGroup sender,
+          QuorumGroup recipient,
+          QuorumTask task,
+          String consumerId,
+          long timeMillis,
+          QuorumMessageParams params
+  )
+  {
+    this.senderGroup = sender;
+    this.sender = sender == null ? null : sender.getWireName();
+    this.recipientGroup = recipient;
+    this.recipient = recipient == null ? null : recipient.getWireName();
+    this.taskType = task;
+    this.task = task == null ? null : task.getWireName();
+    this.consumerId = consumerId;
+    this.timeMillis = timeMillis;
+    this.params = params == null ? QuorumMessageParams.EMPTY : params;
   }
 
   private QuorumMessage(Builder builder)
   {
-    this.sender = builder.sender;
-    this.recipient = builder.recipient;
-    this.task = builder.task;
-    this.consumerId = builder.consumerId;
-    this.time = builder.time;
-    this.params = builder.params;
+    this(
+            builder.sender,
+            builder.recipient,
+            builder.task,
+            builder.consumerId,
+            builder.timeMillis,
+            builder.params == null ?
+                    QuorumMessageParams.EMPTY : builder.params.build()
+    );
   }
 
   public String getSender()
@@ -153,29 +254,88 @@ public class QuorumMessage
     return this.sender;
   }
 
+  /**
+   * @return group the message came from, null if not a known group
+   */
+  public QuorumGroup getSenderGroup()
+  {
+    return this.senderGroup;
+  }
+
   public String getRecipient()
   {
     return this.recipient;
   }
 
+  /**
+   * @return group the message is for, null if not a known group
+   */
+  public QuorumGroup getRecipientGroup()
+  {
+    return this.recipientGroup;
+  }
+
   public String getTask()
   {
     return this.task;
   }
 
+  /**
+   * @return task the message is for, null if not a known task
+   */
+  public QuorumTask getTaskType()
+  {
+    return this.taskType;
+  }
+
   public String getConsumerId()
   {
     return this.consumerId;
   }
 
+  /**
+   * Compatibility shim allocating a Date per call; prefer getTimeMillis
+   * @return creation time, null if the message carried none
+   */
   public Date getTime()
   {
-    return (Date) this.time.clone();
+    return this.timeMillis == NO_TIME ? null : new Date(this.timeMillis);
   }
 
+  /**
+   * @return creation time in epoch millis, NO_TIME if the message
+   *  carried none
+   */
+  public long getTimeMillis()
+  {
+    return this.timeMillis;
+  }
+
+  /**
+   * Compatibility shim copying every parameter per call; prefer
+   *  getParam or getParamMap
+   * @return mutable copy of the task parameters
+   */
   public Properties getParams()
   {
-    return (Properties) this.params.clone();
+    return this.params.toProperties();
+  }
+
+  /**
+   * @param key - parameter name
+   * @return value of a task parameter, null if absent
+   */
+  public String getParam(String key)
+  {
+    return this.params.get(key);
+  }
+
+  /**
+   * @return the task parameters, immutable and shared - not a copy
+   */
+  public QuorumMessageParams getParamMap()
+  {
+    return this.params;
   }
 
 }
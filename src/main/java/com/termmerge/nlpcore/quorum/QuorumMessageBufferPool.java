@@ -0,0 +1,107 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Lock-free pool of equally sized ByteBuffers that messages are
+ *  serialized into, so steady traffic stops allocating a buffer per
+ *  message. Direct buffers suit writes to sockets/channels; heap
+ *  buffers suit byte-array based clients. Thread-safe.
+ */
+public class QuorumMessageBufferPool
+{
+
+  // Size of every pooled buffer
+  private final int bufferCapacity;
+
+  // Allocate direct (off-heap) buffers?
+  private final boolean direct;
+
+  // Most buffers kept while idle
+  private final int maxPooled;
+
+  // Idle buffers, and how many there are
+  private final Queue<ByteBuffer> buffers;
+  private final AtomicInteger pooled;
+
+  /**
+   * @param bufferCapacity - size of each buffer, in bytes
+   * @param maxPooled - most idle buffers kept around
+   * @param direct - allocate direct buffers instead of heap ones
+   */
+  public QuorumMessageBufferPool(
+          int bufferCapacity,
+          int maxPooled,
+          boolean direct
+  )
+  {
+    if (bufferCapacity < 1 || maxPooled < 0) {
+      throw new IllegalArgumentException(
+              "bufferCapacity must be positive, maxPooled not negative"
+      );
+    }
+
+    this.bufferCapacity = bufferCapacity;
+    this.maxPooled = maxPooled;
+    this.direct = direct;
+    this.buffers = new ConcurrentLinkedQueue<>();
+    this.pooled = new AtomicInteger(0);
+  }
+
+  /**
+   * Take an empty buffer, allocating one if none is idle
+   * @return cleared ByteBuffer of bufferCapacity bytes
+   */
+  public ByteBuffer acquire()
+  {
+    ByteBuffer buffer = this.buffers.poll();
+    if (buffer == null) {
+      return this.direct ?
+              ByteBuffer.allocateDirect(this.bufferCapacity) :
+              ByteBuffer.allocate(this.bufferCapacity);
+    }
+
+    this.pooled.decrementAndGet();
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Hand a buffer back once its contents are no longer needed. Buffers
+   *  not sized by this pool, and buffers beyond maxPooled, are dropped
+   * @param buffer - buffer obtained from acquire
+   */
+  public void release(ByteBuffer buffer)
+  {
+    if (buffer == null ||
+            buffer.capacity() != this.bufferCapacity ||
+            buffer.isDirect() != this.direct ||
+            buffer.isReadOnly()) {
+      return;
+    }
+
+    if (this.pooled.incrementAndGet() > this.maxPooled) {
+      this.pooled.decrementAndGet();
+      return;
+    }
+    this.buffers.offer(buffer);
+  }
+
+  public int getBufferCapacity()
+  {
+    return this.bufferCapacity;
+  }
+
+  /**
+   * @return buffers currently idle in the pool
+   */
+  public int idleBuffers()
+  {
+    return this.pooled.get();
+  }
+
+}
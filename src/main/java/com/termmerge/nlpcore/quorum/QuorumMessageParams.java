@@ -0,0 +1,231 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Properties;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+
+/**
+ * Immutable task parameters of a QuorumMessage, kept as two flat arrays
+ *  sorted by key: lookups are binary searches and reading never
+ *  allocates. Messages carry a handful of parameters, for which this is
+ *  both smaller and faster than a hash table. Thread-safe.
+ */
+public final class QuorumMessageParams extends AbstractMap<String, String>
+{
+
+  public static final QuorumMessageParams EMPTY =
+          new QuorumMessageParams(new String[0], new String[0]);
+
+  // Keys in ascending order, and the value of each key
+  private final String[] keys;
+  private final String[] values;
+
+  private QuorumMessageParams(String[] keys, String[] values)
+  {
+    this.keys = keys;
+    this.values = values;
+  }
+
+  /**
+   * Copy parameters out of a Properties object
+   * @param properties - parameters; non-String entries are skipped
+   * @return params
+   */
+  public static QuorumMessageParams fromProperties(Properties properties)
+  {
+    if (properties == null || properties.isEmpty()) {
+      return EMPTY;
+    }
+
+    Builder builder = new Builder();
+    for (Map.Entry<Object, Object> property : properties.entrySet()) {
+      if (property.getKey() instanceof String &&
+              property.getValue() instanceof String) {
+        builder.put(
+                (String) property.getKey(),
+                (String) property.getValue()
+        );
+      }
+    }
+    return builder.build();
+  }
+
+  @Override
+  public String get(Object key)
+  {
+    int index = this.indexOf(key);
+    return index < 0 ? null : this.values[index];
+  }
+
+  @Override
+  public boolean containsKey(Object key)
+  {
+    return this.indexOf(key) >= 0;
+  }
+
+  @Override
+  public int size()
+  {
+    return this.keys.length;
+  }
+
+  @Override
+  public boolean isEmpty()
+  {
+    return this.keys.length == 0;
+  }
+
+  /**
+   * @return key at an index, in ascending key order
+   */
+  public String keyAt(int index)
+  {
+    return this.keys[index];
+  }
+
+  /**
+   * @return value of the key at an index
+   */
+  public String valueAt(int index)
+  {
+    return this.values[index];
+  }
+
+  @Override
+  public void forEach(BiConsumer<? super String, ? super String> action)
+  {
+    for (int i = 0; i < this.keys.length; i++) {
+      action.accept(this.keys[i], this.values[i]);
+    }
+  }
+
+  /**
+   * @return a new, mutable Properties copy of the parameters
+   */
+  public Properties toProperties()
+  {
+    Properties properties = new Properties();
+    for (int i = 0; i < this.keys.length; i++) {
+      properties.setProperty(this.keys[i], this.values[i]);
+    }
+    return properties;
+  }
+
+  @Override
+  public Set<Map.Entry<String, String>> entrySet()
+  {
+    return new AbstractSet<Map.Entry<String, String>>()
+    {
+      @Override
+      public Iterator<Map.Entry<String, String>> iterator()
+      {
+        return new Iterator<Map.Entry<String, String>>()
+        {
+          private int index = 0;
+
+          @Override
+          public boolean hasNext()
+          {
+            return this.index < keys.length;
+          }
+
+          @Override
+          public Map.Entry<String, String> next()
+          {
+            if (this.index >= keys.length) {
+              throw new NoSuchElementException();
+            }
+            int current = this.index++;
+            return new SimpleImmutableEntry<>(
+                    keys[current], values[current]
+            );
+          }
+        };
+      }
+
+      @Override
+      public int size()
+      {
+        return keys.length;
+      }
+    };
+  }
+
+  private int indexOf(Object key)
+  {
+    if (!(key instanceof String)) {
+      return -1;
+    }
+    return Arrays.binarySearch(this.keys, key);
+  }
+
+  /**
+   * Collects parameters, keeping them sorted as they come in; a key put
+   *  twice keeps its last value. Not thread-safe
+   */
+  static final class Builder
+  {
+
+    private String[] keys;
+    private String[] values;
+    private int size;
+
+    Builder()
+    {
+      this.keys = new String[4];
+      this.values = new String[4];
+      this.size = 0;
+    }
+
+    Builder put(String key, String value)
+    {
+      if (key == null || value == null) {
+        throw new NullPointerException("Parameter keys and values");
+      }
+
+      int index = Arrays.binarySearch(this.keys, 0, this.size, key);
+      if (index >= 0) {
+        this.values[index] = value;
+        return this;
+      }
+
+      int insertAt = -index - 1;
+      if (this.size == this.keys.length) {
+        this.keys = Arrays.copyOf(this.keys, this.size * 2);
+        this.values = Arrays.copyOf(this.values, this.size * 2);
+      }
+      System.arraycopy(
+              this.keys, insertAt, this.keys, insertAt + 1,
+              this.size - insertAt
+      );
+      System.arraycopy(
+              this.values, insertAt, this.values, insertAt + 1,
+              this.size - insertAt
+      );
+      this.keys[insertAt] = key;
+      this.values[insertAt] = value;
+      this.size++;
+      return this;
+    }
+
+    QuorumMessageParams build()
+    {
+      if (this.size == 0) {
+        return EMPTY;
+      }
+      return new QuorumMessageParams(
+              Arrays.copyOf(this.keys, this.size),
+              Arrays.copyOf(this.values, this.size)
+      );
+    }
+
+  }
+
+}
@@ -1,5 +1,12 @@
 package com.termmerge.nlpcore.quorum;
 
+import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.BufferOverflowException;
+
 import fj.data.Validation;
 
 
@@ -29,4 +36,147 @@ public interface QuorumMessageProcessor
           String quorumMessage
   );
 
+  /**
+   * Serialize a QuorumMessage straight to the bytes put on the wire.
+   *  Defaults to the UTF-8 encoding of serialize's String
+   * @param quorumMessage
+   * @return byte[]
+   */
+  default Validation<RuntimeException, byte[]> serializeToBytes(
+          QuorumMessage quorumMessage
+  )
+  {
+    return this.serialize(quorumMessage)
+            .map(serialized -> serialized.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Deserialize a QuorumMessage straight from wire bytes. Defaults to
+   *  deserialize of the UTF-8 decoded String
+   * @param quorumMessage
+   * @return QuorumMessage
+   */
+  default Validation<RuntimeException, QuorumMessage> deserializeFromBytes(
+          byte[] quorumMessage
+  )
+  {
+    return this.deserialize(
+            new String(quorumMessage, StandardCharsets.UTF_8)
+    );
+  }
+
+  /**
+   * Serialize a QuorumMessage onto a stream (e.g. a socket)
+   * @param quorumMessage
+   * @param outputStream - stream to write to; left open
+   * @return number of bytes written
+   */
+  default Validation<RuntimeException, Integer> serializeTo(
+          QuorumMessage quorumMessage,
+          OutputStream outputStream
+  )
+  {
+    return this.serializeToBytes(quorumMessage).bind(serialized -> {
+      try {
+        outputStream.write(serialized);
+      } catch (IOException e) {
+        return Validation.fail(new UncheckedIOException(e));
+      }
+      return Validation.success(serialized.length);
+    });
+  }
+
+  /**
+   * Serialize a QuorumMessage into a buffer, from its position on. Fails
+   *  with a BufferOverflowException, leaving the buffer's position as it
+   *  was, when the message does not fit
+   * @param quorumMessage
+   * @param buffer - buffer to write to; its position is advanced
+   * @return number of bytes written
+   */
+  default Validation<RuntimeException, Integer> serializeTo(
+          QuorumMessage quorumMessage,
+          ByteBuffer buffer
+  )
+  {
+    return this.serializeToBytes(quorumMessage).bind(serialized -> {
+      if (serialized.length > buffer.remaining()) {
+        return Validation.fail(new BufferOverflowException());
+      }
+      buffer.put(serialized);
+      return Validation.success(serialized.length);
+    });
+  }
+
+  /**
+   * Serialize a QuorumMessage into a buffer taken from a pool, ready to
+   *  be read (flipped). Messages too large for the pool's buffers get a
+   *  buffer of their own. Hand the buffer back with release once sent
+   * @param quorumMessage
+   * @param bufferPool - pool to take the buffer from
+   * @return ByteBuffer holding the message
+   */
+  default Validation<RuntimeException, ByteBuffer> serializeToPooledBuffer(
+          QuorumMessage quorumMessage,
+          QuorumMessageBufferPool bufferPool
+  )
+  {
+    ByteBuffer buffer = bufferPool.acquire();
+    Validation<RuntimeException, Integer> written =
+            this.serializeTo(quorumMessage, buffer);
+    if (written.isSuccess()) {
+      buffer.flip();
+      return Validation.success(buffer);
+    }
+
+    bufferPool.release(buffer);
+    if (!(written.fail() instanceof BufferOverflowException)) {
+      return Validation.fail(written.fail());
+    }
+    return this.serializeToBytes(quorumMessage).map(ByteBuffer::wrap);
+  }
+
+  /**
+   * Deserialize a QuorumMessage from the remaining bytes of a buffer,
+   *  consuming them
+   * @param buffer - buffer holding exactly one message
+   * @return QuorumMessage
+   */
+  default Validation<RuntimeException, QuorumMessage> deserializeFrom(
+          ByteBuffer buffer
+  )
+  {
+    byte[] serialized = new byte[buffer.remaining()];
+    buffer.get(serialized);
+    return this.deserializeFromBytes(serialized);
+  }
+
+  /**
+   * Read only the routing fields of a serialized QuorumMessage, leaving
+   *  the rest to be decoded if and when the route's message is asked
+   *  for. Defaults to a full deserialize
+   * @param quorumMessage
+   * @return QuorumMessageRoute
+   */
+  default Validation<RuntimeException, QuorumMessageRoute> deserializeLazily(
+          String quorumMessage
+  )
+  {
+    return this.deserialize(quorumMessage).map(QuorumMessageRoute::of);
+  }
+
+  /**
+   * Read only the routing fields of a QuorumMessage in wire bytes. The
+   *  route keeps the array for its full decode, so it must not be
+   *  modified afterwards. Defaults to a full deserializeFromBytes
+   * @param quorumMessage
+   * @return QuorumMessageRoute
+   */
+  default Validation<RuntimeException, QuorumMessageRoute>
+          deserializeLazilyFromBytes(byte[] quorumMessage)
+  {
+    return this.deserializeFromBytes(quorumMessage)
+            .map(QuorumMessageRoute::of);
+  }
+
 }
@@ -0,0 +1,54 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.util.Properties;
+
+import fj.data.Validation;
+
+
+/**
+ * Picks the QuorumMessageProcessor a deployment puts on the wire, from
+ *  its "quorum_codec" setting: "json" (the default) or "binary". Every
+ *  instance talking over the same topics must use the same codec.
+ */
+public final class QuorumMessageProcessors
+{
+
+  public static final String CODEC_JSON = "json";
+  public static final String CODEC_BINARY = "binary";
+
+  private QuorumMessageProcessors()
+  {
+  }
+
+  /**
+   * Create the processor named by the "quorum_codec" setting
+   * @param settings - deployment settings
+   * @return Validation of the processor
+   */
+  public static Validation<RuntimeException, QuorumMessageProcessor>
+    fromProperties(Properties settings)
+  {
+    return forCodec(settings.getProperty("quorum_codec", CODEC_JSON));
+  }
+
+  /**
+   * Create the processor for a codec name
+   * @param codec - "json" or "binary"
+   * @return Validation of the processor
+   */
+  public static Validation<RuntimeException, QuorumMessageProcessor>
+    forCodec(String codec)
+  {
+    switch (codec) {
+      case CODEC_JSON:
+        return Validation.success(new JSONQuorumMessageProcessor());
+      case CODEC_BINARY:
+        return Validation.success(new BinaryQuorumMessageProcessor());
+      default:
+        return Validation.fail(new IllegalArgumentException(
+                "Unknown quorum_codec: " + codec
+        ));
+    }
+  }
+
+}
@@ -0,0 +1,118 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.util.function.Supplier;
+
+import fj.data.Validation;
+
+
+/**
+ * Routing view of a serialized QuorumMessage: the sender, recipient and
+ *  task, read without decoding the rest of the message. Nodes deciding
+ *  whether a message is theirs (or where to forward it) look at these
+ *  and only pay for the full decode, on the first getMessage, for the
+ *  messages they keep. Thread-safe.
+ */
+public final class QuorumMessageRoute
+{
+
+  private final QuorumGroup senderGroup;
+  private final String sender;
+  private final QuorumGroup recipientGroup;
+  private final String recipient;
+  private final QuorumTask taskType;
+  private final String task;
+
+  // Full decode of the message, run at most once (per racing thread)
+  private final Supplier<Validation<RuntimeException, QuorumMessage>>
+          decoder;
+  private volatile Validation<RuntimeException, QuorumMessage> message;
+
+  QuorumMessageRoute(
+          String sender,
+          String recipient,
+          String task,
+          Supplier<Validation<RuntimeException, QuorumMessage>> decoder
+  )
+  {
+    this.senderGroup = QuorumGroup.fromWireName(sender);
+    this.sender = this.senderGroup == null ?
+            sender : this.senderGroup.getWireName();
+    this.recipientGroup = QuorumGroup.fromWireName(recipient);
+    this.recipient = this.recipientGroup == null ?
+            recipient : this.recipientGroup.getWireName();
+    this.taskType = QuorumTask.fromWireName(task);
+    this.task = this.taskType == null ? task : this.taskType.getWireName();
+    this.decoder = decoder;
+    this.message = null;
+  }
+
+  /**
+   * Route of an already decoded message
+   */
+  static QuorumMessageRoute of(QuorumMessage quorumMessage)
+  {
+    Validation<RuntimeException, QuorumMessage> decoded =
+            Validation.success(quorumMessage);
+    return new QuorumMessageRoute(
+            quorumMessage.getSender(),
+            quorumMessage.getRecipient(),
+            quorumMessage.getTask(),
+            () -> decoded
+    );
+  }
+
+  public String getSender()
+  {
+    return this.sender;
+  }
+
+  /**
+   * @return sending group, or null if unknown to this release
+   */
+  public QuorumGroup getSenderGroup()
+  {
+    return this.senderGroup;
+  }
+
+  public String getRecipient()
+  {
+    return this.recipient;
+  }
+
+  /**
+   * @return receiving group, or null if unknown to this release
+   */
+  public QuorumGroup getRecipientGroup()
+  {
+    return this.recipientGroup;
+  }
+
+  public String getTask()
+  {
+    return this.task;
+  }
+
+  /**
+   * @return task, or null if unknown to this release
+   */
+  public QuorumTask getTaskType()
+  {
+    return this.taskType;
+  }
+
+  /**
+   * Decode the whole message, on first call
+   * @return Validation of the message, failing if the part past the
+   *  routing fields is malformed
+   */
+  public Validation<RuntimeException, QuorumMessage> getMessage()
+  {
+    Validation<RuntimeException, QuorumMessage> decoded = this.message;
+    if (decoded == null) {
+      decoded = this.decoder.get();
+      this.message = decoded;
+    }
+    return decoded;
+  }
+
+}
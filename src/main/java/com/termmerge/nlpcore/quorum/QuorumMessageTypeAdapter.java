@@ -0,0 +1,212 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.util.Date;
+import java.io.IOException;
+import java.util.function.Supplier;
+
+import fj.data.Validation;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+
+/**
+ * Streams a QuorumMessage to and from JSON field by field, without
+ *  reflection or an intermediate JsonElement tree. Fields keep the
+ *  names (and order) the reflective mapping used; "time" is written as
+ *  epoch milliseconds and read from a number, a numeric string or, for
+ *  messages from older producers, Gson's default date format.
+ *
+ * readRoute reads only as far as the routing fields, which the writer
+ *  puts first, and skips over anything in between without building it.
+ */
+class QuorumMessageTypeAdapter extends TypeAdapter<QuorumMessage>
+{
+
+  // Reads "time" written in Gson's default date format
+  private final TypeAdapter<Date> legacyDateAdapter;
+
+  QuorumMessageTypeAdapter()
+  {
+    this.legacyDateAdapter = new Gson().getAdapter(Date.class);
+  }
+
+  @Override
+  public void write(JsonWriter jsonWriter, QuorumMessage quorumMessage)
+          throws IOException
+  {
+    if (quorumMessage == null) {
+      jsonWriter.nullValue();
+      return;
+    }
+
+    jsonWriter.beginObject();
+    writeString(jsonWriter, "sender", quorumMessage.getSender());
+    writeString(jsonWriter, "recipient", quorumMessage.getRecipient());
+    writeString(jsonWriter, "task", quorumMessage.getTask());
+    writeString(jsonWriter, "consumerId", quorumMessage.getConsumerId());
+    if (quorumMessage.getTimeMillis() != QuorumMessage.NO_TIME) {
+      jsonWriter.name("time").value(quorumMessage.getTimeMillis());
+    }
+    QuorumMessageParams params = quorumMessage.getParamMap();
+    if (!params.isEmpty()) {
+      jsonWriter.name("params").beginObject();
+      for (int i = 0; i < params.size(); i++) {
+        jsonWriter.name(params.keyAt(i)).value(params.valueAt(i));
+      }
+      jsonWriter.endObject();
+    }
+    jsonWriter.endObject();
+  }
+
+  @Override
+  public QuorumMessage read(JsonReader jsonReader) throws IOException
+  {
+    if (jsonReader.peek() == JsonToken.NULL) {
+      jsonReader.nextNull();
+      return null;
+    }
+
+    String sender = null;
+    String recipient = null;
+    String task = null;
+    String consumerId = null;
+    long timeMillis = QuorumMessage.NO_TIME;
+    QuorumMessageParams params = null;
+
+    jsonReader.beginObject();
+    while (jsonReader.hasNext()) {
+      String name = jsonReader.nextName();
+      if (jsonReader.peek() == JsonToken.NULL) {
+        jsonReader.nextNull();
+        continue;
+      }
+
+      switch (name) {
+        case "sender":
+          sender = jsonReader.nextString();
+          break;
+        case "recipient":
+          recipient = jsonReader.nextString();
+          break;
+        case "task":
+          task = jsonReader.nextString();
+          break;
+        case "consumerId":
+          consumerId = jsonReader.nextString();
+          break;
+        case "time":
+          timeMillis = this.readTime(jsonReader);
+          break;
+        case "params":
+          params = readParams(jsonReader);
+          break;
+        default:
+          jsonReader.skipValue();
+      }
+    }
+    jsonReader.endObject();
+
+    return new QuorumMessage(
+            sender, recipient, task, consumerId, timeMillis, params
+    );
+  }
+
+  /**
+   * Read sender, recipient and task, stopping as soon as all three were
+   *  seen; the rest of the reader is left unread
+   * @param decoder - full decode of the same message, for the route
+   */
+  QuorumMessageRoute readRoute(
+          JsonReader jsonReader,
+          Supplier<Validation<RuntimeException, QuorumMessage>> decoder
+  ) throws IOException
+  {
+    String sender = null;
+    String recipient = null;
+    String task = null;
+    int seen = 0;
+
+    jsonReader.beginObject();
+    while (seen < 3 && jsonReader.hasNext()) {
+      String name = jsonReader.nextName();
+      if (jsonReader.peek() == JsonToken.NULL) {
+        jsonReader.nextNull();
+        continue;
+      }
+
+      switch (name) {
+        case "sender":
+          seen += sender == null ? 1 : 0;
+          sender = jsonReader.nextString();
+          break;
+        case "recipient":
+          seen += recipient == null ? 1 : 0;
+          recipient = jsonReader.nextString();
+          break;
+        case "task":
+          seen += task == null ? 1 : 0;
+          task = jsonReader.nextString();
+          break;
+        default:
+          jsonReader.skipValue();
+      }
+    }
+
+    return new QuorumMessageRoute(sender, recipient, task, decoder);
+  }
+
+  private long readTime(JsonReader jsonReader) throws IOException
+  {
+    if (jsonReader.peek() == JsonToken.NUMBER) {
+      return jsonReader.nextLong();
+    }
+
+    String time = jsonReader.nextString();
+    try {
+      return Long.parseLong(time);
+    } catch (NumberFormatException e) {
+      return this.legacyDateAdapter
+              .fromJsonTree(new JsonPrimitive(time))
+              .getTime();
+    }
+  }
+
+  private static QuorumMessageParams readParams(JsonReader jsonReader)
+          throws IOException
+  {
+    QuorumMessageParams.Builder params = new QuorumMessageParams.Builder();
+    jsonReader.beginObject();
+    while (jsonReader.hasNext()) {
+      String key = jsonReader.nextName();
+      switch (jsonReader.peek()) {
+        case NULL:
+          jsonReader.nextNull();
+          break;
+        case BOOLEAN:
+          params.put(key, Boolean.toString(jsonReader.nextBoolean()));
+          break;
+        default:
+          params.put(key, jsonReader.nextString());
+      }
+    }
+    jsonReader.endObject();
+    return params.build();
+  }
+
+  private static void writeString(
+          JsonWriter jsonWriter,
+          String name,
+          String value
+  ) throws IOException
+  {
+    if (value != null) {
+      jsonWriter.name(name).value(value);
+    }
+  }
+
+}
@@ -0,0 +1,62 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.util.Map;
+import java.util.HashMap;
+
+
+/**
+ * Tasks a QuorumMessage can ask for, with the names they carry on the
+ *  wire. Switch over these rather than over task names when routing.
+ *  Declaration order is the binary codec's wire index - only ever
+ *  append!
+ */
+public enum QuorumTask
+{
+
+  STREAM_ANALYTICS(QuorumMessage.STREAM_ANALYTICS),
+  BATCH_ANALYTICS(QuorumMessage.BATCH_ANALYTICS),
+  CONVERGENCE_RADIUS(QuorumMessage.CONVERGENCE_RADIUS),
+  NLP_TOKENIZE(QuorumMessage.NLP_TOKENIZE),
+  NLP_SENTENCE(QuorumMessage.NLP_SENTENCE),
+  NLP_POS(QuorumMessage.NLP_POS),
+  NLP_NER(QuorumMessage.NLP_NER),
+  NLP_CONSTITUENCY(QuorumMessage.NLP_CONSTITUENCY),
+  NLP_DEPENDENCY(QuorumMessage.NLP_DEPENDENCY),
+  NLP_COREFERENCE(QuorumMessage.NLP_COREFERENCE),
+  NLP_NATLOG_POLARITY(QuorumMessage.NLP_NATLOG_POLARITY),
+  OPEN_INFO_EXTRACT(QuorumMessage.OPEN_INFO_EXTRACT),
+  WORDNET(QuorumMessage.WORDNET),
+  FRAMENET(QuorumMessage.FRAMENET);
+
+  private static final Map<String, QuorumTask> BY_WIRE_NAME =
+          new HashMap<>();
+  static {
+    for (QuorumTask task : values()) {
+      BY_WIRE_NAME.put(task.wireName, task);
+    }
+  }
+
+  // Name of the task in serialized messages
+  private final String wireName;
+
+  QuorumTask(String wireName)
+  {
+    this.wireName = wireName;
+  }
+
+  public String getWireName()
+  {
+    return this.wireName;
+  }
+
+  /**
+   * Look a task up by its wire name in constant time
+   * @param wireName - e.g. "nlp_pos"
+   * @return the task, or null when the name is unknown
+   */
+  public static QuorumTask fromWireName(String wireName)
+  {
+    return wireName == null ? null : BY_WIRE_NAME.get(wireName);
+  }
+
+}
@@ -0,0 +1,41 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.util.UUID;
+
+import fj.data.Validation;
+
+
+/**
+ * Parsing of the UUID task ids handed out by TaskManagers
+ */
+final class TaskIds
+{
+
+  private TaskIds()
+  {
+  }
+
+  /**
+   * Parse a task id given in canonical UUID form. UUID.fromString also
+   *  accepts shortened groups such as "1-1-1-1-1", which the database
+   *  would then reject.
+   * @param taskId - id as handed out
+   * @return Validation of the parsed id
+   */
+  static Validation<RuntimeException, UUID> parse(String taskId)
+  {
+    UUID parsedId;
+    try {
+      parsedId = UUID.fromString(taskId);
+    } catch (IllegalArgumentException | NullPointerException e) {
+      parsedId = null;
+    }
+    if (parsedId == null || !parsedId.toString().equalsIgnoreCase(taskId)) {
+      return Validation.fail(new IllegalArgumentException(
+              "Not a task id: " + taskId
+      ));
+    }
+    return Validation.success(parsedId);
+  }
+
+}
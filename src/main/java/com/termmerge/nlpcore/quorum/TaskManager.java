@@ -1,5 +1,8 @@
 package com.termmerge.nlpcore.quorum;
 
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CompletableFuture;
+
 import fj.data.Validation;
 
 
@@ -17,6 +20,19 @@ public interface TaskManager
    */
   Validation<RuntimeException, String> generateId();
 
+  /**
+   * Generates a uniquely identifiable task id without blocking the
+   *  calling thread. Implementations that wait on I/O for ids should
+   *  override this; by default the id is generated in place
+   * @return CompletionStage
+   *  -> Validation object of the Task ID once generated
+   */
+  default CompletionStage<Validation<RuntimeException, String>>
+          generateIdAsync()
+  {
+    return CompletableFuture.completedFuture(this.generateId());
+  }
+
   /**
    * Destroy this task id (so it can now be
    *  possibly used by another in the system)
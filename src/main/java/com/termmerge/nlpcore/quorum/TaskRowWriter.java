@@ -0,0 +1,447 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.Queue;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.time.Instant;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import com.termmerge.nlpcore.Instrumented;
+import com.termmerge.nlpcore.datastore.DataStore;
+import com.termmerge.nlpcore.datastore.QueryParameters;
+
+import fj.data.Validation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.MetricRegistry;
+
+
+/**
+ * Writes task rows for ids handed out by a TaskManager, off the thread
+ *  that generated them. Rows queue up lock-free and a single writer
+ *  thread bulk writes them in batches of up to "batch_size" rows, at
+ *  least every "flush_interval_ms". Destroyed ids set their row's
+ *  destroyed_at the same way. Both writes have a fixed statement text,
+ *  so each is prepared once per connection whatever the batch size.
+ *
+ * At most "max_pending" rows wait at a time; beyond that recording
+ *  fails, pushing back on id generation instead of growing without
+ *  bound while the datastore is unavailable. Failed batches are
+ *  retried with backoff for as long as the datastore stays unavailable.
+ *  Only once the table rejected a batch's data (SQLState class 22 or
+ *  23) "max_attempts" times (default 10) are its rows written one by
+ *  one, and rows rejected on their own are dropped and counted in
+ *  "rows.dropped". The DataStore is only ever used by the writer thread.
+ */
+public class TaskRowWriter implements Instrumented
+{
+
+  // Longest wait before retrying a failed batch
+  private static final long MAX_RETRY_BACKOFF_MS = 5000;
+
+  private static final String INSERT_SQL =
+          "INSERT INTO task (id, description, created_at) VALUES (?, ?, ?)";
+  private static final String UPDATE_SQL =
+          "UPDATE task SET destroyed_at = ? WHERE id = ?";
+
+  private final DataStore<Object[], String, ?> dataStore;
+
+  // Description stored with every task row
+  private final String description;
+
+  private final int batchSize;
+  private final long flushIntervalMs;
+  private final int maxPending;
+  private final int maxAttempts;
+
+  // Rows waiting to be written, and how many
+  private final Queue<TaskRow> rows;
+  private final AtomicInteger pending;
+
+  private volatile boolean isWriting;
+  private Thread writerThread;
+
+  // Runtime metrics of this writer
+  private final MetricRegistry metricRegistry;
+  private final Meter rowsWritten;
+  private final Meter rowsDropped;
+  private final Meter batchFailures;
+  private final Timer batchTimer;
+
+  // Application Logger
+  private Logger logger;
+
+  private TaskRowWriter(
+          DataStore<Object[], String, ?> dataStore,
+          String description,
+          int batchSize,
+          long flushIntervalMs,
+          int maxPending,
+          int maxAttempts
+  )
+  {
+    this.dataStore = dataStore;
+    this.description = description;
+    this.batchSize = batchSize;
+    this.flushIntervalMs = flushIntervalMs;
+    this.maxPending = maxPending;
+    this.maxAttempts = maxAttempts;
+    this.rows = new ConcurrentLinkedQueue<>();
+    this.pending = new AtomicInteger(0);
+    this.isWriting = false;
+
+    this.metricRegistry = new MetricRegistry();
+    this.rowsWritten = this.metricRegistry.meter("rows.written");
+    this.rowsDropped = this.metricRegistry.meter("rows.dropped");
+    this.batchFailures = this.metricRegistry.meter("batch.failures");
+    this.batchTimer = this.metricRegistry.timer("batch.latency");
+    this.metricRegistry.register(
+            "rows.pending",
+            (Gauge<Integer>) this.pending::get
+    );
+    this.logger = LoggerFactory.getLogger(TaskRowWriter.class);
+  }
+
+  /**
+   * Create a writer on a connected DataStore
+   * @param dataStore - connected datastore holding the task table
+   * @param settings - optional "task_description", "batch_size",
+   *  "flush_interval_ms", "max_pending" and "max_attempts"
+   * @return Validation of the (not yet started) writer
+   */
+  public static Validation<RuntimeException, TaskRowWriter> fromProperties(
+          DataStore<Object[], String, ?> dataStore,
+          Properties settings
+  )
+  {
+    int batchSize, maxPending, maxAttempts;
+    long flushIntervalMs;
+    try {
+      batchSize = Integer.parseInt(
+              settings.getProperty("batch_size", "500")
+      );
+      flushIntervalMs = Long.parseLong(
+              settings.getProperty("flush_interval_ms", "50")
+      );
+      maxPending = Integer.parseInt(
+              settings.getProperty("max_pending", "100000")
+      );
+      maxAttempts = Integer.parseInt(
+              settings.getProperty("max_attempts", "10")
+      );
+    } catch (NumberFormatException e) {
+      return Validation.fail(new IllegalArgumentException(
+              "batch_size, flush_interval_ms, max_pending and " +
+                      "max_attempts must be integers"
+      ));
+    }
+    if (batchSize < 1 || flushIntervalMs < 1 || maxAttempts < 1 ||
+            maxPending < batchSize) {
+      return Validation.fail(new IllegalArgumentException(
+              "batch_size, flush_interval_ms and max_attempts must be " +
+                      "positive, max_pending at least batch_size"
+      ));
+    }
+
+    return Validation.success(new TaskRowWriter(
+            dataStore,
+            settings.getProperty("task_description", "quorum_task"),
+            batchSize,
+            flushIntervalMs,
+            maxPending,
+            maxAttempts
+    ));
+  }
+
+  public synchronized Validation<RuntimeException, Boolean> start()
+  {
+    if (this.writerThread != null) {
+      return Validation.fail(new IllegalStateException(
+              "Task row writer already started!"
+      ));
+    }
+
+    this.isWriting = true;
+    this.writerThread = new Thread(this::writeRows, "task-row-writer");
+    this.writerThread.setDaemon(true);
+    this.writerThread.start();
+    return Validation.success(true);
+  }
+
+  /**
+   * Queue the row of a newly created task
+   * @return false when too many rows are already waiting
+   */
+  boolean recordCreated(UUID taskId, long createdAtMillis)
+  {
+    return this.enqueue(new TaskRow(taskId, createdAtMillis, true));
+  }
+
+  /**
+   * Queue marking a task's row as destroyed
+   * @return false when too many rows are already waiting
+   */
+  boolean recordDestroyed(UUID taskId, long destroyedAtMillis)
+  {
+    return this.enqueue(new TaskRow(taskId, destroyedAtMillis, false));
+  }
+
+  /**
+   * Stop the writer once every queued row was written (or a write
+   *  failed), waiting at most timeoutMs
+   * @return Validation of whether every row got written
+   */
+  public Validation<RuntimeException, Boolean> close(long timeoutMs)
+  {
+    Thread currentWriter;
+    synchronized (this) {
+      currentWriter = this.writerThread;
+    }
+    if (currentWriter == null) {
+      return Validation.fail(new IllegalStateException(
+              "Task row writer hasn't been started!"
+      ));
+    }
+
+    this.isWriting = false;
+    LockSupport.unpark(currentWriter);
+    try {
+      currentWriter.join(timeoutMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Validation.fail(new IllegalStateException(
+              "Interrupted while waiting for task rows to be written"
+      ));
+    }
+
+    if (currentWriter.isAlive() || this.pending.get() > 0) {
+      return Validation.fail(new IllegalStateException(
+              this.pending.get() + " task rows could not be written"
+      ));
+    }
+    return Validation.success(true);
+  }
+
+  public MetricRegistry getMetricRegistry()
+  {
+    return this.metricRegistry;
+  }
+
+  private boolean enqueue(TaskRow taskRow)
+  {
+    int waiting = this.pending.incrementAndGet();
+    if (waiting > this.maxPending) {
+      this.pending.decrementAndGet();
+      return false;
+    }
+
+    this.rows.offer(taskRow);
+    if (waiting == this.batchSize) {
+      Thread currentWriter = this.writerThread;
+      if (currentWriter != null) {
+        LockSupport.unpark(currentWriter);
+      }
+    }
+    return true;
+  }
+
+  private void writeRows()
+  {
+    List<TaskRow> created = new ArrayList<>(this.batchSize);
+    List<TaskRow> destroyed = new ArrayList<>(this.batchSize);
+    long retryBackoffMs = this.flushIntervalMs;
+    int attempts = 0;
+
+    while (true) {
+      boolean stopping = !this.isWriting;
+
+      // Failed rows from last time stay in the lists and go first
+      while (created.size() + destroyed.size() < this.batchSize) {
+        TaskRow taskRow = this.rows.poll();
+        if (taskRow == null) {
+          break;
+        }
+        (taskRow.created ? created : destroyed).add(taskRow);
+      }
+
+      if (created.isEmpty() && destroyed.isEmpty()) {
+        if (stopping) {
+          return;
+        }
+        LockSupport.parkNanos(
+                TimeUnit.MILLISECONDS.toNanos(this.flushIntervalMs)
+        );
+        continue;
+      }
+
+      // Inserts go before updates, which may refer to the inserted rows
+      Validation<RuntimeException, Long> written = this.write(created);
+      if (written.isSuccess()) {
+        written = this.write(destroyed);
+      }
+      if (written.isSuccess()) {
+        retryBackoffMs = this.flushIntervalMs;
+        attempts = 0;
+        if (this.rows.isEmpty() && !stopping) {
+          LockSupport.parkNanos(
+                  TimeUnit.MILLISECONDS.toNanos(this.flushIntervalMs)
+          );
+        }
+      }
+      else if (stopping) {
+        return;
+      }
+      // Set apart rows the table keeps rejecting from the rest, unless
+      //  the datastore became unavailable in the meantime
+      else if (isRejection(written.fail()) &&
+              ++attempts >= this.maxAttempts &&
+              this.writeEach(created) && this.writeEach(destroyed)) {
+        retryBackoffMs = this.flushIntervalMs;
+        attempts = 0;
+      }
+      else {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryBackoffMs));
+        retryBackoffMs = Math.min(MAX_RETRY_BACKOFF_MS, retryBackoffMs * 2);
+      }
+    }
+  }
+
+  /**
+   * Bulk write a batch of rows, clearing the batch if it succeeded
+   */
+  private Validation<RuntimeException, Long> write(List<TaskRow> batch)
+  {
+    if (batch.isEmpty()) {
+      return Validation.success(0L);
+    }
+
+    Timer.Context batchTime = this.batchTimer.time();
+    Validation<RuntimeException, Long> result;
+    try {
+      result = this.dataStore.bulkWrite(
+              batch.get(0).created ? INSERT_SQL : UPDATE_SQL,
+              batch.stream().map(this::parameters)
+      );
+    } catch (RuntimeException e) {
+      result = Validation.fail(e);
+    } finally {
+      batchTime.stop();
+    }
+
+    if (result.isFail()) {
+      this.batchFailures.mark();
+      this.logger.warn(
+              "Writing " + batch.size() + " task rows failed",
+              result.fail()
+      );
+      return result;
+    }
+
+    this.rowsWritten.mark(batch.size());
+    this.pending.addAndGet(-batch.size());
+    batch.clear();
+    return result;
+  }
+
+  /**
+   * Write every row of a batch on its own, dropping those the table
+   *  rejects. Stops at the first failure of any other kind, leaving the
+   *  rows not yet written in the batch.
+   * @return whether every row was written or dropped
+   */
+  private boolean writeEach(List<TaskRow> batch)
+  {
+    List<TaskRow> single = new ArrayList<>(1);
+    while (!batch.isEmpty()) {
+      TaskRow taskRow = batch.get(0);
+      single.add(taskRow);
+      Validation<RuntimeException, Long> written = this.write(single);
+      if (written.isFail()) {
+        single.clear();
+        if (!isRejection(written.fail())) {
+          return false;
+        }
+        this.rowsDropped.mark();
+        this.pending.decrementAndGet();
+        this.logger.error(
+                "Dropping the task row of " + taskRow.taskId + " after " +
+                        this.maxAttempts + " rejected writes"
+        );
+      }
+      batch.remove(0);
+    }
+    return true;
+  }
+
+  /**
+   * Whether a write failed on the data itself - a data exception (SQLState
+   *  class 22) or constraint violation (class 23) - rather than on the
+   *  datastore being unavailable
+   */
+  private static boolean isRejection(Throwable failure)
+  {
+    for (Throwable cause = failure; cause != null;
+         cause = cause.getCause()) {
+      if (!(cause instanceof SQLException)) {
+        continue;
+      }
+      for (SQLException sqlException = (SQLException) cause;
+           sqlException != null;
+           sqlException = sqlException.getNextException()) {
+        String sqlState = sqlException.getSQLState();
+        if (sqlState != null &&
+                (sqlState.startsWith("22") || sqlState.startsWith("23"))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Values of a row, in the order of its statement's placeholders
+   */
+  private QueryParameters parameters(TaskRow taskRow)
+  {
+    Instant at = Instant.ofEpochMilli(taskRow.atMillis);
+    if (taskRow.created) {
+      return new QueryParameters.Builder()
+              .addUuid(taskRow.taskId)
+              .addString(this.description)
+              .addTimestamp(at)
+              .build();
+    }
+    return new QueryParameters.Builder()
+            .addTimestamp(at)
+            .addUuid(taskRow.taskId)
+            .build();
+  }
+
+  /**
+   * Creation or destruction of a task, waiting to be written
+   */
+  private static final class TaskRow
+  {
+
+    private final UUID taskId;
+    private final long atMillis;
+    private final boolean created;
+
+    TaskRow(UUID taskId, long atMillis, boolean created)
+    {
+      this.taskId = taskId;
+      this.atMillis = atMillis;
+      this.created = created;
+    }
+
+  }
+
+}
@@ -0,0 +1,158 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fj.data.Validation;
+
+
+/**
+ * TaskManager generating task ids locally, without locks or any
+ *  coordination between instances. Ids are UUIDs (version 7 layout, so
+ *  they fit the task table's UUID column) ordered by creation time:
+ *
+ *   48 bits - epoch millis
+ *    4 bits - version (7)
+ *   12 bits - sequence within the millisecond
+ *    2 bits - variant
+ *   16 bits - node id, unique per running instance
+ *   22 bits - slot of the generating thread
+ *   24 bits - random
+ *
+ * Every thread owns a slot and its own clock/sequence, so threads never
+ *  contend and throughput grows with them. A thread issuing more than
+ *  4096 ids in a millisecond, or seeing the clock go back, borrows from
+ *  the next millisecond instead of repeating an id. Slots are reused
+ *  only after 4M threads.
+ *
+ * With a TaskRowWriter, created and destroyed ids are also recorded in
+ *  the task table, asynchronously and in batches. Thread-safe.
+ */
+public class TimeOrderedTaskManager implements TaskManager
+{
+
+  public static final int MAX_NODE_ID = 0xFFFF;
+
+  private static final int SEQUENCE_MASK = 0xFFF;
+  private static final int THREAD_SLOT_MASK = 0x3FFFFF;
+  private static final long VERSION = 0x7000L;
+  private static final long VARIANT = 0x8000000000000000L;
+
+  // Node id, already shifted into place
+  private final long nodeBits;
+
+  // Hands out thread slots
+  private final AtomicInteger threadSlots;
+
+  // Clock and sequence of each generating thread
+  private final ThreadLocal<ThreadClock> threadClocks;
+
+  // Records task rows, if ids should be persisted
+  private final TaskRowWriter rowWriter;
+
+  /**
+   * @param nodeId - id of this instance, 0 to MAX_NODE_ID
+   */
+  public TimeOrderedTaskManager(int nodeId)
+  {
+    this(nodeId, null);
+  }
+
+  /**
+   * @param nodeId - id of this instance, 0 to MAX_NODE_ID
+   * @param rowWriter - records created/destroyed task rows; may be null
+   */
+  public TimeOrderedTaskManager(int nodeId, TaskRowWriter rowWriter)
+  {
+    if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+      throw new IllegalArgumentException(
+              "nodeId must be between 0 and " + MAX_NODE_ID
+      );
+    }
+
+    this.nodeBits = (long) nodeId << 46;
+    this.threadSlots = new AtomicInteger(0);
+    this.threadClocks = ThreadLocal.withInitial(() -> new ThreadClock(
+            this.threadSlots.getAndIncrement() & THREAD_SLOT_MASK
+    ));
+    this.rowWriter = rowWriter;
+  }
+
+  public Validation<RuntimeException, String> generateId()
+  {
+    ThreadClock clock = this.threadClocks.get();
+    long now = System.currentTimeMillis();
+    if (now > clock.lastMillis) {
+      clock.lastMillis = now;
+      clock.sequence = 0;
+    }
+    else if (++clock.sequence > SEQUENCE_MASK) {
+      clock.lastMillis++;
+      clock.sequence = 0;
+    }
+
+    long mostSignificant =
+            (clock.lastMillis << 16) | VERSION | clock.sequence;
+    long leastSignificant = VARIANT | this.nodeBits |
+            ((long) clock.slot << 24) |
+            (ThreadLocalRandom.current().nextInt() & 0xFFFFFF);
+    UUID taskId = new UUID(mostSignificant, leastSignificant);
+
+    if (this.rowWriter != null &&
+            !this.rowWriter.recordCreated(taskId, clock.lastMillis)) {
+      return Validation.fail(new IllegalStateException(
+              "Too many task rows waiting to be written"
+      ));
+    }
+    return Validation.success(taskId.toString());
+  }
+
+  public Validation<RuntimeException, String> destroyId(String taskId)
+  {
+    Validation<RuntimeException, UUID> parsedId = TaskIds.parse(taskId);
+    if (parsedId.isFail()) {
+      return Validation.fail(parsedId.fail());
+    }
+
+    if (this.rowWriter != null &&
+            !this.rowWriter.recordDestroyed(
+                    parsedId.success(), System.currentTimeMillis()
+            )) {
+      return Validation.fail(new IllegalStateException(
+              "Too many task rows waiting to be written"
+      ));
+    }
+    return Validation.success(taskId);
+  }
+
+  /**
+   * Creation time encoded in an id generated by this class
+   * @param taskId - generated id
+   * @return epoch millis
+   */
+  public static long creationTimeOf(String taskId)
+  {
+    return UUID.fromString(taskId).getMostSignificantBits() >>> 16;
+  }
+
+  /**
+   * Per-thread generator state, only ever touched by its own thread
+   */
+  private static final class ThreadClock
+  {
+
+    private final int slot;
+    private long lastMillis;
+    private int sequence;
+
+    ThreadClock(int slot)
+    {
+      this.slot = slot;
+      this.lastMillis = 0;
+      this.sequence = 0;
+    }
+
+  }
+
+}
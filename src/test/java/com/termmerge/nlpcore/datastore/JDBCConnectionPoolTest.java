@@ -0,0 +1,216 @@
+package com.termmerge.nlpcore.datastore;
+
+import java.util.List;
+import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.stream.Stream;
+import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+
+import acolyte.jdbc.RowLists;
+import acolyte.jdbc.CompositeHandler;
+import acolyte.jdbc.StatementHandler;
+import com.codahale.metrics.Gauge;
+import fj.data.Validation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class JDBCConnectionPoolTest
+{
+
+  private Properties dataStoreProperties;
+  private PostgresDataStore postgresDataStore;
+
+  @Before
+  public void beforeEachSetupDB()
+  {
+    StatementHandler sqlHandler = new CompositeHandler()
+            .withQueryDetection("^SELECT")
+            .withQueryHandler((sql, parameters) ->
+                    sql.contains("empty") ?
+                            RowLists.stringList().asResult() :
+                            RowLists
+                                    .rowList2(String.class, String.class)
+                                    .append("row1_column1", "row1_column2")
+                                    .append("row2_column1", "row2_column2")
+                                    .asResult()
+            );
+    acolyte.jdbc.Driver.register("pooled", sqlHandler);
+
+    this.dataStoreProperties = new Properties();
+    this.dataStoreProperties.setProperty(
+            "connection_string",
+            "jdbc:acolyte:somePass?handler=pooled"
+    );
+    this.dataStoreProperties.setProperty("pool_size", "2");
+    this.dataStoreProperties.setProperty("pool_max_wait_ms", "100");
+    this.postgresDataStore = new PostgresDataStore();
+  }
+
+  @After
+  public void afterEachDisconnect()
+  {
+    this.postgresDataStore.disconnect();
+  }
+
+  @Test
+  public void testConnectionReturnedOnceRowsAreRead()
+  {
+    Assert.assertTrue(
+            this.postgresDataStore.connect(this.dataStoreProperties)
+                    .isSuccess()
+    );
+
+    Stream<?> rows = this.postgresDataStore
+            .query("SELECT * FROM table", row -> row[0])
+            .success();
+    Assert.assertEquals(1, this.gauge("pool.active"));
+
+    Assert.assertEquals(
+            2,
+            rows.collect(Collectors.toList()).size()
+    );
+    Assert.assertEquals(0, this.gauge("pool.active"));
+    Assert.assertEquals(1, this.gauge("pool.idle"));
+  }
+
+  @Test
+  public void testConnectionReturnedOnClose()
+  {
+    this.postgresDataStore.connect(this.dataStoreProperties);
+
+    Stream<?> rows = this.postgresDataStore
+            .query("SELECT * FROM table", row -> row[0])
+            .success();
+    Iterator<?> iterator = rows.iterator();
+    Assert.assertEquals("row1_column1", iterator.next());
+    Assert.assertEquals(1, this.gauge("pool.active"));
+
+    rows.close();
+    Assert.assertEquals(0, this.gauge("pool.active"));
+  }
+
+  @Test
+  public void testEmptyResult()
+  {
+    this.postgresDataStore.connect(this.dataStoreProperties);
+
+    Assert.assertEquals(
+            0,
+            this.postgresDataStore
+                    .query("SELECT * FROM empty", row -> row[0])
+                    .success()
+                    .count()
+    );
+    Assert.assertEquals(0, this.gauge("pool.active"));
+  }
+
+  @Test
+  public void testBorrowTimesOutWhenExhausted()
+  {
+    this.postgresDataStore.connect(this.dataStoreProperties);
+
+    List<Stream<?>> held = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      held.add(this.postgresDataStore
+              .query("SELECT * FROM table", row -> row[0])
+              .success());
+    }
+
+    Validation<RuntimeException, Stream<?>> exhausted =
+            this.postgresDataStore.query("SELECT * FROM table", row -> row);
+    Assert.assertTrue(exhausted.isFail());
+    Assert.assertEquals(
+            1,
+            this.postgresDataStore.getMetricRegistry()
+                    .meter("pool.timeouts").getCount()
+    );
+
+    held.get(0).close();
+    Assert.assertTrue(
+            this.postgresDataStore
+                    .query("SELECT * FROM table", row -> row)
+                    .isSuccess()
+    );
+  }
+
+  @Test
+  public void testConcurrentQueries() throws Exception
+  {
+    this.dataStoreProperties.setProperty("pool_max_wait_ms", "5000");
+    this.postgresDataStore.connect(this.dataStoreProperties);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<Long>> counts = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      counts.add(executor.submit(() -> this.postgresDataStore
+              .query("SELECT * FROM table", row -> row[1])
+              .success()
+              .count()
+      ));
+    }
+    for (Future<Long> count: counts) {
+      Assert.assertEquals(2L, (long) count.get());
+    }
+    executor.shutdown();
+    Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+    Assert.assertEquals(0, this.gauge("pool.active"));
+    Assert.assertTrue(this.gauge("pool.idle") <= 2);
+  }
+
+  @Test
+  public void testInvalidPoolSettings()
+  {
+    this.dataStoreProperties.setProperty("pool_size", "0");
+    Assert.assertTrue(
+            this.postgresDataStore.connect(this.dataStoreProperties)
+                    .isFail()
+    );
+
+    this.dataStoreProperties.setProperty("pool_size", "many");
+    Assert.assertTrue(
+            this.postgresDataStore.connect(this.dataStoreProperties)
+                    .isFail()
+    );
+  }
+
+  @Test
+  public void testReconnectAfterDisconnect()
+  {
+    Assert.assertTrue(
+            this.postgresDataStore.connect(this.dataStoreProperties)
+                    .isSuccess()
+    );
+    Assert.assertTrue(this.postgresDataStore.disconnect().isSuccess());
+    Assert.assertEquals(0, this.gauge("pool.idle"));
+
+    // The pool metrics now report the new pool
+    Assert.assertTrue(
+            this.postgresDataStore.connect(this.dataStoreProperties)
+                    .isSuccess()
+    );
+    Stream<?> rows = this.postgresDataStore
+            .query("SELECT * FROM table", row -> row[0])
+            .success();
+    Assert.assertEquals(1, this.gauge("pool.active"));
+    Assert.assertEquals(2, rows.count());
+    Assert.assertEquals(0, this.gauge("pool.active"));
+    Assert.assertEquals(1, this.gauge("pool.idle"));
+  }
+
+  private int gauge(String name)
+  {
+    Gauge<?> gauge =
+            this.postgresDataStore.getMetricRegistry().getGauges().get(name);
+    return (Integer) gauge.getValue();
+  }
+
+}
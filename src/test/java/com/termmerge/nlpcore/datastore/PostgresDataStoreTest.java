@@ -2,14 +2,23 @@ package com.termmerge.nlpcore.datastore;
 
 import java.util.function.Function;
 import java.util.stream.Stream;
+import java.util.stream.IntStream;
 
+import java.util.List;
+import java.util.UUID;
+import java.util.ArrayList;
 import java.util.Properties;
+import java.time.Instant;
+import java.sql.Timestamp;
+import java.sql.SQLException;
 
 import acolyte.jdbc.StatementHandler;
 
 import acolyte.jdbc.RowLists;
+import acolyte.jdbc.UpdateResult;
 import acolyte.jdbc.CompositeHandler;
 import fj.data.Validation;
+import com.codahale.metrics.MetricRegistry;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -24,20 +33,37 @@ public class PostgresDataStoreTest
   }
 
   private Properties dataStoreProperties;
+  private List<Object> boundValues;
+  private List<Object[]> writtenRows;
 
   @Before
   public void beforeEachSetupDB()
   {
+    this.boundValues = new ArrayList<>();
+    this.writtenRows = new ArrayList<>();
     StatementHandler sqlHandler = new CompositeHandler()
             .withQueryDetection("^SELECT")
-            .withQueryHandler((sql, parameters) ->
-                    RowLists
-                            .rowList2(String.class, String.class)
-                            .withLabel(1, "column1")
-                            .withLabel(2, "column2")
-                            .append("row1_column1", "row1_column2")
-                            .asResult()
-            );
+            .withQueryHandler((sql, parameters) -> {
+              parameters.forEach(parameter ->
+                      this.boundValues.add(parameter.right)
+              );
+              return RowLists
+                      .rowList2(String.class, String.class)
+                      .withLabel(1, "column1")
+                      .withLabel(2, "column2")
+                      .append("row1_column1", "row1_column2")
+                      .asResult();
+            })
+            .withUpdateHandler((sql, parameters) -> {
+              if (parameters.stream().anyMatch(p -> p.right == null)) {
+                throw new SQLException("null value in column \"task_id\"");
+              }
+              this.writtenRows.add(parameters.stream()
+                      .map(parameter -> parameter.right)
+                      .toArray()
+              );
+              return UpdateResult.One;
+            });
     acolyte.jdbc.Driver.register("testOne", sqlHandler);
 
     this.dataStoreProperties = new Properties();
@@ -122,4 +148,205 @@ public class PostgresDataStoreTest
     });
   }
 
+  @Test
+  public void testParameterizedQuery()
+  {
+    PostgresDataStore postgresDataStore = new PostgresDataStore();
+    Assert.assertTrue(
+            postgresDataStore.connect(this.dataStoreProperties).isSuccess()
+    );
+
+    UUID taskId = UUID.randomUUID();
+    Instant createdAt = Instant.ofEpochMilli(1480000000000L);
+    QueryParameters parameters = new QueryParameters.Builder()
+            .addUuid(taskId)
+            .addString("quorum")
+            .addInt(3)
+            .addLong(4L)
+            .addDouble(0.5)
+            .addBoolean(true)
+            .addTimestamp(createdAt)
+            .addString(null)
+            .build();
+    Assert.assertEquals(8, parameters.size());
+    Assert.assertEquals(QueryParameters.Type.UUID, parameters.typeAt(0));
+
+    Validation<RuntimeException, Stream<?>> queryValidation =
+            postgresDataStore.query(
+                    "SELECT * FROM task_parameter WHERE task_id = ? AND " +
+                            "key = ? AND ? < ? AND ? < 1 AND ? AND " +
+                            "created_at = ? AND value = ?",
+                    parameters,
+                    resultTuple -> resultTuple[0]
+            );
+    Assert.assertTrue(queryValidation.isSuccess());
+    Assert.assertEquals(1, queryValidation.success().count());
+
+    Assert.assertEquals(8, this.boundValues.size());
+    Assert.assertEquals(taskId, this.boundValues.get(0));
+    Assert.assertEquals("quorum", this.boundValues.get(1));
+    Assert.assertEquals(3, this.boundValues.get(2));
+    Assert.assertEquals(4L, this.boundValues.get(3));
+    Assert.assertEquals(0.5, this.boundValues.get(4));
+    Assert.assertEquals(true, this.boundValues.get(5));
+    Assert.assertEquals(
+            Timestamp.from(createdAt),
+            this.boundValues.get(6)
+    );
+    Assert.assertNull(this.boundValues.get(7));
+    postgresDataStore.disconnect();
+  }
+
+  @Test
+  public void testBulkWriteInBatches()
+  {
+    this.dataStoreProperties.setProperty("bulk_batch_size", "100");
+    this.dataStoreProperties.setProperty("bulk_flush_interval_ms", "60000");
+    PostgresDataStore postgresDataStore = new PostgresDataStore();
+    Assert.assertTrue(
+            postgresDataStore.connect(this.dataStoreProperties).isSuccess()
+    );
+
+    Validation<RuntimeException, Long> written = postgresDataStore.bulkWrite(
+            "INSERT INTO task_parameter (task_id, key, value) " +
+                    "VALUES (?, ?, ?)",
+            IntStream.range(0, 250).mapToObj(i ->
+                    new QueryParameters.Builder()
+                            .addString("task" + i)
+                            .addString("key")
+                            .addInt(i)
+                            .build()
+            )
+    );
+    Assert.assertTrue(written.isSuccess());
+    Assert.assertEquals(250L, (long) written.success());
+
+    Assert.assertEquals(250, this.writtenRows.size());
+    Assert.assertArrayEquals(
+            new Object[]{"task249", "key", 249},
+            this.writtenRows.get(249)
+    );
+    MetricRegistry metricRegistry = postgresDataStore.getMetricRegistry();
+    Assert.assertEquals(
+            250,
+            metricRegistry.meter("bulk.rows").getCount()
+    );
+    Assert.assertEquals(
+            3,
+            metricRegistry.timer("bulk.flush.latency").getCount()
+    );
+    postgresDataStore.disconnect();
+  }
+
+  @Test
+  public void testBulkWriteFlushesByTime()
+  {
+    this.dataStoreProperties.setProperty("bulk_flush_interval_ms", "0");
+    PostgresDataStore postgresDataStore = new PostgresDataStore();
+    postgresDataStore.connect(this.dataStoreProperties);
+
+    Assert.assertEquals(
+            5L,
+            (long) postgresDataStore.bulkWrite(
+                    "INSERT INTO task_parameter (task_id) VALUES (?)",
+                    IntStream.range(0, 5).mapToObj(i ->
+                            new QueryParameters.Builder().addInt(i).build()
+                    )
+            ).success()
+    );
+    Assert.assertEquals(
+            5,
+            postgresDataStore.getMetricRegistry()
+                    .timer("bulk.flush.latency").getCount()
+    );
+    postgresDataStore.disconnect();
+  }
+
+  @Test
+  public void testBulkWriteFailures()
+  {
+    PostgresDataStore postgresDataStore = new PostgresDataStore();
+    Assert.assertTrue(postgresDataStore.bulkWrite(
+            "INSERT INTO task_parameter (task_id) VALUES (?)",
+            Stream.of(new QueryParameters.Builder().addInt(1).build())
+    ).isFail());
+
+    this.dataStoreProperties.setProperty("bulk_batch_size", "0");
+    Assert.assertTrue(
+            postgresDataStore.connect(this.dataStoreProperties).isFail()
+    );
+
+    // COPY streams through the Postgres driver only
+    this.dataStoreProperties.setProperty("bulk_batch_size", "10");
+    postgresDataStore.connect(this.dataStoreProperties);
+    Assert.assertTrue(postgresDataStore.bulkWrite(
+            "COPY task_parameter (task_id) FROM STDIN",
+            Stream.of(new QueryParameters.Builder().addInt(1).build())
+    ).isFail());
+    postgresDataStore.disconnect();
+  }
+
+  @Test
+  public void testBulkWriteFailureLeavesStatementClean()
+  {
+    this.dataStoreProperties.setProperty("bulk_batch_size", "100");
+    this.dataStoreProperties.setProperty("bulk_flush_interval_ms", "60000");
+    PostgresDataStore postgresDataStore = new PostgresDataStore();
+    postgresDataStore.connect(this.dataStoreProperties);
+
+    // The second batch fails; the rows of the first are rolled back
+    Assert.assertTrue(postgresDataStore.bulkWrite(
+            "INSERT INTO task_parameter (task_id) VALUES (?)",
+            IntStream.range(0, 150).mapToObj(i ->
+                    new QueryParameters.Builder()
+                            .addInt(i == 149 ? null : i)
+                            .build()
+            )
+    ).isFail());
+
+    // The cached statement goes out again without the failed rows
+    this.writtenRows.clear();
+    Assert.assertEquals(
+            2L,
+            (long) postgresDataStore.bulkWrite(
+                    "INSERT INTO task_parameter (task_id) VALUES (?)",
+                    IntStream.range(0, 2).mapToObj(i ->
+                            new QueryParameters.Builder().addInt(i).build()
+                    )
+            ).success()
+    );
+    Assert.assertEquals(2, this.writtenRows.size());
+    Assert.assertEquals(
+            1,
+            postgresDataStore.getMetricRegistry()
+                    .meter("statements.hits").getCount()
+    );
+    postgresDataStore.disconnect();
+  }
+
+  @Test
+  public void testCopyRowFormat()
+  {
+    StringBuilder copyData = new StringBuilder();
+    PostgresDataStore.appendCopyRow(
+            copyData,
+            new QueryParameters.Builder()
+                    .addString("task")
+                    .addString(null)
+                    .addInt(3)
+                    .addString("tab\tand\nnewline\\")
+                    .addTimestamp(Instant.ofEpochMilli(1500))
+                    .build()
+    );
+    PostgresDataStore.appendCopyRow(
+            copyData,
+            new QueryParameters.Builder().addString("\r").build()
+    );
+    Assert.assertEquals(
+            "task\t\\N\t3\ttab\\tand\\nnewline\\\\\t" +
+                    "1970-01-01T00:00:01.500Z\n\\r\n",
+            copyData.toString()
+    );
+  }
+
 }
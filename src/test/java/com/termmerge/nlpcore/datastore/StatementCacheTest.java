@@ -0,0 +1,198 @@
+package com.termmerge.nlpcore.datastore;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+import acolyte.jdbc.RowLists;
+import acolyte.jdbc.CompositeHandler;
+import acolyte.jdbc.StatementHandler;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class StatementCacheTest
+{
+
+  private Connection connection;
+  private Meter hits;
+  private Meter misses;
+  private Meter evictions;
+
+  @Before
+  public void beforeEachSetupDB() throws Exception
+  {
+    StatementHandler sqlHandler = new CompositeHandler()
+            .withQueryDetection("^SELECT")
+            .withQueryHandler((sql, parameters) ->
+                    RowLists.stringList()
+                            .append(parameters.isEmpty() ?
+                                    sql : String.valueOf(
+                                            parameters.get(0).right
+                                    ))
+                            .asResult()
+            );
+    acolyte.jdbc.Driver.register("statements", sqlHandler);
+
+    this.connection = DriverManager.getConnection(
+            "jdbc:acolyte:somePass?handler=statements"
+    );
+    this.hits = new Meter();
+    this.misses = new Meter();
+    this.evictions = new Meter();
+  }
+
+  @Test
+  public void testReusesStatementsBySql() throws Exception
+  {
+    StatementCache statementCache = this.statementCache(4);
+
+    QueryLease firstLease = new QueryLease(() -> { });
+    PreparedStatement first =
+            statementCache.prepare(firstLease, "SELECT 1");
+    firstLease.close();
+    QueryLease secondLease = new QueryLease(() -> { });
+    PreparedStatement second =
+            statementCache.prepare(secondLease, "SELECT 1");
+    secondLease.close();
+
+    Assert.assertSame(first, second);
+    Assert.assertFalse(first.isClosed());
+    Assert.assertEquals(1, this.hits.getCount());
+    Assert.assertEquals(1, this.misses.getCount());
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws Exception
+  {
+    StatementCache statementCache = this.statementCache(2);
+
+    PreparedStatement first =
+            this.prepareAndRelease(statementCache, "SELECT 1");
+    PreparedStatement second =
+            this.prepareAndRelease(statementCache, "SELECT 2");
+    this.prepareAndRelease(statementCache, "SELECT 1");
+    this.prepareAndRelease(statementCache, "SELECT 3");
+
+    Assert.assertFalse(first.isClosed());
+    Assert.assertTrue(second.isClosed());
+    Assert.assertEquals(1, this.evictions.getCount());
+    Assert.assertNotSame(
+            second,
+            this.prepareAndRelease(statementCache, "SELECT 2")
+    );
+  }
+
+  @Test
+  public void testStatementInUseIsNotShared() throws Exception
+  {
+    StatementCache statementCache = this.statementCache(4);
+
+    QueryLease reading = new QueryLease(() -> { });
+    PreparedStatement cached = statementCache.prepare(reading, "SELECT 1");
+    QueryLease concurrent = new QueryLease(() -> { });
+    PreparedStatement fresh =
+            statementCache.prepare(concurrent, "SELECT 1");
+    Assert.assertNotSame(cached, fresh);
+
+    concurrent.close();
+    Assert.assertTrue(fresh.isClosed());
+    reading.close();
+    Assert.assertFalse(cached.isClosed());
+    Assert.assertSame(
+            cached,
+            this.prepareAndRelease(statementCache, "SELECT 1")
+    );
+  }
+
+  @Test
+  public void testStatementEvictedInUseClosedOnRelease() throws Exception
+  {
+    StatementCache statementCache = this.statementCache(1);
+
+    QueryLease reading = new QueryLease(() -> { });
+    PreparedStatement evicted =
+            statementCache.prepare(reading, "SELECT 1");
+    this.prepareAndRelease(statementCache, "SELECT 2");
+    Assert.assertFalse(evicted.isClosed());
+
+    reading.close();
+    Assert.assertTrue(evicted.isClosed());
+  }
+
+  @Test
+  public void testDataStoreBindsParametersToCachedStatements()
+  {
+    Properties properties = new Properties();
+    properties.setProperty(
+            "connection_string",
+            "jdbc:acolyte:somePass?handler=statements"
+    );
+    PostgresDataStore postgresDataStore = new PostgresDataStore();
+    Assert.assertTrue(postgresDataStore.connect(properties).isSuccess());
+
+    for (String word: new String[]{"quorum", "task"}) {
+      List<?> rows = postgresDataStore
+              .query(
+                      "SELECT * FROM task_parameter WHERE value = ?",
+                      new QueryParameters.Builder().addString(word).build(),
+                      row -> row[0]
+              )
+              .success()
+              .collect(Collectors.toList());
+      Assert.assertEquals(1, rows.size());
+      Assert.assertEquals(word, rows.get(0));
+    }
+
+    MetricRegistry metricRegistry = postgresDataStore.getMetricRegistry();
+    Assert.assertEquals(
+            0.5,
+            (Double) metricRegistry.getGauges()
+                    .get("statements.hit_rate").getValue(),
+            0.0
+    );
+    postgresDataStore.disconnect();
+  }
+
+  @Test
+  public void testInvalidCacheSize()
+  {
+    Properties properties = new Properties();
+    properties.setProperty(
+            "connection_string",
+            "jdbc:acolyte:somePass?handler=statements"
+    );
+    properties.setProperty("statement_cache_size", "-1");
+    Assert.assertTrue(new PostgresDataStore().connect(properties).isFail());
+  }
+
+  private StatementCache statementCache(int capacity)
+  {
+    return new StatementCache(
+            this.connection,
+            capacity,
+            this.hits,
+            this.misses,
+            this.evictions
+    );
+  }
+
+  private PreparedStatement prepareAndRelease(
+          StatementCache statementCache,
+          String sqlQuery
+  ) throws Exception
+  {
+    QueryLease queryLease = new QueryLease(() -> { });
+    PreparedStatement statement =
+            statementCache.prepare(queryLease, sqlQuery);
+    queryLease.close();
+    return statement;
+  }
+
+}
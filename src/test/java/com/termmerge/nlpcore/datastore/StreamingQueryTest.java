@@ -0,0 +1,400 @@
+package com.termmerge.nlpcore.datastore;
+
+import java.sql.Driver;
+import java.sql.Connection;
+import java.sql.Savepoint;
+import java.sql.SQLException;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLFeatureNotSupportedException;
+
+import java.util.List;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.Collectors;
+import java.util.logging.Logger;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import acolyte.jdbc.RowLists;
+import acolyte.jdbc.RowList1;
+import acolyte.jdbc.UpdateResult;
+import acolyte.jdbc.CompositeHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+public class StreamingQueryTest
+{
+
+  // Transaction and cursor calls seen by RecordingDriver connections
+  private static final List<String> CALLS = new CopyOnWriteArrayList<>();
+
+  private Properties dataStoreProperties;
+  private PostgresDataStore postgresDataStore;
+
+  @BeforeClass
+  public static void registerRecordingDriver() throws SQLException
+  {
+    DriverManager.registerDriver(new RecordingDriver());
+  }
+
+  @Before
+  public void beforeEachSetupDB()
+  {
+    acolyte.jdbc.Driver.register(
+            "streaming",
+            new CompositeHandler()
+                    .withQueryDetection("^SELECT")
+                    .withQueryHandler((sql, parameters) -> {
+                      if (sql.contains("missing")) {
+                        throw new SQLException("relation does not exist");
+                      }
+                      RowList1.Impl<String> rows = RowLists.stringList();
+                      for (int i = 0; i < 5; i++) {
+                        rows = rows.append("row" + i);
+                      }
+                      return rows.asResult();
+                    })
+                    .withUpdateHandler(
+                            (sql, parameters) -> UpdateResult.One
+                    )
+    );
+    CALLS.clear();
+
+    this.dataStoreProperties = new Properties();
+    this.dataStoreProperties.setProperty(
+            "connection_string",
+            "jdbc:recording:somePass?handler=streaming"
+    );
+    this.dataStoreProperties.setProperty("fetch_size", "2");
+    this.postgresDataStore = new PostgresDataStore();
+  }
+
+  @After
+  public void afterEachDisconnect()
+  {
+    this.postgresDataStore.disconnect();
+  }
+
+  @Test
+  public void testQueryStreamsThroughCursor()
+  {
+    Assert.assertTrue(
+            this.postgresDataStore.connect(this.dataStoreProperties)
+                    .isSuccess()
+    );
+
+    Stream<?> rows = this.postgresDataStore
+            .query("SELECT * FROM task", row -> row[0])
+            .success();
+    Assert.assertEquals(
+            Arrays.asList(
+                    "setAutoCommit(false)",
+                    "prepareStatement(1003, 1007)",
+                    "setFetchSize(2)"
+            ),
+            CALLS
+    );
+
+    Assert.assertEquals(5, rows.count());
+    Assert.assertEquals(
+            Arrays.asList("commit()", "setAutoCommit(true)"),
+            CALLS.subList(3, CALLS.size())
+    );
+  }
+
+  @Test
+  public void testStreamsShareSingleConnectionTransaction()
+  {
+    this.postgresDataStore.connect(this.dataStoreProperties);
+
+    Stream<?> first = this.postgresDataStore
+            .query("SELECT * FROM task", row -> row[0])
+            .success();
+    Stream<?> second = this.postgresDataStore
+            .query("SELECT * FROM task_parameter", row -> row[0])
+            .success();
+    Assert.assertEquals(1, this.count("setAutoCommit(false)"));
+
+    first.close();
+    Assert.assertEquals(0, this.count("commit()"));
+    Assert.assertEquals(5, second.count());
+    Assert.assertEquals(1, this.count("commit()"));
+    Assert.assertEquals(1, this.count("setAutoCommit(true)"));
+  }
+
+  @Test
+  public void testPooledStreamReleasedOnClose()
+  {
+    this.dataStoreProperties.setProperty("pool_size", "1");
+    this.postgresDataStore.connect(this.dataStoreProperties);
+
+    Stream<?> rows = this.postgresDataStore
+            .query("SELECT * FROM task", row -> row[0])
+            .success();
+    Iterator<?> iterator = rows.iterator();
+    Assert.assertEquals("row0", iterator.next());
+    Assert.assertEquals(0, this.count("commit()"));
+
+    rows.close();
+    Assert.assertEquals(1, this.count("commit()"));
+    Assert.assertEquals(
+            0,
+            this.postgresDataStore.getMetricRegistry().getGauges()
+                    .get("pool.active").getValue()
+    );
+    Assert.assertTrue(
+            this.postgresDataStore
+                    .query("SELECT * FROM task", row -> row[0])
+                    .isSuccess()
+    );
+  }
+
+  @Test
+  public void testTransactionCommitsOnceRead()
+  {
+    this.postgresDataStore.connect(this.dataStoreProperties);
+
+    Function<Object[], ?>[] mappers = new Function[]{
+            (Function<Object[], ?>) row -> row[0],
+            (Function<Object[], ?>) row -> row[0]
+    };
+    Stream<?> rows = this.postgresDataStore
+            .query(
+                    new String[]{"SELECT * FROM task", "SELECT 1"},
+                    mappers
+            )
+            .success();
+    Assert.assertEquals(0, this.count("commit()"));
+
+    Assert.assertEquals(10, rows.count());
+    Assert.assertEquals(1, this.count("commit()"));
+    Assert.assertEquals(
+            "setAutoCommit(true)",
+            CALLS.get(CALLS.size() - 1)
+    );
+  }
+
+  @Test
+  public void testWriteWhileStreamOpen()
+  {
+    this.postgresDataStore.connect(this.dataStoreProperties);
+
+    Stream<?> rows = this.postgresDataStore
+            .query("SELECT * FROM task", row -> row[0])
+            .success();
+    Iterator<?> iterator = rows.iterator();
+    Assert.assertEquals("row0", iterator.next());
+
+    // Committing the write would end the stream's cursor
+    Assert.assertTrue(this.postgresDataStore.bulkWrite(
+            "INSERT INTO task (id) VALUES (?)",
+            Stream.of(new QueryParameters.Builder().addInt(1).build())
+    ).isFail());
+    Assert.assertEquals(0, this.count("commit()"));
+    Assert.assertEquals(0, this.count("setAutoCommit(true)"));
+
+    int remaining = 0;
+    while (iterator.hasNext()) {
+      iterator.next();
+      remaining++;
+    }
+    Assert.assertEquals(4, remaining);
+    Assert.assertEquals(1, this.count("commit()"));
+
+    Assert.assertEquals(
+            1L,
+            (long) this.postgresDataStore.bulkWrite(
+                    "INSERT INTO task (id) VALUES (?)",
+                    Stream.of(new QueryParameters.Builder().addInt(1).build())
+            ).success()
+    );
+    Assert.assertEquals(2, this.count("commit()"));
+  }
+
+  @Test
+  public void testFailedQueryKeepsStreamTransaction()
+  {
+    this.postgresDataStore.connect(this.dataStoreProperties);
+
+    Stream<?> rows = this.postgresDataStore
+            .query("SELECT * FROM task", row -> row[0])
+            .success();
+
+    Function<Object[], ?>[] mappers = new Function[]{
+            (Function<Object[], ?>) row -> row[0],
+            (Function<Object[], ?>) row -> row[0]
+    };
+    Assert.assertTrue(this.postgresDataStore.query(
+            new String[]{"SELECT * FROM task", "SELECT * FROM missing"},
+            mappers
+    ).isFail());
+    Assert.assertTrue(this.postgresDataStore.query(
+            "SELECT * FROM missing",
+            row -> row[0]
+    ).isFail());
+
+    // Only the failed queries are rolled back, the stream reads on
+    Assert.assertEquals(2, this.count("setSavepoint()"));
+    Assert.assertEquals(2, this.count("rollback(savepoint)"));
+    Assert.assertEquals(0, this.count("rollback()"));
+    Assert.assertEquals(0, this.count("commit()"));
+    Assert.assertEquals(5, rows.count());
+    Assert.assertEquals(1, this.count("commit()"));
+  }
+
+  @Test
+  public void testWithoutFetchSizeResultsAreReadWhole()
+  {
+    this.dataStoreProperties.remove("fetch_size");
+    this.postgresDataStore.connect(this.dataStoreProperties);
+
+    Assert.assertEquals(
+            5,
+            this.postgresDataStore
+                    .query("SELECT * FROM task", row -> row[0])
+                    .success()
+                    .count()
+    );
+    Assert.assertEquals(
+            Arrays.asList("prepareStatement(1003, 1007)"),
+            CALLS
+    );
+  }
+
+  @Test
+  public void testInvalidFetchSize()
+  {
+    this.dataStoreProperties.setProperty("fetch_size", "-1");
+    Assert.assertTrue(
+            this.postgresDataStore.connect(this.dataStoreProperties)
+                    .isFail()
+    );
+  }
+
+  private long count(String call)
+  {
+    return CALLS.stream().filter(call::equals).count();
+  }
+
+  /**
+   * Proxy recording the transaction and cursor calls made on it, and on
+   *  the statements it prepares
+   */
+  private static <T> T recording(Class<T> type, T target)
+  {
+    return type.cast(Proxy.newProxyInstance(
+            StreamingQueryTest.class.getClassLoader(),
+            new Class<?>[]{type},
+            (proxy, method, args) -> {
+              Object[] arguments = args == null ? new Object[0] : args;
+              switch (method.getName()) {
+                case "setAutoCommit":
+                case "commit":
+                case "rollback":
+                case "setSavepoint":
+                case "releaseSavepoint":
+                case "setFetchSize":
+                  CALLS.add(method.getName() + Arrays.stream(arguments)
+                          .map(argument -> argument instanceof Savepoint ?
+                                  "savepoint" :
+                                  String.valueOf(argument))
+                          .collect(Collectors.joining(", ", "(", ")")));
+                  break;
+                case "prepareStatement":
+                  CALLS.add(method.getName() + Arrays.stream(arguments)
+                          .skip(1)
+                          .map(String::valueOf)
+                          .collect(Collectors.joining(", ", "(", ")")));
+                  break;
+                default:
+              }
+
+              Object result;
+              try {
+                result = method.invoke(target, args);
+              } catch (InvocationTargetException e) {
+                throw e.getCause();
+              }
+              return result instanceof PreparedStatement ?
+                      recording(
+                              PreparedStatement.class,
+                              (PreparedStatement) result
+                      ) :
+                      result;
+            }
+    ));
+  }
+
+  /**
+   * Driver for "jdbc:recording:" URLs, handing out recording proxies of
+   *  the Acolyte connection at the same URL
+   */
+  public static class RecordingDriver implements Driver
+  {
+
+    @Override
+    public Connection connect(
+            String url,
+            Properties info
+    ) throws SQLException
+    {
+      if (!this.acceptsURL(url)) {
+        return null;
+      }
+      return recording(Connection.class, DriverManager.getConnection(
+              url.replace("jdbc:recording:", "jdbc:acolyte:"), info
+      ));
+    }
+
+    @Override
+    public boolean acceptsURL(String url)
+    {
+      return url.startsWith("jdbc:recording:");
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(
+            String url,
+            Properties info
+    )
+    {
+      return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion()
+    {
+      return 1;
+    }
+
+    @Override
+    public int getMinorVersion()
+    {
+      return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant()
+    {
+      return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException
+    {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+  }
+
+}
@@ -0,0 +1,224 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.Map;
+import java.util.List;
+
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import fj.data.Validation;
+import org.junit.Assert;
+
+
+public class InMemoryMessageBusTest
+{
+
+  private static final String CONNECTION_STRING = "memory://test";
+  private static final int KEYS = 8;
+  private static final int RECORDS_PER_KEY = 200;
+
+  @After
+  public void destroyBus()
+  {
+    InMemoryMessageBus.destroy(CONNECTION_STRING);
+  }
+
+  private static Properties settings(String groupId)
+  {
+    Properties settings = new Properties();
+    settings.setProperty("connection_string", CONNECTION_STRING);
+    settings.setProperty("partitions", "4");
+    settings.setProperty("group_id", groupId);
+    return settings;
+  }
+
+  @Test
+  public void testMissingGroupFails()
+  {
+    Properties settings = settings("_");
+    settings.remove("group_id");
+    Assert.assertTrue(
+            new InMemoryMessageBusConsumer().connect(settings).isFail()
+    );
+  }
+
+  @Test
+  public void testOversizedPartitionCapacityFails()
+  {
+    Properties settings = settings("_");
+    settings.setProperty(
+            "partition_capacity", String.valueOf((1 << 30) + 1)
+    );
+    Assert.assertTrue(
+            new InMemoryMessageBusConsumer().connect(settings).isFail()
+    );
+  }
+
+  @Test
+  public void testPartitionOrderingKept() throws InterruptedException
+  {
+    InMemoryMessageBusProducer producer = new InMemoryMessageBusProducer();
+    Assert.assertTrue(producer.connect(settings("_")).isSuccess());
+
+    Properties consumerSettings = settings("ordering");
+    consumerSettings.setProperty("consumer_threads", "3");
+    InMemoryMessageBusConsumer consumer = new InMemoryMessageBusConsumer();
+    Assert.assertTrue(consumer.connect(consumerSettings).isSuccess());
+
+    Map<String, List<Integer>> valuesByKey =
+            Collections.synchronizedMap(new HashMap<>());
+    CountDownLatch received = new CountDownLatch(KEYS * RECORDS_PER_KEY);
+    consumer.addListener(record -> {
+      Properties properties = record.success();
+      valuesByKey
+              .computeIfAbsent(
+                      properties.getProperty("key"),
+                      key -> Collections.synchronizedList(new ArrayList<>())
+              )
+              .add(Integer.parseInt(properties.getProperty("value")));
+      received.countDown();
+    });
+    consumer.listenToMessageBus("orderingTopic");
+
+    for (int value = 0; value < RECORDS_PER_KEY; value++) {
+      for (int key = 0; key < KEYS; key++) {
+        producer.publishToMessageBus(
+                "orderingTopic",
+                "key" + key,
+                Validation.success(Integer.toString(value))
+        );
+      }
+    }
+
+    Assert.assertTrue(received.await(10, TimeUnit.SECONDS));
+    Assert.assertTrue(consumer.disconnect().isSuccess());
+    Assert.assertEquals(KEYS, valuesByKey.size());
+    for (List<Integer> values : valuesByKey.values()) {
+      Assert.assertEquals(RECORDS_PER_KEY, values.size());
+      for (int value = 0; value < RECORDS_PER_KEY; value++) {
+        Assert.assertEquals(value, (int) values.get(value));
+      }
+    }
+  }
+
+  @Test
+  public void testGroupsReadIndependently() throws InterruptedException
+  {
+    InMemoryMessageBusProducer producer = new InMemoryMessageBusProducer();
+    Assert.assertTrue(producer.connect(settings("_")).isSuccess());
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals(
+              (long) i / 4,
+              (long) producer.publishToMessageBus(
+                      "groupTopic", null, new byte[]{(byte) i}
+              ).join().success()
+      );
+    }
+
+    CountDownLatch received = new CountDownLatch(20);
+    List<InMemoryMessageBusConsumer> consumers = new ArrayList<>();
+    for (String groupId : new String[]{"first", "second"}) {
+      InMemoryMessageBusConsumer consumer = new InMemoryMessageBusConsumer();
+      Assert.assertTrue(consumer.connect(settings(groupId)).isSuccess());
+      consumer.addRecordListener(records -> {
+        for (MessageBusRecord record : records.success()) {
+          Assert.assertEquals("groupTopic", record.getTopic());
+          Assert.assertNull(record.getKeyBytes());
+          received.countDown();
+        }
+      });
+      consumer.listenToMessageBus("groupTopic");
+      consumers.add(consumer);
+    }
+
+    Assert.assertTrue(received.await(10, TimeUnit.SECONDS));
+    for (InMemoryMessageBusConsumer consumer : consumers) {
+      Assert.assertTrue(consumer.disconnect().isSuccess());
+    }
+  }
+
+  @Test
+  public void testNullPayloadPublished() throws InterruptedException
+  {
+    InMemoryMessageBusProducer producer = new InMemoryMessageBusProducer();
+    Assert.assertTrue(producer.connect(settings("_")).isSuccess());
+    Assert.assertTrue(
+            producer.publishToMessageBus(
+                    "nullTopic", "key", Validation.success(null)
+            ).join().isSuccess()
+    );
+
+    // Like a Kafka tombstone, the record arrives without a value
+    CountDownLatch received = new CountDownLatch(1);
+    InMemoryMessageBusConsumer consumer = new InMemoryMessageBusConsumer();
+    Assert.assertTrue(consumer.connect(settings("nullTest")).isSuccess());
+    consumer.addRecordListener(records -> {
+      for (MessageBusRecord record : records.success()) {
+        Assert.assertNull(record.getValueBytes());
+        received.countDown();
+      }
+    });
+    consumer.listenToMessageBus("nullTopic");
+
+    Assert.assertTrue(received.await(10, TimeUnit.SECONDS));
+    Assert.assertTrue(consumer.disconnect().isSuccess());
+  }
+
+  @Test
+  public void testLaggingReaderSkipsOverwrittenRecords()
+  {
+    InMemoryPartitionLog partitionLog =
+            new InMemoryPartitionLog("topic", 0, 4);
+    for (int i = 0; i < 10; i++) {
+      partitionLog.append(null, new byte[]{(byte) i});
+    }
+
+    List<MessageBusRecord> records = new ArrayList<>();
+    Assert.assertEquals(10, partitionLog.read(0, 100, records));
+    Assert.assertEquals(4, records.size());
+    Assert.assertEquals(6, records.get(0).getOffset());
+    Assert.assertEquals(9, records.get(3).getOffset());
+  }
+
+  @Test
+  public void testConcurrentProducersWrappingRing()
+          throws InterruptedException
+  {
+    InMemoryPartitionLog partitionLog =
+            new InMemoryPartitionLog("topic", 0, 4);
+    List<Thread> producers = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      producers.add(new Thread(() -> {
+        for (int j = 0; j < 50000; j++) {
+          partitionLog.append(null, null);
+        }
+      }));
+    }
+    for (Thread producer : producers) {
+      producer.start();
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+
+    // Every slot ends up holding the newest record of its offsets
+    List<MessageBusRecord> records = new ArrayList<>();
+    long endOffset = partitionLog.endOffset();
+    Assert.assertEquals(
+            endOffset,
+            partitionLog.read(endOffset - 4, 100, records)
+    );
+    Assert.assertEquals(4, records.size());
+    for (int i = 0; i < 4; i++) {
+      Assert.assertEquals(endOffset - 4 + i, records.get(i).getOffset());
+    }
+  }
+
+}
@@ -0,0 +1,269 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Set;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.github.charithe.kafka.KafkaJunitRule;
+import com.github.charithe.kafka.EphemeralKafkaBroker;
+import org.slf4j.LoggerFactory;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.Assert;
+
+
+public class KafkaMessageBusConsumerParallelTest
+{
+
+  private static final int PARTITIONS = 4;
+  private static final int KEYS = 8;
+  private static final int RECORDS_PER_KEY = 50;
+  private static final int MAX_ROUNDS = 600;
+  private static final long ROUND_INTERVAL_MS = 50;
+  private static final int THROUGHPUT_RECORDS = 2000;
+  private static final long RECORD_WORK_MS = 2;
+  private static final long AWAIT_TIMEOUT_MS = 60000;
+
+  @ClassRule
+  public static KafkaJunitRule kafkaRule =
+          new KafkaJunitRule(
+                  EphemeralKafkaBroker.create(-1, -1, brokerProperties())
+          );
+
+  private static Properties brokerProperties()
+  {
+    Properties brokerProperties = new Properties();
+    brokerProperties.setProperty(
+            "num.partitions",
+            Integer.toString(PARTITIONS)
+    );
+    return brokerProperties;
+  }
+
+  @Test
+  public void testInvalidConsumerThreadsFail()
+  {
+    Properties settings = new Properties();
+    settings.setProperty(
+            "connection_string",
+            "localhost:" + Integer.toString(
+                    kafkaRule.helper().kafkaPort()
+            )
+    );
+    settings.setProperty("group_id", "_");
+    settings.setProperty("consumer_threads", "none");
+
+    KafkaMessageBusConsumer kafkaMessageBusConsumer =
+            new KafkaMessageBusConsumer();
+    Assert.assertTrue(
+            kafkaMessageBusConsumer.connect(settings).isFail()
+    );
+  }
+
+  @Test
+  public void testPartitionOrderingKept() throws Throwable
+  {
+    // Publish an ascending sequence of values for every key
+    KafkaProducer<String, String> testProducer = createProducer();
+    int rounds = 0;
+    while (rounds < RECORDS_PER_KEY) {
+      publishRound(testProducer, rounds++);
+    }
+
+    KafkaMessageBusConsumer kafkaMessageBusConsumer =
+            connectConsumer("parallelTest", PARTITIONS);
+
+    // Every key must be seen in ascending order, whichever thread runs it
+    Map<String, List<Integer>> valuesPerKey = new HashMap<>();
+    Set<String> deliveringThreads = new HashSet<>();
+    AtomicInteger recordCount = new AtomicInteger(0);
+    AtomicInteger failureCount = new AtomicInteger(0);
+    kafkaMessageBusConsumer.addListener((validationObject) -> {
+      if (validationObject.isFail()) {
+        failureCount.incrementAndGet();
+        return;
+      }
+
+      Properties record = validationObject.success();
+      synchronized (deliveringThreads) {
+        deliveringThreads.add(Thread.currentThread().getName());
+        valuesPerKey.computeIfAbsent(
+                record.getProperty("key"),
+                key -> new ArrayList<>()
+        ).add(Integer.parseInt(record.getProperty("value")));
+      }
+      recordCount.incrementAndGet();
+    });
+    kafkaMessageBusConsumer.listenToMessageBus("parallelTopic");
+
+    // Members join the group one at a time and the first one is assigned
+    //  every partition until the group rebalances, so values keep being
+    //  published until each member delivered records
+    while (threadCount(deliveringThreads) < PARTITIONS &&
+            rounds < MAX_ROUNDS) {
+      publishRound(testProducer, rounds++);
+      Thread.sleep(ROUND_INTERVAL_MS);
+    }
+    testProducer.close();
+
+    awaitRecords(recordCount, KEYS * rounds);
+    kafkaMessageBusConsumer.disconnect();
+
+    Assert.assertEquals(0, failureCount.get());
+    Assert.assertEquals(KEYS, valuesPerKey.size());
+    for (List<Integer> values : valuesPerKey.values()) {
+      for (int value = 0; value < rounds; value++) {
+        Assert.assertEquals(value, (int) values.get(value));
+      }
+    }
+    Assert.assertEquals(PARTITIONS, threadCount(deliveringThreads));
+  }
+
+  @Test
+  public void testThroughputOneVersusManyThreads() throws Throwable
+  {
+    KafkaProducer<String, String> testProducer = createProducer();
+    for (int i = 0; i < THROUGHPUT_RECORDS; i++) {
+      testProducer.send(new ProducerRecord<>(
+              "throughputTopic",
+              "key" + i,
+              Integer.toString(i)
+      ));
+    }
+    testProducer.close();
+
+    long singleMillis = timeToConsume("throughputSingle", 1);
+    long parallelMillis = timeToConsume("throughputParallel", PARTITIONS);
+
+    // Reported rather than asserted: the speedup depends on the cores and
+    //  on how long the group takes to rebalance as its members join
+    LoggerFactory.getLogger(KafkaMessageBusConsumerParallelTest.class).info(
+            THROUGHPUT_RECORDS + " records with " + RECORD_WORK_MS +
+                    "ms of listener work each: 1 thread took " +
+                    singleMillis + "ms, " + PARTITIONS + " threads took " +
+                    parallelMillis + "ms"
+    );
+  }
+
+  /**
+   * Consume the whole throughput topic as a new consumer group, with a
+   *  listener that spends a fixed time on every record
+   * @return milliseconds from subscribing until every record was received
+   */
+  private static long timeToConsume(
+          String groupId,
+          int consumerThreads
+  ) throws InterruptedException
+  {
+    KafkaMessageBusConsumer kafkaMessageBusConsumer =
+            connectConsumer(groupId, consumerThreads);
+
+    Set<String> deliveringThreads = new HashSet<>();
+    AtomicInteger recordCount = new AtomicInteger(0);
+    kafkaMessageBusConsumer.addListener((validationObject) -> {
+      synchronized (deliveringThreads) {
+        deliveringThreads.add(Thread.currentThread().getName());
+      }
+      try {
+        Thread.sleep(RECORD_WORK_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      recordCount.incrementAndGet();
+    });
+
+    long startMillis = System.currentTimeMillis();
+    kafkaMessageBusConsumer.listenToMessageBus("throughputTopic");
+    awaitRecords(recordCount, THROUGHPUT_RECORDS);
+    long elapsedMillis = System.currentTimeMillis() - startMillis;
+    kafkaMessageBusConsumer.disconnect();
+
+    Assert.assertTrue(threadCount(deliveringThreads) <= consumerThreads);
+    return elapsedMillis;
+  }
+
+  /**
+   * Producer retrying its sends, which would otherwise be dropped while
+   *  the topic they create gets its partition leaders
+   */
+  private static KafkaProducer<String, String> createProducer()
+  {
+    Properties producerSettings = new Properties();
+    producerSettings.setProperty("retries", "10");
+    producerSettings.setProperty(
+            "max.in.flight.requests.per.connection",
+            "1"
+    );
+    return kafkaRule.helper().createStringProducer(producerSettings);
+  }
+
+  private static void publishRound(
+          KafkaProducer<String, String> testProducer,
+          int value
+  )
+  {
+    for (int key = 0; key < KEYS; key++) {
+      testProducer.send(new ProducerRecord<>(
+              "parallelTopic",
+              "key" + key,
+              Integer.toString(value)
+      ));
+    }
+    testProducer.flush();
+  }
+
+  private static KafkaMessageBusConsumer connectConsumer(
+          String groupId,
+          int consumerThreads
+  )
+  {
+    Properties consumerSettings = new Properties();
+    consumerSettings.setProperty(
+            "connection_string",
+            "localhost:" + Integer.toString(
+                    kafkaRule.helper().kafkaPort()
+            )
+    );
+    consumerSettings.setProperty("group_id", groupId);
+    consumerSettings.setProperty(
+            "consumer_threads",
+            Integer.toString(consumerThreads)
+    );
+    KafkaMessageBusConsumer kafkaMessageBusConsumer =
+            new KafkaMessageBusConsumer();
+    Assert.assertTrue(
+            kafkaMessageBusConsumer.connect(consumerSettings).isSuccess()
+    );
+    return kafkaMessageBusConsumer;
+  }
+
+  private static void awaitRecords(
+          AtomicInteger recordCount,
+          int expectedCount
+  ) throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT_MS;
+    while (recordCount.get() < expectedCount &&
+            System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(expectedCount, recordCount.get());
+  }
+
+  private static int threadCount(Set<String> deliveringThreads)
+  {
+    synchronized (deliveringThreads) {
+      return deliveringThreads.size();
+    }
+  }
+
+}
@@ -1,6 +1,15 @@
 package com.termmerge.nlpcore.messagebus;
 
+import java.util.List;
+import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Properties;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import com.codahale.metrics.Gauge;
+import fj.data.Validation;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.ClassRule;
 import org.junit.Test;
@@ -8,8 +17,11 @@ import org.junit.Test;
 import com.github.charithe.kafka.KafkaJunitRule;
 import com.github.charithe.kafka.EphemeralKafkaBroker;
 import net.jodah.concurrentunit.Waiter;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.junit.Assert;
 
 
@@ -81,4 +93,338 @@ public class KafkaMessageBusConsumerTest
     waiter.await(1000);
   }
 
+  @Test
+  public void testBatchOfMessages() throws Throwable
+  {
+    Waiter waiter = new Waiter();
+
+    // Create a Producer and publish a handful of messages
+    KafkaProducer<String, String> testProducer =
+            kafkaRule.helper().createStringProducer();
+    for (int i = 0; i < 3; i++) {
+      testProducer.send(
+              new ProducerRecord<>("batchTopic", "key" + i, "value" + i)
+      );
+    }
+    testProducer.flush();
+
+    // Create a Consumer
+    Properties consumerSettings = new Properties();
+    consumerSettings.setProperty(
+            "connection_string",
+            "localhost:" + Integer.toString(
+                    kafkaRule.helper().kafkaPort()
+            )
+    );
+    consumerSettings.setProperty("group_id", "batchTest");
+    KafkaMessageBusConsumer kafkaMessageBusConsumer =
+            new KafkaMessageBusConsumer();
+    Assert.assertTrue(
+            kafkaMessageBusConsumer.connect(consumerSettings).isSuccess()
+    );
+
+    // Batches arrive in order and cannot be modified by listeners
+    AtomicInteger recordCount = new AtomicInteger(0);
+    kafkaMessageBusConsumer.addBatchListener((validationObject) -> {
+      waiter.assertTrue(validationObject.isSuccess());
+
+      List<Properties> batch = validationObject.success();
+      try {
+        batch.clear();
+        waiter.fail("Batch handed to listeners must be immutable");
+      } catch (UnsupportedOperationException e) {
+        // Expected
+      }
+
+      for (Properties record : batch) {
+        int index = recordCount.getAndIncrement();
+        waiter.assertEquals(record.getProperty("key"), "key" + index);
+        waiter.assertEquals(record.getProperty("value"), "value" + index);
+      }
+      if (recordCount.get() == 3) {
+        waiter.resume();
+      }
+    });
+    kafkaMessageBusConsumer.listenToMessageBus("batchTopic");
+
+    waiter.await(5000);
+    kafkaMessageBusConsumer.disconnect();
+  }
+
+  @Test
+  public void testBackpressurePausesPolling() throws Throwable
+  {
+    Waiter waiter = new Waiter();
+
+    KafkaProducer<String, String> testProducer =
+            kafkaRule.helper().createStringProducer();
+    for (int i = 0; i < 100; i++) {
+      testProducer.send(
+              new ProducerRecord<>("backpressureTopic", "key", "value" + i)
+      );
+    }
+    testProducer.flush();
+
+    // A tiny buffer in front of a slow listener
+    Properties consumerSettings = new Properties();
+    consumerSettings.setProperty(
+            "connection_string",
+            "localhost:" + Integer.toString(
+                    kafkaRule.helper().kafkaPort()
+            )
+    );
+    consumerSettings.setProperty("group_id", "backpressureTest");
+    consumerSettings.setProperty("buffer_capacity", "10");
+    consumerSettings.setProperty("buffer_high_watermark", "8");
+    consumerSettings.setProperty("buffer_low_watermark", "2");
+    KafkaMessageBusConsumer kafkaMessageBusConsumer =
+            new KafkaMessageBusConsumer();
+    Assert.assertTrue(
+            kafkaMessageBusConsumer.connect(consumerSettings).isSuccess()
+    );
+
+    Gauge bufferDepth = kafkaMessageBusConsumer
+            .getMetricRegistry()
+            .getGauges()
+            .get("buffer.depth");
+    AtomicInteger recordCount = new AtomicInteger(0);
+    kafkaMessageBusConsumer.addBatchListener((validationObject) -> {
+      waiter.assertTrue(validationObject.isSuccess());
+      waiter.assertTrue((Integer) bufferDepth.getValue() <= 10);
+      try {
+        Thread.sleep(20);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      int received = recordCount.addAndGet(
+              validationObject.success().size()
+      );
+      if (received == 100) {
+        waiter.resume();
+      }
+    });
+    kafkaMessageBusConsumer.listenToMessageBus("backpressureTopic");
+
+    waiter.await(10000);
+    kafkaMessageBusConsumer.disconnect();
+    Assert.assertTrue(
+            kafkaMessageBusConsumer
+                    .getMetricRegistry()
+                    .timer("poll.paused")
+                    .getCount() > 0
+    );
+  }
+
+  @Test
+  public void testIdleCpuAndShutdownLatency() throws Throwable
+  {
+    Properties consumerSettings = new Properties();
+    consumerSettings.setProperty(
+            "connection_string",
+            "localhost:" + Integer.toString(
+                    kafkaRule.helper().kafkaPort()
+            )
+    );
+    consumerSettings.setProperty("group_id", "idleTest");
+    consumerSettings.setProperty("poll_timeout_max_ms", "2000");
+    KafkaMessageBusConsumer kafkaMessageBusConsumer =
+            new KafkaMessageBusConsumer();
+    Assert.assertTrue(
+            kafkaMessageBusConsumer.connect(consumerSettings).isSuccess()
+    );
+
+    Validation<RuntimeException, Long> threadValidation =
+            kafkaMessageBusConsumer.listenToMessageBus("idleTopic");
+    Assert.assertTrue(threadValidation.isSuccess());
+    long pollingThreadId = threadValidation.success();
+
+    // Let the poll timeout back off, then sample CPU use on the idle topic
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    Thread.sleep(3000);
+    long cpuStart = threadMXBean.getThreadCpuTime(pollingThreadId);
+    long wallStart = System.nanoTime();
+    Thread.sleep(2000);
+    long cpuUsed = threadMXBean.getThreadCpuTime(pollingThreadId) - cpuStart;
+    long wallElapsed = System.nanoTime() - wallStart;
+    Assert.assertTrue(
+            "Idle poller used " + cpuUsed + "ns CPU in " + wallElapsed + "ns",
+            cpuUsed < wallElapsed / 20
+    );
+
+    // Disconnect wakes the poller mid-poll instead of waiting it out
+    long shutdownStart = System.nanoTime();
+    Assert.assertTrue(kafkaMessageBusConsumer.disconnect().isSuccess());
+    long shutdownMillis = (System.nanoTime() - shutdownStart) / 1000000;
+    Assert.assertTrue(
+            "Shutdown took " + shutdownMillis + "ms",
+            shutdownMillis < 1500
+    );
+    Assert.assertNull(threadMXBean.getThreadInfo(pollingThreadId));
+  }
+
+  @Test
+  public void testAcknowledgedOffsetsCommitted() throws Throwable
+  {
+    KafkaProducer<String, String> testProducer =
+            kafkaRule.helper().createStringProducer();
+    for (int i = 0; i < 10; i++) {
+      testProducer.send(
+              new ProducerRecord<>("ackTopic", "key", Integer.toString(i))
+      );
+    }
+    testProducer.flush();
+
+    Properties consumerSettings = new Properties();
+    consumerSettings.setProperty(
+            "connection_string",
+            "localhost:" + Integer.toString(
+                    kafkaRule.helper().kafkaPort()
+            )
+    );
+    consumerSettings.setProperty("group_id", "ackTest");
+    consumerSettings.setProperty("commit_mode", "acknowledge");
+    consumerSettings.setProperty("commit_batch_size", "1");
+
+    // Only the first half of the records gets acknowledged
+    Waiter waiter = new Waiter();
+    KafkaMessageBusConsumer kafkaMessageBusConsumer =
+            new KafkaMessageBusConsumer();
+    Assert.assertTrue(
+            kafkaMessageBusConsumer.connect(consumerSettings).isSuccess()
+    );
+    kafkaMessageBusConsumer.addListener((validationObject) -> {
+      Properties record = validationObject.success();
+      int value = Integer.parseInt(record.getProperty("value"));
+      if (value < 5) {
+        waiter.assertTrue(
+                kafkaMessageBusConsumer.acknowledge(record).success()
+        );
+      }
+      if (value == 9) {
+        waiter.resume();
+      }
+    });
+    kafkaMessageBusConsumer.listenToMessageBus("ackTopic");
+    waiter.await(5000);
+    Assert.assertTrue(kafkaMessageBusConsumer.disconnect().isSuccess());
+
+    // The group would resume at the first unacknowledged record
+    Properties offsetReaderSettings = new Properties();
+    offsetReaderSettings.setProperty("group.id", "ackTest");
+    KafkaConsumer<String, String> offsetReader =
+            kafkaRule.helper().createStringConsumer(offsetReaderSettings);
+    OffsetAndMetadata committed =
+            offsetReader.committed(new TopicPartition("ackTopic", 0));
+    offsetReader.close();
+    Assert.assertEquals(5, committed.offset());
+  }
+
+  @Test
+  public void testFailingListenerKeepsDelivering() throws Throwable
+  {
+    KafkaProducer<String, String> testProducer =
+            kafkaRule.helper().createStringProducer();
+    testProducer.send(
+            new ProducerRecord<>("failingTopic", "key", "fail")
+    );
+    testProducer.flush();
+
+    Properties consumerSettings = new Properties();
+    consumerSettings.setProperty(
+            "connection_string",
+            "localhost:" + Integer.toString(
+                    kafkaRule.helper().kafkaPort()
+            )
+    );
+    consumerSettings.setProperty("group_id", "failingTest");
+    KafkaMessageBusConsumer kafkaMessageBusConsumer =
+            new KafkaMessageBusConsumer();
+    Assert.assertTrue(
+            kafkaMessageBusConsumer.connect(consumerSettings).isSuccess()
+    );
+
+    // The listener throws on the first record only
+    Waiter waiter = new Waiter();
+    kafkaMessageBusConsumer.addListener((validationObject) -> {
+      String value = validationObject.success().getProperty("value");
+      waiter.resume();
+      if (value.equals("fail")) {
+        throw new IllegalStateException("Listener failure");
+      }
+    });
+    kafkaMessageBusConsumer.listenToMessageBus("failingTopic");
+    waiter.await(5000);
+
+    // Records polled after the failure are still delivered
+    for (int i = 0; i < 3; i++) {
+      testProducer.send(
+              new ProducerRecord<>("failingTopic", "key", "value" + i)
+      );
+    }
+    testProducer.flush();
+    waiter.await(5000, 3);
+
+    Assert.assertTrue(kafkaMessageBusConsumer.disconnect().isSuccess());
+    Assert.assertEquals(
+            1,
+            kafkaMessageBusConsumer
+                    .getMetricRegistry()
+                    .counter("dispatch.failures")
+                    .getCount()
+    );
+  }
+
+  @Test
+  public void testRecordListenerGetsRawBytes() throws Throwable
+  {
+    Waiter waiter = new Waiter();
+
+    KafkaProducer<String, String> testProducer =
+            kafkaRule.helper().createStringProducer();
+    testProducer.send(
+            new ProducerRecord<>("recordTopic", "testKey", "testValue")
+    );
+    testProducer.flush();
+
+    Properties consumerSettings = new Properties();
+    consumerSettings.setProperty(
+            "connection_string",
+            "localhost:" + Integer.toString(
+                    kafkaRule.helper().kafkaPort()
+            )
+    );
+    consumerSettings.setProperty("group_id", "recordTest");
+    KafkaMessageBusConsumer kafkaMessageBusConsumer =
+            new KafkaMessageBusConsumer();
+    Assert.assertTrue(
+            kafkaMessageBusConsumer.connect(consumerSettings).isSuccess()
+    );
+
+    kafkaMessageBusConsumer.addRecordListener((validationObject) -> {
+      waiter.assertTrue(validationObject.isSuccess());
+
+      MessageBusRecord record = validationObject.success().get(0);
+      waiter.assertEquals("recordTopic", record.getTopic());
+      waiter.assertEquals(0L, record.getOffset());
+      waiter.assertTrue(Arrays.equals(
+              "testValue".getBytes(StandardCharsets.UTF_8),
+              record.getValueBytes()
+      ));
+
+      ByteBuffer keyBuffer = record.getKeyBuffer();
+      waiter.assertTrue(keyBuffer.isReadOnly());
+      waiter.assertEquals(
+              "testKey",
+              StandardCharsets.UTF_8.decode(keyBuffer).toString()
+      );
+      waiter.assertEquals("testValue", record.getValue());
+      waiter.resume();
+    });
+    kafkaMessageBusConsumer.listenToMessageBus("recordTopic");
+
+    waiter.await(5000);
+    kafkaMessageBusConsumer.disconnect();
+  }
+
 }
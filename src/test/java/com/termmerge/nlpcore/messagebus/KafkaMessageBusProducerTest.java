@@ -0,0 +1,168 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import java.util.Properties;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import com.github.charithe.kafka.KafkaJunitRule;
+import com.github.charithe.kafka.EphemeralKafkaBroker;
+import com.termmerge.nlpcore.quorum.TaskManager;
+import com.termmerge.nlpcore.quorum.QuorumMessage;
+import com.termmerge.nlpcore.quorum.JSONQuorumMessageProcessor;
+import fj.data.Validation;
+import org.junit.Assert;
+
+
+public class KafkaMessageBusProducerTest
+{
+
+  @ClassRule
+  public static KafkaJunitRule kafkaRule =
+          new KafkaJunitRule(EphemeralKafkaBroker.create());
+
+  private Properties producerSettings()
+  {
+    Properties settings = new Properties();
+    settings.setProperty(
+            "connection_string",
+            "localhost:" + Integer.toString(
+                    kafkaRule.helper().kafkaPort()
+            )
+    );
+    settings.setProperty("linger_ms", "20");
+    settings.setProperty("compression_type", "gzip");
+    return settings;
+  }
+
+  @Test
+  public void testMissingSettingsFail()
+  {
+    KafkaMessageBusProducer kafkaMessageBusProducer =
+            new KafkaMessageBusProducer();
+    Assert.assertTrue(
+            kafkaMessageBusProducer.connect(new Properties()).isFail()
+    );
+  }
+
+  @Test
+  public void testPublishQuorumMessage() throws Throwable
+  {
+    KafkaMessageBusProducer kafkaMessageBusProducer =
+            new KafkaMessageBusProducer();
+    Assert.assertTrue(
+            kafkaMessageBusProducer.connect(producerSettings()).isSuccess()
+    );
+
+    Validation<RuntimeException, QuorumMessage> quorumMessage =
+            (new QuorumMessage.Builder())
+                    .asResponseMessage()
+                    .setTask(QuorumMessage.NLP_POS)
+                    .setParam("key1", "value1")
+                    .build(new StaticTaskManager());
+    Assert.assertTrue(quorumMessage.isSuccess());
+
+    Validation<RuntimeException, String> serialized =
+            (new JSONQuorumMessageProcessor())
+                    .serialize(quorumMessage.success());
+    Validation<RuntimeException, Long> sendValidation =
+            kafkaMessageBusProducer.publishToMessageBus(
+                    "responseTopic",
+                    quorumMessage.success().getConsumerId(),
+                    serialized
+            ).get(5, TimeUnit.SECONDS);
+    Assert.assertTrue(sendValidation.isSuccess());
+    Assert.assertEquals(0L, (long) sendValidation.success());
+
+    // The serialized message comes off the bus untouched
+    List<String> received = kafkaRule.helper()
+            .consumeStrings("responseTopic", 1)
+            .get(5, TimeUnit.SECONDS);
+    Assert.assertEquals(serialized.success(), received.get(0));
+
+    Assert.assertEquals(
+            1,
+            kafkaMessageBusProducer
+                    .getMetricRegistry()
+                    .timer("send.latency")
+                    .getCount()
+    );
+    Assert.assertTrue(kafkaMessageBusProducer.disconnect().isSuccess());
+  }
+
+  @Test
+  public void testFailedSerializationIsNotSent() throws Throwable
+  {
+    KafkaMessageBusProducer kafkaMessageBusProducer =
+            new KafkaMessageBusProducer();
+    Assert.assertTrue(
+            kafkaMessageBusProducer.connect(producerSettings()).isSuccess()
+    );
+
+    Validation<RuntimeException, Long> sendValidation =
+            kafkaMessageBusProducer.publishToMessageBus(
+                    "responseTopic",
+                    "key",
+                    Validation.<RuntimeException, String>fail(
+                            new IllegalStateException("Cannot serialize")
+                    )
+            ).get(5, TimeUnit.SECONDS);
+    Assert.assertTrue(sendValidation.isFail());
+    Assert.assertEquals(
+            0,
+            kafkaMessageBusProducer
+                    .getMetricRegistry()
+                    .timer("send.latency")
+                    .getCount()
+    );
+    Assert.assertTrue(kafkaMessageBusProducer.disconnect().isSuccess());
+  }
+
+  @Test
+  public void testPublishTombstone() throws Throwable
+  {
+    KafkaMessageBusProducer kafkaMessageBusProducer =
+            new KafkaMessageBusProducer();
+    Assert.assertTrue(
+            kafkaMessageBusProducer.connect(producerSettings()).isSuccess()
+    );
+
+    Validation<RuntimeException, Long> sendValidation =
+            kafkaMessageBusProducer.publishToMessageBus(
+                    "tombstoneTopic",
+                    "key",
+                    Validation.<RuntimeException, String>success(null)
+            ).get(5, TimeUnit.SECONDS);
+    Assert.assertTrue(sendValidation.isSuccess());
+    Assert.assertEquals(
+            1,
+            kafkaMessageBusProducer
+                    .getMetricRegistry()
+                    .histogram("send.payload_size")
+                    .getCount()
+    );
+    Assert.assertTrue(kafkaMessageBusProducer.disconnect().isSuccess());
+  }
+
+  private static class StaticTaskManager
+          implements TaskManager
+  {
+
+    @Override
+    public Validation<RuntimeException, String> generateId()
+    {
+      return Validation.success("1");
+    }
+
+    @Override
+    public Validation<RuntimeException, String> destroyId(String taskId)
+    {
+      return Validation.success(taskId);
+    }
+
+  }
+
+}
@@ -0,0 +1,82 @@
+package com.termmerge.nlpcore.messagebus;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class ListenerRegistryTest
+{
+
+  @Test
+  public void testRegistrationNotBlockedByDispatch() throws Throwable
+  {
+    MetricRegistry metricRegistry = new MetricRegistry();
+    ListenerRegistry<Consumer<String>> registry =
+            new ListenerRegistry<>(metricRegistry, "listeners");
+
+    // A listener that stalls until told otherwise
+    CountDownLatch dispatchStarted = new CountDownLatch(1);
+    CountDownLatch releaseDispatch = new CountDownLatch(1);
+    registry.add((message) -> {
+      dispatchStarted.countDown();
+      try {
+        releaseDispatch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    Thread dispatchThread = new Thread(
+            () -> registry.forEach(listener -> listener.accept("message"))
+    );
+    dispatchThread.start();
+    Assert.assertTrue(dispatchStarted.await(1, TimeUnit.SECONDS));
+
+    // Registration completes while the slow listener is still running
+    Consumer<String> lateListener = (message) -> {};
+    registry.add(lateListener);
+    Assert.assertEquals(2, registry.size());
+    Assert.assertTrue(registry.remove(lateListener));
+    Assert.assertEquals(1, registry.size());
+
+    releaseDispatch.countDown();
+    dispatchThread.join(1000);
+
+    Assert.assertEquals(
+            3,
+            metricRegistry.timer("listeners.registration").getCount()
+    );
+    Assert.assertEquals(
+            1,
+            metricRegistry.timer("listeners.dispatch").getCount()
+    );
+  }
+
+  @Test
+  public void testDispatchIteratesSnapshot()
+  {
+    ListenerRegistry<Consumer<String>> registry =
+            new ListenerRegistry<>(new MetricRegistry(), "listeners");
+    List<String> received = new ArrayList<>();
+
+    // Listeners added during dispatch only see the next dispatch
+    Consumer<String> recordingListener = received::add;
+    registry.add((message) -> registry.add(recordingListener));
+    registry.forEach(listener -> listener.accept("first"));
+    Assert.assertTrue(received.isEmpty());
+    Assert.assertEquals(2, registry.size());
+
+    registry.forEach(listener -> listener.accept("second"));
+    Assert.assertEquals(1, received.size());
+    Assert.assertEquals("second", received.get(0));
+  }
+
+}
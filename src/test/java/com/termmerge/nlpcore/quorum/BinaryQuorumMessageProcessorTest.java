@@ -0,0 +1,254 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.util.Properties;
+
+import fj.data.Validation;
+import org.junit.Test;
+
+import org.junit.Assert;
+
+
+public class BinaryQuorumMessageProcessorTest
+{
+
+  private static final TaskManager FIXED_TASK_MANAGER = new TaskManager()
+  {
+    @Override
+    public Validation<RuntimeException, String> generateId()
+    {
+      return Validation.success("9f1b7c64-2b1e-4c2e-9c55-0d7d1c1a4f10");
+    }
+
+    @Override
+    public Validation<RuntimeException, String> destroyId(String taskId)
+    {
+      return Validation.success(taskId);
+    }
+  };
+
+  private static QuorumMessage requestMessage()
+  {
+    return (new QuorumMessage.Builder())
+            .asRequestMessage()
+            .setTask(QuorumMessage.NLP_DEPENDENCY)
+            .setParam("sentence", "Terms merge into convergences.")
+            .setParam("language", "en")
+            .build(FIXED_TASK_MANAGER)
+            .success();
+  }
+
+  @Test
+  public void testRoundTrip()
+  {
+    QuorumMessage quorumMessage = requestMessage();
+    BinaryQuorumMessageProcessor binaryProcessor =
+            new BinaryQuorumMessageProcessor();
+
+    Validation<RuntimeException, QuorumMessage> validationObject =
+            binaryProcessor.deserialize(
+                    binaryProcessor.serialize(quorumMessage).success()
+            );
+    Assert.assertTrue(validationObject.isSuccess());
+
+    QuorumMessage roundTripped = validationObject.success();
+    Assert.assertEquals(quorumMessage.getSender(), roundTripped.getSender());
+    Assert.assertEquals(
+            quorumMessage.getRecipient(),
+            roundTripped.getRecipient()
+    );
+    Assert.assertEquals(quorumMessage.getTask(), roundTripped.getTask());
+    Assert.assertEquals(
+            quorumMessage.getConsumerId(),
+            roundTripped.getConsumerId()
+    );
+    Assert.assertEquals(quorumMessage.getTime(), roundTripped.getTime());
+    Assert.assertEquals(quorumMessage.getParams(), roundTripped.getParams());
+  }
+
+  @Test
+  public void testUnknownValuesRoundTrip()
+  {
+    QuorumMessage quorumMessage = new QuorumMessage(
+            "someSender",
+            null,
+            "empire",
+            null,
+            QuorumMessage.NO_TIME,
+            new QuorumMessageParams.Builder().put("key1", "value1").build()
+    );
+    BinaryQuorumMessageProcessor binaryProcessor =
+            new BinaryQuorumMessageProcessor();
+
+    QuorumMessage roundTripped = binaryProcessor
+            .deserializeFromBytes(
+                    binaryProcessor.serializeToBytes(quorumMessage).success()
+            )
+            .success();
+    Assert.assertEquals("someSender", roundTripped.getSender());
+    Assert.assertNull(roundTripped.getRecipient());
+    Assert.assertEquals("empire", roundTripped.getTask());
+    Assert.assertNull(roundTripped.getConsumerId());
+    Assert.assertNull(roundTripped.getTime());
+    Assert.assertEquals("value1", roundTripped.getParam("key1"));
+  }
+
+  @Test
+  public void testSmallerThanJson()
+  {
+    QuorumMessage quorumMessage = requestMessage();
+    int binarySize = new BinaryQuorumMessageProcessor()
+            .serializeToBytes(quorumMessage).success().length;
+    int jsonSize = new JSONQuorumMessageProcessor()
+            .serializeToBytes(quorumMessage).success().length;
+    Assert.assertTrue(binarySize * 2 < jsonSize);
+  }
+
+  @Test
+  public void testMalformedInputFails()
+  {
+    BinaryQuorumMessageProcessor binaryProcessor =
+            new BinaryQuorumMessageProcessor();
+    byte[] serialized =
+            binaryProcessor.serializeToBytes(requestMessage()).success();
+
+    Assert.assertTrue(binaryProcessor.deserializeFromBytes(
+            Arrays.copyOf(serialized, serialized.length / 2)
+    ).isFail());
+
+    serialized[0] = (byte) (BinaryQuorumMessageProcessor.VERSION + 1);
+    Assert.assertTrue(
+            binaryProcessor.deserializeFromBytes(serialized).isFail()
+    );
+    Assert.assertTrue(binaryProcessor.deserialize("not base64!").isFail());
+  }
+
+  @Test
+  public void testCodecSelection()
+  {
+    Properties settings = new Properties();
+    Assert.assertTrue(
+            QuorumMessageProcessors.fromProperties(settings).success()
+                    instanceof JSONQuorumMessageProcessor
+    );
+
+    settings.setProperty("quorum_codec", "binary");
+    Assert.assertTrue(
+            QuorumMessageProcessors.fromProperties(settings).success()
+                    instanceof BinaryQuorumMessageProcessor
+    );
+
+    settings.setProperty("quorum_codec", "xml");
+    Assert.assertTrue(
+            QuorumMessageProcessors.fromProperties(settings).isFail()
+    );
+  }
+
+  @Test
+  public void testBufferAndStreamVariants()
+  {
+    QuorumMessage quorumMessage = requestMessage();
+    BinaryQuorumMessageProcessor binaryProcessor =
+            new BinaryQuorumMessageProcessor();
+    byte[] serialized =
+            binaryProcessor.serializeToBytes(quorumMessage).success();
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    Assert.assertEquals(
+            serialized.length,
+            (int) binaryProcessor.serializeTo(quorumMessage, outputStream)
+                    .success()
+    );
+    Assert.assertArrayEquals(serialized, outputStream.toByteArray());
+
+    // Written after a header, read back from a slice of a direct buffer
+    ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+    buffer.putInt(42);
+    Assert.assertEquals(
+            serialized.length,
+            (int) binaryProcessor.serializeTo(quorumMessage, buffer)
+                    .success()
+    );
+    buffer.flip();
+    buffer.getInt();
+    QuorumMessage roundTripped =
+            binaryProcessor.deserializeFrom(buffer).success();
+    Assert.assertFalse(buffer.hasRemaining());
+    Assert.assertEquals(quorumMessage.getParams(), roundTripped.getParams());
+
+    ByteBuffer tooSmall = ByteBuffer.allocate(serialized.length - 1);
+    Assert.assertTrue(
+            binaryProcessor.serializeTo(quorumMessage, tooSmall).fail()
+                    instanceof BufferOverflowException
+    );
+    Assert.assertEquals(0, tooSmall.position());
+  }
+
+  @Test
+  public void testPooledBuffers()
+  {
+    QuorumMessage quorumMessage = requestMessage();
+    BinaryQuorumMessageProcessor binaryProcessor =
+            new BinaryQuorumMessageProcessor();
+    QuorumMessageBufferPool bufferPool =
+            new QuorumMessageBufferPool(512, 1, false);
+
+    ByteBuffer pooled = binaryProcessor
+            .serializeToPooledBuffer(quorumMessage, bufferPool)
+            .success();
+    Assert.assertEquals(
+            quorumMessage.getTask(),
+            binaryProcessor.deserializeFrom(pooled.duplicate())
+                    .success()
+                    .getTask()
+    );
+    bufferPool.release(pooled);
+    Assert.assertEquals(1, bufferPool.idleBuffers());
+    Assert.assertSame(pooled, bufferPool.acquire());
+
+    // Messages larger than the pool's buffers get their own
+    QuorumMessageBufferPool smallPool =
+            new QuorumMessageBufferPool(8, 1, false);
+    ByteBuffer unpooled = binaryProcessor
+            .serializeToPooledBuffer(quorumMessage, smallPool)
+            .success();
+    Assert.assertTrue(unpooled.capacity() > 8);
+    smallPool.release(unpooled);
+    Assert.assertEquals(1, smallPool.idleBuffers());
+    Assert.assertEquals(8, smallPool.acquire().capacity());
+  }
+
+  @Test
+  public void testLazyDeserialization()
+  {
+    BinaryQuorumMessageProcessor processor =
+            new BinaryQuorumMessageProcessor();
+    QuorumMessage quorumMessage = requestMessage();
+    byte[] serialized = processor.serializeToBytes(quorumMessage).success();
+
+    // Routing fields come first, so a cut-off message still routes
+    QuorumMessageRoute route = processor.deserializeLazilyFromBytes(
+            Arrays.copyOf(serialized, 4)
+    ).success();
+    Assert.assertEquals(QuorumGroup.NLP_INTERFACE, route.getSenderGroup());
+    Assert.assertEquals(QuorumGroup.NLP_COMPUTE, route.getRecipientGroup());
+    Assert.assertEquals(QuorumTask.NLP_DEPENDENCY, route.getTaskType());
+    Assert.assertTrue(route.getMessage().isFail());
+
+    route = processor.deserializeLazily(
+            processor.serialize(quorumMessage).success()
+    ).success();
+    Assert.assertEquals(
+            quorumMessage.getParamMap(),
+            route.getMessage().success().getParamMap()
+    );
+
+    Assert.assertTrue(
+            processor.deserializeLazilyFromBytes(new byte[]{1, 1}).isFail()
+    );
+  }
+
+}
@@ -0,0 +1,141 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import com.termmerge.nlpcore.messagebus.MessageBusRecord;
+
+import fj.data.Validation;
+import org.junit.Test;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+
+
+public class CorrelationRegistryTest
+{
+
+  private CorrelationRegistry correlationRegistry;
+
+  @Before
+  public void beforeEachStartRegistry()
+  {
+    Properties settings = new Properties();
+    settings.setProperty("max_pending", "3");
+    settings.setProperty("tick_ms", "5");
+    settings.setProperty("wheel_size", "8");
+    this.correlationRegistry =
+            CorrelationRegistry.fromProperties(settings).success();
+    Assert.assertTrue(this.correlationRegistry.start().isSuccess());
+  }
+
+  @After
+  public void afterEachCloseRegistry()
+  {
+    this.correlationRegistry.close(1000);
+  }
+
+  private static QuorumMessage response(String taskId)
+  {
+    return new QuorumMessage(
+            QuorumGroup.NLP_COMPUTE,
+            QuorumGroup.NLP_INTERFACE,
+            QuorumTask.WORDNET,
+            taskId,
+            QuorumMessage.NO_TIME,
+            QuorumMessageParams.EMPTY
+    );
+  }
+
+  @Test
+  public void testInvalidSettingsFail()
+  {
+    Properties settings = new Properties();
+    settings.setProperty("wheel_size", "100");
+    Assert.assertTrue(CorrelationRegistry.fromProperties(settings).isFail());
+  }
+
+  @Test
+  public void testResponseCompletesRequest()
+  {
+    CompletableFuture<Validation<RuntimeException, QuorumMessage>> waiting =
+            this.correlationRegistry.register("task-1").success();
+    Assert.assertTrue(
+            this.correlationRegistry.register("task-1").isFail()
+    );
+
+    Assert.assertFalse(this.correlationRegistry.complete(response("other")));
+    Assert.assertFalse(waiting.isDone());
+    Assert.assertTrue(this.correlationRegistry.complete(response("task-1")));
+    Assert.assertEquals("task-1", waiting.join().success().getConsumerId());
+
+    // Answered once only
+    Assert.assertFalse(this.correlationRegistry.complete(response("task-1")));
+  }
+
+  @Test
+  public void testUnansweredRequestsExpire()
+  {
+    CompletableFuture<Validation<RuntimeException, QuorumMessage>> expiring =
+            this.correlationRegistry.register("task-1", 20).success();
+    CompletableFuture<Validation<RuntimeException, QuorumMessage>> lasting =
+            this.correlationRegistry.register("task-2", 60000).success();
+
+    Assert.assertTrue(expiring.join().isFail());
+    Assert.assertFalse(lasting.isDone());
+    Assert.assertFalse(this.correlationRegistry.complete(response("task-1")));
+    Assert.assertEquals(
+            1,
+            this.correlationRegistry.getMetricRegistry()
+                    .meter("requests.expired").getCount()
+    );
+  }
+
+  @Test
+  public void testPendingRequestsBounded()
+  {
+    for (int i = 0; i < 3; i++) {
+      Assert.assertTrue(
+              this.correlationRegistry.register("task-" + i).isSuccess()
+      );
+    }
+    Assert.assertTrue(this.correlationRegistry.register("task-3").isFail());
+
+    this.correlationRegistry.complete(response("task-0"));
+    Assert.assertTrue(this.correlationRegistry.register("task-3").isSuccess());
+  }
+
+  @Test
+  public void testRecordListenerCompletesRequests()
+  {
+    CompletableFuture<Validation<RuntimeException, QuorumMessage>> waiting =
+            this.correlationRegistry.register("task-1").success();
+
+    QuorumMessageProcessor processor = new BinaryQuorumMessageProcessor();
+    byte[] value = processor.serializeToBytes(response("task-1")).success();
+    this.correlationRegistry.recordListener(processor).accept(
+            Validation.success(Arrays.asList(
+                    new MessageBusRecord("responses", 0, 0, null, null),
+                    new MessageBusRecord("responses", 0, 1, null, value)
+            ))
+    );
+
+    Assert.assertTrue(waiting.isDone());
+    Assert.assertEquals(
+            QuorumTask.WORDNET,
+            waiting.join().success().getTaskType()
+    );
+  }
+
+  @Test
+  public void testCloseFailsWaitingRequests()
+  {
+    CompletableFuture<Validation<RuntimeException, QuorumMessage>> waiting =
+            this.correlationRegistry.register("task-1").success();
+    Assert.assertTrue(this.correlationRegistry.close(1000).isSuccess());
+
+    Assert.assertTrue(waiting.join().isFail());
+    Assert.assertTrue(this.correlationRegistry.register("task-2").isFail());
+  }
+
+}
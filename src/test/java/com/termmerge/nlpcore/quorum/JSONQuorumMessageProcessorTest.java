@@ -1,5 +1,12 @@
 package com.termmerge.nlpcore.quorum;
 
+import java.util.Date;
+import java.nio.ByteBuffer;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.BufferOverflowException;
+
+import com.google.gson.Gson;
 import fj.data.Validation;
 import org.junit.Test;
 
@@ -94,4 +101,181 @@ public class JSONQuorumMessageProcessorTest
     );
   }
 
+  @Test
+  public void testRoundTrip()
+  {
+    TaskManager taskIdManager = new TaskManager()
+    {
+      @Override
+      public Validation<RuntimeException, String> generateId()
+      {
+        return Validation.success("ABC1");
+      }
+
+      @Override
+      public Validation<RuntimeException, String> destroyId(String taskId)
+      {
+        return Validation.success(taskId);
+      }
+    };
+    QuorumMessage quorumMessage = (new QuorumMessage.Builder())
+            .asResponseMessage()
+            .setTask(QuorumMessage.NLP_POS)
+            .setParam("key1", "value1")
+            .build(taskIdManager)
+            .success();
+
+    JSONQuorumMessageProcessor jsonProcessor =
+            new JSONQuorumMessageProcessor();
+    QuorumMessage roundTripped = jsonProcessor
+            .deserialize(jsonProcessor.serialize(quorumMessage).success())
+            .success();
+
+    Assert.assertEquals(quorumMessage.getSender(), roundTripped.getSender());
+    Assert.assertEquals(
+            quorumMessage.getRecipient(),
+            roundTripped.getRecipient()
+    );
+    Assert.assertEquals(quorumMessage.getTask(), roundTripped.getTask());
+    Assert.assertEquals("ABC1", roundTripped.getConsumerId());
+    Assert.assertEquals(quorumMessage.getTime(), roundTripped.getTime());
+    Assert.assertEquals(
+            "value1",
+            roundTripped.getParams().getProperty("key1")
+    );
+  }
+
+  @Test
+  public void testDeserializationOfLegacyTime()
+  {
+    // Format the reflective mapping used to write "time" in
+    String legacyTime = new Gson().toJson(new Date(1483117437000L));
+    String jsonPacket = "{" +
+            "\"sender\":\"nlpcore_interface\"," +
+            "\"time\":" + legacyTime + "," +
+            "\"unknownField\":{\"nested\":[1,2]}" +
+            "}";
+
+    Validation<RuntimeException, QuorumMessage> validationObject =
+            (new JSONQuorumMessageProcessor()).deserialize(jsonPacket);
+    Assert.assertTrue(validationObject.isSuccess());
+    Assert.assertEquals(
+            "nlpcore_interface",
+            validationObject.success().getSender()
+    );
+    Assert.assertEquals(
+            1483117437000L,
+            validationObject.success().getTime().getTime()
+    );
+  }
+
+  @Test
+  public void testDeserializationOfMalformedJsonFails()
+  {
+    Assert.assertTrue(
+            (new JSONQuorumMessageProcessor())
+                    .deserialize("{\"sender\": ")
+                    .isFail()
+    );
+  }
+
+  @Test
+  public void testBufferAndStreamVariants()
+  {
+    String jsonPacket = "{" +
+            "\"sender\":\"nlpcore_interface\"," +
+            "\"task\":\"nlp_tokenize\"," +
+            "\"time\":1483117437420," +
+            "\"params\":{\"sentence\":" +
+            "\"Z\u00fcrich \u2013 na\u00efve \ud83d\ude00\"}" +
+            "}";
+    JSONQuorumMessageProcessor jsonProcessor =
+            new JSONQuorumMessageProcessor();
+    QuorumMessage quorumMessage =
+            jsonProcessor.deserialize(jsonPacket).success();
+    byte[] expected = jsonProcessor.serialize(quorumMessage).success()
+            .getBytes(StandardCharsets.UTF_8);
+
+    Assert.assertArrayEquals(
+            expected,
+            jsonProcessor.serializeToBytes(quorumMessage).success()
+    );
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    jsonProcessor.serializeTo(quorumMessage, outputStream);
+    Assert.assertArrayEquals(expected, outputStream.toByteArray());
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(512);
+    Assert.assertEquals(
+            expected.length,
+            (int) jsonProcessor.serializeTo(quorumMessage, buffer).success()
+    );
+    buffer.flip();
+    Assert.assertEquals(
+            quorumMessage.getParams(),
+            jsonProcessor.deserializeFrom(buffer).success().getParams()
+    );
+
+    ByteBuffer tooSmall = ByteBuffer.allocate(expected.length - 1);
+    Assert.assertTrue(
+            jsonProcessor.serializeTo(quorumMessage, tooSmall).fail()
+                    instanceof BufferOverflowException
+    );
+    Assert.assertEquals(0, tooSmall.position());
+  }
+
+  @Test
+  public void testLazyDeserializationReadsRouteFirst()
+  {
+    // Malformed past the routing fields: only the full decode notices
+    String jsonPacket = "{" +
+            "\"sender\":\"nlpcore_interface\"," +
+            "\"extra\":{\"nested\":[1,2,{\"deep\":true}]}," +
+            "\"recipient\":\"nlpcore_compute\"," +
+            "\"task\":\"wordnet\"," +
+            "\"params\":{\"word\":" +
+            "}";
+    JSONQuorumMessageProcessor processor = new JSONQuorumMessageProcessor();
+    Assert.assertTrue(processor.deserialize(jsonPacket).isFail());
+
+    QuorumMessageRoute route =
+            processor.deserializeLazily(jsonPacket).success();
+    Assert.assertEquals(QuorumGroup.NLP_INTERFACE, route.getSenderGroup());
+    Assert.assertEquals(QuorumGroup.NLP_COMPUTE, route.getRecipientGroup());
+    Assert.assertEquals(QuorumTask.WORDNET, route.getTaskType());
+    Assert.assertTrue(route.getMessage().isFail());
+
+    Assert.assertTrue(processor.deserializeLazily("[]").isFail());
+  }
+
+  @Test
+  public void testLazyDeserializationFromBytes()
+  {
+    // Multi-byte and supplementary characters ahead of the route
+    String jsonPacket = "{" +
+            "\"consumerId\":\"caf\u00e9 \uD83D\uDE00\"," +
+            "\"sender\":\"nlpcore_compute\"," +
+            "\"recipient\":\"some_recipient\"," +
+            "\"task\":\"nlp_\u00fcber\"," +
+            "\"params\":{\"word\":\"merge\"}" +
+            "}";
+    byte[] serialized = jsonPacket.getBytes(StandardCharsets.UTF_8);
+    JSONQuorumMessageProcessor processor = new JSONQuorumMessageProcessor();
+
+    QuorumMessageRoute route =
+            processor.deserializeLazilyFromBytes(serialized).success();
+    Assert.assertEquals(QuorumGroup.NLP_COMPUTE, route.getSenderGroup());
+    Assert.assertNull(route.getRecipientGroup());
+    Assert.assertEquals("some_recipient", route.getRecipient());
+    Assert.assertEquals("nlp_\u00fcber", route.getTask());
+
+    QuorumMessage quorumMessage = route.getMessage().success();
+    Assert.assertSame(quorumMessage, route.getMessage().success());
+    Assert.assertEquals(
+            "caf\u00e9 \uD83D\uDE00",
+            quorumMessage.getConsumerId()
+    );
+    Assert.assertEquals("merge", quorumMessage.getParam("word"));
+  }
+
 }
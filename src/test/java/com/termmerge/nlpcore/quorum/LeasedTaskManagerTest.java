@@ -0,0 +1,172 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.util.Set;
+import java.util.List;
+import java.util.UUID;
+
+import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.termmerge.nlpcore.datastore.PostgresDataStore;
+import fj.data.Validation;
+import acolyte.jdbc.RowList1;
+import acolyte.jdbc.RowLists;
+import acolyte.jdbc.CompositeHandler;
+import acolyte.jdbc.StatementHandler;
+
+import org.junit.Test;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+
+
+public class LeasedTaskManagerTest
+{
+
+  private List<String> statements;
+  private PostgresDataStore dataStore;
+
+  @Before
+  public void beforeEachSetupDB()
+  {
+    this.statements = new CopyOnWriteArrayList<>();
+    StatementHandler sqlHandler = new CompositeHandler()
+            .withQueryDetection("^SELECT")
+            .withQueryHandler((sql, parameters) -> {
+              // Statements along with their bound values
+              this.statements.add(sql + parameters.stream()
+                      .map(parameter -> String.valueOf(parameter.right))
+                      .collect(Collectors.joining(", ", " [", "]"))
+              );
+              RowList1.Impl<String> rows = RowLists.stringList();
+
+              // reserve_tasks(description, consumer_id, lease_size)
+              if (sql.contains("reserve_tasks")) {
+                for (int i = (Integer) parameters.get(2).right;
+                     i > 0; i--) {
+                  rows = rows.append(UUID.randomUUID().toString());
+                }
+              }
+              return rows.asResult();
+            });
+    acolyte.jdbc.Driver.register("leasedTasks", sqlHandler);
+
+    Properties dataStoreSettings = new Properties();
+    dataStoreSettings.setProperty(
+            "connection_string",
+            "jdbc:acolyte:leasedTasks?handler=leasedTasks"
+    );
+    this.dataStore = new PostgresDataStore();
+    Assert.assertTrue(this.dataStore.connect(dataStoreSettings).isSuccess());
+  }
+
+  @After
+  public void afterEachDisconnect()
+  {
+    this.dataStore.disconnect();
+  }
+
+  @Test
+  public void testInvalidSettingsFail()
+  {
+    Properties settings = new Properties();
+    settings.setProperty("lease_size", "10");
+    settings.setProperty("low_watermark", "10");
+    Assert.assertTrue(
+            LeasedTaskManager.fromProperties(this.dataStore, settings)
+                    .isFail()
+    );
+
+    settings.setProperty("low_watermark", "2");
+    settings.setProperty("consumer_id", "someone");
+    Assert.assertTrue(
+            LeasedTaskManager.fromProperties(this.dataStore, settings)
+                    .isFail()
+    );
+  }
+
+  @Test
+  public void testIdsHandedOutFromLeases()
+  {
+    Properties settings = new Properties();
+    settings.setProperty("lease_size", "10");
+    settings.setProperty("low_watermark", "3");
+    settings.setProperty("release_interval_ms", "1");
+    LeasedTaskManager taskManager =
+            LeasedTaskManager.fromProperties(this.dataStore, settings)
+                    .success();
+    Assert.assertTrue(taskManager.generateId().isFail());
+    Assert.assertTrue(taskManager.start().isSuccess());
+
+    Set<String> taskIds = new HashSet<>();
+    for (int i = 0; i < 55; i++) {
+      taskIds.add(taskManager.generateId().success());
+    }
+    Assert.assertEquals(55, taskIds.size());
+
+    String destroyedId = taskIds.iterator().next();
+    Assert.assertTrue(taskManager.destroyId(destroyedId).isSuccess());
+    Assert.assertTrue(taskManager.destroyId("not-a-task").isFail());
+    Assert.assertTrue(taskManager.destroyId("1-1-1-1-1").isFail());
+    Assert.assertTrue(taskManager.destroyId(null).isFail());
+
+    Assert.assertTrue(taskManager.close(5000).isSuccess());
+    Assert.assertTrue(taskManager.generateId().isFail());
+
+    long reserved = taskManager.getMetricRegistry()
+            .meter("ids.reserved").getCount();
+    long released = taskManager.getMetricRegistry()
+            .meter("ids.released").getCount();
+    Assert.assertTrue(reserved >= 60);
+    Assert.assertEquals(reserved - 55 + 1, released);
+
+    boolean destroyedReleased = false;
+    for (String statement : this.statements) {
+      Assert.assertTrue(
+              statement.startsWith("SELECT * FROM reserve_tasks(") ||
+                      statement.startsWith("SELECT * FROM release_tasks(")
+      );
+      destroyedReleased |= statement.startsWith(
+              "SELECT * FROM release_tasks("
+      ) && statement.contains(destroyedId);
+    }
+    Assert.assertTrue(destroyedReleased);
+  }
+
+  @Test
+  public void testAsyncIdsWaitForNextLease()
+  {
+    Properties settings = new Properties();
+    settings.setProperty("lease_size", "4");
+    settings.setProperty("low_watermark", "0");
+    settings.setProperty("release_interval_ms", "1000");
+    LeasedTaskManager taskManager =
+            LeasedTaskManager.fromProperties(this.dataStore, settings)
+                    .success();
+    Assert.assertTrue(taskManager.start().isSuccess());
+
+    List<CompletableFuture<Validation<RuntimeException, String>>> pending =
+            new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      pending.add(taskManager.generateIdAsync().toCompletableFuture());
+    }
+
+    Set<String> taskIds = new HashSet<>();
+    for (CompletableFuture<Validation<RuntimeException, String>> generated
+            : pending) {
+      taskIds.add(generated.join().success());
+    }
+    Assert.assertEquals(10, taskIds.size());
+
+    Assert.assertTrue(taskManager.close(5000).isSuccess());
+    Assert.assertTrue(
+            taskManager.generateIdAsync().toCompletableFuture().join()
+                    .isFail()
+    );
+  }
+
+}
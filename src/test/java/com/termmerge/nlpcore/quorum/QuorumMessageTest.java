@@ -0,0 +1,230 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.util.Properties;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CompletableFuture;
+
+import fj.data.Validation;
+import org.junit.Test;
+
+import org.junit.Assert;
+
+
+public class QuorumMessageTest
+{
+
+  private static final TaskManager FIXED_TASK_MANAGER = new TaskManager()
+  {
+    @Override
+    public Validation<RuntimeException, String> generateId()
+    {
+      return Validation.success("1");
+    }
+
+    @Override
+    public Validation<RuntimeException, String> destroyId(String taskId)
+    {
+      return Validation.success(taskId);
+    }
+  };
+
+  @Test
+  public void testBuildWithEnumsAndWireNames()
+  {
+    QuorumMessage fromEnums = (new QuorumMessage.Builder())
+            .fromTo(QuorumGroup.NLP_COMPUTE, QuorumGroup.NLP_INTERFACE)
+            .setTask(QuorumTask.WORDNET)
+            .build(FIXED_TASK_MANAGER)
+            .success();
+    QuorumMessage fromWireNames = (new QuorumMessage.Builder())
+            .fromTo("nlpcore_compute", "nlpcore_interface")
+            .setTask("wordnet")
+            .build(FIXED_TASK_MANAGER)
+            .success();
+
+    for (QuorumMessage quorumMessage : new QuorumMessage[]{
+            fromEnums, fromWireNames
+    }) {
+      Assert.assertEquals(
+              QuorumGroup.NLP_COMPUTE,
+              quorumMessage.getSenderGroup()
+      );
+      Assert.assertEquals(
+              QuorumGroup.NLP_INTERFACE,
+              quorumMessage.getRecipientGroup()
+      );
+      Assert.assertEquals(QuorumTask.WORDNET, quorumMessage.getTaskType());
+      Assert.assertEquals(QuorumMessage.WORDNET, quorumMessage.getTask());
+    }
+  }
+
+  @Test
+  public void testBuildRejectsUnknownNames()
+  {
+    Assert.assertTrue((new QuorumMessage.Builder())
+            .asRequestMessage()
+            .setTask("empire")
+            .build(FIXED_TASK_MANAGER)
+            .isFail()
+    );
+    Assert.assertTrue((new QuorumMessage.Builder())
+            .fromTo("nlpcore_interface", "someRecipient")
+            .setTask(QuorumTask.NLP_NER)
+            .build(FIXED_TASK_MANAGER)
+            .isFail()
+    );
+  }
+
+  @Test
+  public void testDeserializedNamesAreShared()
+  {
+    String jsonPacket = "{" +
+            "\"sender\":\"nlpcore_interface\"," +
+            "\"recipient\":\"someRecipient\"," +
+            "\"task\":\"nlp_pos\"" +
+            "}";
+    QuorumMessage quorumMessage = (new JSONQuorumMessageProcessor())
+            .deserialize(jsonPacket)
+            .success();
+
+    Assert.assertSame(
+            QuorumMessage.GROUP_NLP_INTERFACE,
+            quorumMessage.getSender()
+    );
+    Assert.assertSame(QuorumMessage.NLP_POS, quorumMessage.getTask());
+    Assert.assertEquals(QuorumTask.NLP_POS, quorumMessage.getTaskType());
+
+    // Unknown values are kept as they came
+    Assert.assertNull(quorumMessage.getRecipientGroup());
+    Assert.assertEquals("someRecipient", quorumMessage.getRecipient());
+  }
+
+  @Test
+  public void testParamsAndTimeAccessors()
+  {
+    long before = System.currentTimeMillis();
+    QuorumMessage quorumMessage = (new QuorumMessage.Builder())
+            .asRequestMessage()
+            .setTask(QuorumTask.NLP_NER)
+            .setParam("word", "merge")
+            .setParam("radius", "2")
+            .setParam("word", "converge")
+            .build(FIXED_TASK_MANAGER)
+            .success();
+
+    Assert.assertTrue(quorumMessage.getTimeMillis() >= before);
+    Assert.assertEquals(
+            quorumMessage.getTimeMillis(),
+            quorumMessage.getTime().getTime()
+    );
+
+    // Last value of a key wins; keys are kept sorted
+    QuorumMessageParams params = quorumMessage.getParamMap();
+    Assert.assertEquals(2, params.size());
+    Assert.assertEquals("radius", params.keyAt(0));
+    Assert.assertEquals("converge", quorumMessage.getParam("word"));
+    Assert.assertNull(quorumMessage.getParam("missing"));
+    Assert.assertSame(params, quorumMessage.getParamMap());
+
+    // The shim hands out independent copies
+    Properties copy = quorumMessage.getParams();
+    copy.setProperty("word", "changed");
+    Assert.assertEquals("converge", quorumMessage.getParam("word"));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testParamMapIsImmutable()
+  {
+    (new QuorumMessage.Builder())
+            .asRequestMessage()
+            .setTask(QuorumTask.NLP_NER)
+            .setParam("word", "merge")
+            .build(FIXED_TASK_MANAGER)
+            .success()
+            .getParamMap()
+            .put("word", "changed");
+  }
+
+  @Test
+  public void testNoParams()
+  {
+    QuorumMessage quorumMessage = (new QuorumMessage.Builder())
+            .asRequestMessage()
+            .setTask(QuorumTask.NLP_NER)
+            .build(FIXED_TASK_MANAGER)
+            .success();
+
+    Assert.assertTrue(quorumMessage.getParamMap().isEmpty());
+    Assert.assertTrue(quorumMessage.getParams().isEmpty());
+  }
+
+  @Test
+  public void testBuildAsyncSnapshotsBuilder()
+  {
+    CompletableFuture<Validation<RuntimeException, String>> pendingId =
+            new CompletableFuture<>();
+    TaskManager slowTaskManager = new TaskManager()
+    {
+      @Override
+      public Validation<RuntimeException, String> generateId()
+      {
+        return pendingId.join();
+      }
+
+      @Override
+      public CompletionStage<Validation<RuntimeException, String>>
+              generateIdAsync()
+      {
+        return pendingId;
+      }
+
+      @Override
+      public Validation<RuntimeException, String> destroyId(String taskId)
+      {
+        return Validation.success(taskId);
+      }
+    };
+
+    QuorumMessage.Builder builder = (new QuorumMessage.Builder())
+            .asRequestMessage()
+            .setTask(QuorumTask.WORDNET)
+            .setParam("word", "merge");
+    CompletableFuture<Validation<RuntimeException, QuorumMessage>> built =
+            builder.buildAsync(slowTaskManager).toCompletableFuture();
+
+    // Reusing the builder does not change the pending message
+    builder.setTask(QuorumTask.NLP_NER).setParam("word", "changed");
+    Assert.assertFalse(built.isDone());
+
+    pendingId.complete(Validation.success("42"));
+    QuorumMessage quorumMessage = built.join().success();
+    Assert.assertEquals("42", quorumMessage.getConsumerId());
+    Assert.assertEquals(QuorumTask.WORDNET, quorumMessage.getTaskType());
+    Assert.assertEquals("merge", quorumMessage.getParam("word"));
+  }
+
+  @Test
+  public void testBuildAsyncFailures()
+  {
+    Assert.assertTrue((new QuorumMessage.Builder())
+            .asRequestMessage()
+            .setTask("empire")
+            .buildAsync(FIXED_TASK_MANAGER)
+            .toCompletableFuture()
+            .join()
+            .isFail()
+    );
+    Assert.assertEquals(
+            "1",
+            (new QuorumMessage.Builder())
+                    .asRequestMessage()
+                    .setTask(QuorumTask.NLP_NER)
+                    .buildAsync(FIXED_TASK_MANAGER)
+                    .toCompletableFuture()
+                    .join()
+                    .success()
+                    .getConsumerId()
+    );
+  }
+
+}
@@ -0,0 +1,290 @@
+package com.termmerge.nlpcore.quorum;
+
+import java.util.Set;
+import java.util.List;
+import java.util.UUID;
+
+import java.util.ArrayList;
+import java.util.Properties;
+import java.sql.SQLException;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.termmerge.nlpcore.datastore.PostgresDataStore;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import acolyte.jdbc.UpdateResult;
+import acolyte.jdbc.CompositeHandler;
+import acolyte.jdbc.StatementHandler;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+
+public class TimeOrderedTaskManagerTest
+{
+
+  private static final int THREADS = 4;
+  private static final int IDS_PER_THREAD = 20000;
+
+  @Test
+  public void testIdsUniqueAcrossThreads() throws InterruptedException
+  {
+    TimeOrderedTaskManager taskManager = new TimeOrderedTaskManager(7);
+    Set<String> taskIds = ConcurrentHashMap.newKeySet();
+
+    List<Thread> generators = new ArrayList<>();
+    for (int i = 0; i < THREADS; i++) {
+      generators.add(new Thread(() -> {
+        for (int j = 0; j < IDS_PER_THREAD; j++) {
+          taskIds.add(taskManager.generateId().success());
+        }
+      }));
+    }
+    for (Thread generator : generators) {
+      generator.start();
+    }
+    for (Thread generator : generators) {
+      generator.join();
+    }
+
+    Assert.assertEquals(THREADS * IDS_PER_THREAD, taskIds.size());
+  }
+
+  @Test
+  public void testIdsOrderedWithinThread()
+  {
+    TimeOrderedTaskManager taskManager = new TimeOrderedTaskManager(0);
+    long before = System.currentTimeMillis();
+
+    UUID previous = UUID.fromString(taskManager.generateId().success());
+    for (int i = 0; i < IDS_PER_THREAD; i++) {
+      String taskId = taskManager.generateId().success();
+      UUID current = UUID.fromString(taskId);
+
+      Assert.assertEquals(7, current.version());
+      Assert.assertEquals(2, current.variant());
+      Assert.assertTrue(
+              Long.compareUnsigned(
+                      previous.getMostSignificantBits(),
+                      current.getMostSignificantBits()
+              ) < 0
+      );
+      Assert.assertTrue(
+              TimeOrderedTaskManager.creationTimeOf(taskId) >= before
+      );
+      previous = current;
+    }
+  }
+
+  @Test
+  public void testInvalidInputRejected()
+  {
+    TimeOrderedTaskManager taskManager = new TimeOrderedTaskManager(1);
+    Assert.assertTrue(taskManager.destroyId("not-a-task").isFail());
+    Assert.assertTrue(taskManager.destroyId("1-1-1-1-1").isFail());
+    Assert.assertTrue(taskManager.destroyId(null).isFail());
+
+    try {
+      new TimeOrderedTaskManager(TimeOrderedTaskManager.MAX_NODE_ID + 1);
+      Assert.fail("Out of range node id accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRowsWrittenInBatches()
+  {
+    List<String> statements = new CopyOnWriteArrayList<>();
+    StatementHandler sqlHandler = new CompositeHandler()
+            .withUpdateHandler((sql, parameters) -> {
+              // Statements along with their bound values
+              statements.add(sql + parameters.stream()
+                      .map(parameter -> String.valueOf(parameter.right))
+                      .collect(Collectors.joining(", ", " [", "]"))
+              );
+              return UpdateResult.One;
+            });
+    acolyte.jdbc.Driver.register("taskRows", sqlHandler);
+
+    Properties dataStoreSettings = new Properties();
+    dataStoreSettings.setProperty(
+            "connection_string",
+            "jdbc:acolyte:taskRows?handler=taskRows"
+    );
+    PostgresDataStore dataStore = new PostgresDataStore();
+    Assert.assertTrue(dataStore.connect(dataStoreSettings).isSuccess());
+
+    Properties writerSettings = new Properties();
+    writerSettings.setProperty("batch_size", "10");
+    writerSettings.setProperty("max_pending", "100");
+    TaskRowWriter rowWriter =
+            TaskRowWriter.fromProperties(dataStore, writerSettings).success();
+
+    TimeOrderedTaskManager taskManager =
+            new TimeOrderedTaskManager(3, rowWriter);
+    List<String> taskIds = new ArrayList<>();
+    for (int i = 0; i < 25; i++) {
+      taskIds.add(taskManager.generateId().success());
+    }
+    Assert.assertTrue(taskManager.destroyId(taskIds.get(0)).isSuccess());
+
+    // Not started yet, so rows pile up until max_pending
+    for (int i = 0; i < 74; i++) {
+      Assert.assertTrue(taskManager.generateId().isSuccess());
+    }
+    Assert.assertTrue(taskManager.generateId().isFail());
+
+    Assert.assertTrue(rowWriter.start().isSuccess());
+    Assert.assertTrue(rowWriter.close(5000).isSuccess());
+    Assert.assertEquals(
+            100,
+            rowWriter.getMetricRegistry().meter("rows.written").getCount()
+    );
+
+    int updates = 0;
+    for (String statement : statements) {
+      if (statement.startsWith("UPDATE")) {
+        updates++;
+        Assert.assertTrue(statement.contains(taskIds.get(0)));
+      }
+    }
+    Assert.assertEquals(1, updates);
+    Assert.assertTrue(statements.get(0).startsWith("INSERT"));
+    Assert.assertTrue(statements.get(0).contains(taskIds.get(0)));
+    Assert.assertEquals(100, statements.size());
+
+    // 10 batches of 10 rows, one of which also holds the destroyed row,
+    //  all through the same two prepared statements
+    MetricRegistry metricRegistry = dataStore.getMetricRegistry();
+    Assert.assertEquals(
+            11,
+            metricRegistry.timer("bulk.flush.latency").getCount()
+    );
+    Assert.assertEquals(
+            2,
+            metricRegistry.meter("statements.misses").getCount()
+    );
+  }
+
+  @Test
+  public void testRejectedRowsDropped() throws InterruptedException
+  {
+    UUID rejectedId = UUID.randomUUID();
+    StatementHandler sqlHandler = new CompositeHandler()
+            .withUpdateHandler((sql, parameters) -> {
+              if (parameters.stream().anyMatch(
+                      parameter -> rejectedId.equals(parameter.right)
+              )) {
+                throw new SQLException("duplicate key value", "23505");
+              }
+              return UpdateResult.One;
+            });
+    acolyte.jdbc.Driver.register("rejectedRows", sqlHandler);
+
+    Properties dataStoreSettings = new Properties();
+    dataStoreSettings.setProperty(
+            "connection_string",
+            "jdbc:acolyte:rejectedRows?handler=rejectedRows"
+    );
+    PostgresDataStore dataStore = new PostgresDataStore();
+    Assert.assertTrue(dataStore.connect(dataStoreSettings).isSuccess());
+
+    Properties writerSettings = new Properties();
+    writerSettings.setProperty("batch_size", "10");
+    writerSettings.setProperty("flush_interval_ms", "1");
+    writerSettings.setProperty("max_attempts", "3");
+    TaskRowWriter rowWriter =
+            TaskRowWriter.fromProperties(dataStore, writerSettings).success();
+
+    for (int i = 0; i < 5; i++) {
+      rowWriter.recordCreated(
+              i == 2 ? rejectedId : UUID.randomUUID(),
+              System.currentTimeMillis()
+      );
+    }
+    Assert.assertTrue(rowWriter.start().isSuccess());
+
+    // Closing stops at the first failed write, so let the retries run out
+    Gauge pendingRows =
+            rowWriter.getMetricRegistry().getGauges().get("rows.pending");
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!Integer.valueOf(0).equals(pendingRows.getValue()) &&
+            System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertTrue(rowWriter.close(5000).isSuccess());
+
+    // 3 attempts of the batch, then the rejected row on its own
+    MetricRegistry metricRegistry = rowWriter.getMetricRegistry();
+    Assert.assertEquals(4, metricRegistry.meter("batch.failures").getCount());
+    Assert.assertEquals(4, metricRegistry.meter("rows.written").getCount());
+    Assert.assertEquals(1, metricRegistry.meter("rows.dropped").getCount());
+    Assert.assertTrue(
+            TaskRowWriter.fromProperties(dataStore, writerSettings(
+                    "max_attempts", "0"
+            )).isFail()
+    );
+  }
+
+  @Test
+  public void testNoRowsDroppedWhileStoreDown() throws InterruptedException
+  {
+    // The datastore is down for more writes than max_attempts allows
+    AtomicInteger failedWrites = new AtomicInteger(0);
+    StatementHandler sqlHandler = new CompositeHandler()
+            .withUpdateHandler((sql, parameters) -> {
+              if (failedWrites.getAndIncrement() < 8) {
+                throw new SQLException("connection refused", "08006");
+              }
+              return UpdateResult.One;
+            });
+    acolyte.jdbc.Driver.register("storeDown", sqlHandler);
+
+    Properties dataStoreSettings = new Properties();
+    dataStoreSettings.setProperty(
+            "connection_string",
+            "jdbc:acolyte:storeDown?handler=storeDown"
+    );
+    PostgresDataStore dataStore = new PostgresDataStore();
+    Assert.assertTrue(dataStore.connect(dataStoreSettings).isSuccess());
+
+    Properties writerSettings = new Properties();
+    writerSettings.setProperty("batch_size", "10");
+    writerSettings.setProperty("flush_interval_ms", "1");
+    writerSettings.setProperty("max_attempts", "3");
+    TaskRowWriter rowWriter =
+            TaskRowWriter.fromProperties(dataStore, writerSettings).success();
+
+    for (int i = 0; i < 5; i++) {
+      rowWriter.recordCreated(UUID.randomUUID(), System.currentTimeMillis());
+    }
+    Assert.assertTrue(rowWriter.start().isSuccess());
+
+    Gauge pendingRows =
+            rowWriter.getMetricRegistry().getGauges().get("rows.pending");
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!Integer.valueOf(0).equals(pendingRows.getValue()) &&
+            System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertTrue(rowWriter.close(5000).isSuccess());
+
+    // Every row waits out the outage, none is set apart or dropped
+    MetricRegistry metricRegistry = rowWriter.getMetricRegistry();
+    Assert.assertEquals(8, metricRegistry.meter("batch.failures").getCount());
+    Assert.assertEquals(5, metricRegistry.meter("rows.written").getCount());
+    Assert.assertEquals(0, metricRegistry.meter("rows.dropped").getCount());
+  }
+
+  private static Properties writerSettings(String key, String value)
+  {
+    Properties writerSettings = new Properties();
+    writerSettings.setProperty(key, value);
+    return writerSettings;
+  }
+
+}